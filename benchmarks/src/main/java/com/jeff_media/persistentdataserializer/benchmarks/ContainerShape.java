@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer.benchmarks;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Synthetic container layouts used by the benchmarks
+ */
+public enum ContainerShape {
+
+    /**
+     * A single container with {@code size} entries of mixed primitive types
+     */
+    FLAT {
+        @Override
+        void fill(@NotNull final PersistentDataContainer pdc, final int size, @NotNull final Random random) {
+            addPrimitives(pdc, size, random);
+        }
+    },
+
+    /**
+     * {@code size} levels of TAG_CONTAINERs, each containing a few primitives and the next level
+     */
+    DEEPLY_NESTED {
+        @Override
+        void fill(@NotNull final PersistentDataContainer pdc, final int size, @NotNull final Random random) {
+            PersistentDataContainer current = pdc;
+            final PersistentDataContainer[] levels = new PersistentDataContainer[size];
+            for (int i = 0; i < size; i++) {
+                levels[i] = current;
+                addPrimitives(current, 4, random);
+                current = pdc.getAdapterContext().newPersistentDataContainer();
+            }
+            // Nested containers are copied when they are set, so they must be set from the innermost level outwards
+            for (int i = size - 1; i > 0; i--) {
+                levels[i - 1].set(key("child"), PersistentDataType.TAG_CONTAINER, levels[i]);
+            }
+        }
+    },
+
+    /**
+     * A TAG_CONTAINER_ARRAY with {@code size} small containers
+     */
+    WIDE_CONTAINER_ARRAY {
+        @Override
+        void fill(@NotNull final PersistentDataContainer pdc, final int size, @NotNull final Random random) {
+            final PersistentDataContainer[] elements = new PersistentDataContainer[size];
+            for (int i = 0; i < size; i++) {
+                elements[i] = pdc.getAdapterContext().newPersistentDataContainer();
+                addPrimitives(elements[i], 4, random);
+            }
+            pdc.set(key("elements"), PersistentDataType.TAG_CONTAINER_ARRAY, elements);
+        }
+    },
+
+    /**
+     * A BYTE_ARRAY and a LONG_ARRAY with {@code size * 64} elements each
+     */
+    LARGE_ARRAYS {
+        @Override
+        void fill(@NotNull final PersistentDataContainer pdc, final int size, @NotNull final Random random) {
+            final byte[] bytes = new byte[size * 64];
+            random.nextBytes(bytes);
+            final long[] longs = new long[size * 64];
+            for (int i = 0; i < longs.length; i++) {
+                longs[i] = random.nextLong();
+            }
+            pdc.set(key("bytes"), PersistentDataType.BYTE_ARRAY, bytes);
+            pdc.set(key("longs"), PersistentDataType.LONG_ARRAY, longs);
+        }
+    };
+
+    /**
+     * Creates a new container of this shape. The same shape and size always create the same container.
+     *
+     * @param size size parameter, see the individual shapes
+     * @return new PersistentDataContainer
+     */
+    @NotNull
+    public PersistentDataContainer create(final int size) {
+        final PersistentDataContainer pdc = new InMemoryPersistentDataContainer();
+        fill(pdc, size, new Random(size));
+        return pdc;
+    }
+
+    abstract void fill(@NotNull PersistentDataContainer pdc, int size, @NotNull Random random);
+
+    private static void addPrimitives(@NotNull final PersistentDataContainer pdc, final int count, @NotNull final Random random) {
+        for (int i = 0; i < count; i++) {
+            final NamespacedKey key = key("key_" + i);
+            switch (i % 6) {
+                case 0:
+                    pdc.set(key, PersistentDataType.STRING, "value " + random.nextInt());
+                    break;
+                case 1:
+                    pdc.set(key, PersistentDataType.INTEGER, random.nextInt());
+                    break;
+                case 2:
+                    pdc.set(key, PersistentDataType.LONG, random.nextLong());
+                    break;
+                case 3:
+                    pdc.set(key, PersistentDataType.DOUBLE, random.nextDouble());
+                    break;
+                case 4:
+                    pdc.set(key, PersistentDataType.BYTE, (byte) random.nextInt());
+                    break;
+                default:
+                    pdc.set(key, PersistentDataType.INTEGER_ARRAY, new int[]{random.nextInt(), random.nextInt(), random.nextInt()});
+                    break;
+            }
+        }
+    }
+
+    @NotNull
+    private static NamespacedKey key(@NotNull final String key) {
+        return new NamespacedKey("benchmark", key);
+    }
+
+}
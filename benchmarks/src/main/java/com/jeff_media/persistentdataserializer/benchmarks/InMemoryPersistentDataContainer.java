@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer.benchmarks;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Minimal {@link PersistentDataContainer} that stores primitive values in a map, so that the benchmarks do not need a server.
+ * Like CraftBukkit's implementation, {@link #get(NamespacedKey, PersistentDataType)} throws an {@link IllegalArgumentException}
+ * if the stored value has a different primitive type, and arrays are copied when they are set and when they are read, so
+ * that the benchmarks allocate as much as they would on a server.
+ */
+public final class InMemoryPersistentDataContainer implements PersistentDataContainer, PersistentDataAdapterContext {
+
+    private final Map<NamespacedKey, Object> values = new LinkedHashMap<>();
+
+    @Override
+    public <T, Z> void set(@NotNull final NamespacedKey key, @NotNull final PersistentDataType<T, Z> type, @NotNull final Z value) {
+        Objects.requireNonNull(key, "key cannot be null");
+        Objects.requireNonNull(value, "value cannot be null");
+        values.put(key, copy(Objects.requireNonNull(type.toPrimitive(value, this), "primitive cannot be null")));
+    }
+
+    @Override
+    public <T, Z> boolean has(@NotNull final NamespacedKey key, @NotNull final PersistentDataType<T, Z> type) {
+        final Object value = values.get(key);
+        return value != null && type.getPrimitiveType().isInstance(value);
+    }
+
+    @Nullable
+    @Override
+    public <T, Z> Z get(@NotNull final NamespacedKey key, @NotNull final PersistentDataType<T, Z> type) {
+        final Object value = values.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (!type.getPrimitiveType().isInstance(value)) {
+            throw new IllegalArgumentException("Value of " + key + " is not of type " + type.getPrimitiveType().getSimpleName());
+        }
+        return type.fromPrimitive(type.getPrimitiveType().cast(copy(value)), this);
+    }
+
+    @NotNull
+    @Override
+    public <T, Z> Z getOrDefault(@NotNull final NamespacedKey key, @NotNull final PersistentDataType<T, Z> type, @NotNull final Z defaultValue) {
+        final Z value = get(key, type);
+        return value == null ? defaultValue : value;
+    }
+
+    @NotNull
+    @Override
+    public Set<NamespacedKey> getKeys() {
+        return new LinkedHashSet<>(values.keySet());
+    }
+
+    @Override
+    public void remove(@NotNull final NamespacedKey key) {
+        values.remove(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    @NotNull
+    @Override
+    public PersistentDataAdapterContext getAdapterContext() {
+        return this;
+    }
+
+    @NotNull
+    @Override
+    public PersistentDataContainer newPersistentDataContainer() {
+        return new InMemoryPersistentDataContainer();
+    }
+
+    @NotNull
+    private static Object copy(@NotNull final Object primitive) {
+        if (primitive instanceof byte[]) {
+            return ((byte[]) primitive).clone();
+        }
+        if (primitive instanceof int[]) {
+            return ((int[]) primitive).clone();
+        }
+        if (primitive instanceof long[]) {
+            return ((long[]) primitive).clone();
+        }
+        if (primitive instanceof PersistentDataContainer[]) {
+            return ((PersistentDataContainer[]) primitive).clone();
+        }
+        return primitive;
+    }
+
+}
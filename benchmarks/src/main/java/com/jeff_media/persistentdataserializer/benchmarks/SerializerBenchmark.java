@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer.benchmarks;
+
+import com.jeff_media.persistentdataserializer.PersistentDataDecoder;
+import com.jeff_media.persistentdataserializer.PersistentDataEncoder;
+import com.jeff_media.persistentdataserializer.PersistentDataSerializer;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of serializing and deserializing containers of different shapes and sizes. Run with {@code -prof gc} to
+ * also report allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"FLAT", "DEEPLY_NESTED", "WIDE_CONTAINER_ARRAY", "LARGE_ARRAYS"})
+    public ContainerShape shape;
+
+    @Param({"8", "64"})
+    public int size;
+
+    private PersistentDataContainer pdc;
+    private PersistentDataAdapterContext context;
+    private List<Map<?, ?>> mapList;
+    private String json;
+    private byte[] bytes;
+    private final PersistentDataEncoder encoder = new PersistentDataEncoder();
+    private final PersistentDataDecoder decoder = new PersistentDataDecoder();
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pdc = shape.create(size);
+        context = pdc.getAdapterContext();
+        mapList = PersistentDataSerializer.toMapList(pdc);
+        json = PersistentDataSerializer.toJson(pdc);
+        bytes = PersistentDataSerializer.toBytes(pdc);
+        buffer = ByteBuffer.allocate(bytes.length);
+    }
+
+    @Benchmark
+    public List<Map<?, ?>> toMapList() {
+        return PersistentDataSerializer.toMapList(pdc);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return PersistentDataSerializer.toJson(pdc);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return PersistentDataSerializer.toBytes(pdc);
+    }
+
+    @Benchmark
+    public int encodeReused() {
+        buffer.clear();
+        return encoder.encode(pdc, buffer);
+    }
+
+    @Benchmark
+    public PersistentDataContainer decodeReused() {
+        return decoder.decode(bytes, context);
+    }
+
+    @Benchmark
+    public PersistentDataContainer fromMapList() {
+        return PersistentDataSerializer.fromMapList(mapList, context);
+    }
+
+    @Benchmark
+    public PersistentDataContainer fromJson() {
+        return PersistentDataSerializer.fromJson(json, context);
+    }
+
+    @Benchmark
+    public PersistentDataContainer fromBytes() {
+        return PersistentDataSerializer.fromBytes(bytes, context);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer.benchmarks;
+
+import com.jeff_media.persistentdataserializer.PersistentDataSerializer;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link PersistentDataSerializer#getPrimitivePersistentDataType(PersistentDataContainer, NamespacedKey)} for all
+ * keys of a flat container, with the remembered types of previous calls and without them
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypeProbingBenchmark {
+
+    @Param({"8", "64"})
+    public int size;
+
+    private PersistentDataContainer pdc;
+    private NamespacedKey[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pdc = ContainerShape.FLAT.create(size);
+        keys = pdc.getKeys().toArray(new NamespacedKey[0]);
+    }
+
+    @Benchmark
+    public void probeCached(final Blackhole blackhole) {
+        for (final NamespacedKey key : keys) {
+            blackhole.consume(PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key));
+        }
+    }
+
+    @Benchmark
+    public void probeUncached(final Blackhole blackhole) {
+        PersistentDataSerializer.clearTypeCache();
+        for (final NamespacedKey key : keys) {
+            blackhole.consume(PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key));
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/**
+ * How {@link PersistentDataType#BYTE_ARRAY}, {@link PersistentDataType#INTEGER_ARRAY} and {@link PersistentDataType#LONG_ARRAY}
+ * values are written to JSON and to lists of maps. Set the default using
+ * {@link PersistentDataSerializer#setDefaultOptions(PersistentDataOptions)} or pass it using {@link PersistentDataOptions}.
+ * <p>
+ * Reading always accepts every encoding, so changing it does not break data that was written before.
+ */
+public enum ArrayEncoding {
+
+    /**
+     * Arrays are written as lists of numbers, e.g. {@code [1,2,3]}. This is the default.
+     */
+    NUMBERS(null),
+
+    /**
+     * Arrays are written as a string consisting of the prefix {@code base64.v1:} followed by the Base64 encoded bytes.
+     * Byte arrays are encoded as is, int arrays as 4 and long arrays as 8 little-endian bytes per element. This is much
+     * shorter than {@link #NUMBERS} for large arrays and faster to read and write.
+     */
+    BASE64("base64.v1:");
+
+    @Nullable
+    private final String prefix;
+
+    ArrayEncoding(@Nullable final String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Encodes a primitive array using this encoding
+     *
+     * @param array byte[], int[] or long[]
+     * @return the array itself for {@link #NUMBERS}, otherwise the encoded string
+     */
+    @NotNull
+    Object encode(@NotNull final Object array) {
+        if (prefix == null) {
+            return array;
+        }
+        final ByteBuffer buffer;
+        if (array instanceof byte[]) {
+            buffer = ByteBuffer.wrap((byte[]) array);
+        } else if (array instanceof int[]) {
+            final int[] ints = (int[]) array;
+            buffer = ByteBuffer.allocate(ints.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asIntBuffer().put(ints);
+        } else if (array instanceof long[]) {
+            final long[] longs = (long[]) array;
+            buffer = ByteBuffer.allocate(longs.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asLongBuffer().put(longs);
+        } else {
+            throw new IllegalArgumentException("Cannot encode value of class " + array.getClass().getName());
+        }
+        return prefix + Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    /**
+     * Decodes a primitive array that was encoded to a string by {@link #encode(Object)}
+     *
+     * @param encoded encoded array
+     * @param type    {@link PersistentDataType#BYTE_ARRAY}, {@link PersistentDataType#INTEGER_ARRAY} or {@link PersistentDataType#LONG_ARRAY}
+     * @return decoded array
+     * @throws IllegalArgumentException if the string is not a supported encoding or malformed
+     */
+    @NotNull
+    static Object decode(
+            @NotNull final String encoded,
+            @NotNull final PersistentDataType<?, ?> type
+    ) throws IllegalArgumentException {
+        if (!encoded.startsWith(BASE64.prefix)) {
+            throw new IllegalArgumentException("Unsupported array encoding, expected a list of numbers or a string starting with " + BASE64.prefix);
+        }
+        final byte[] bytes = Base64.getDecoder().decode(encoded.substring(BASE64.prefix.length()));
+        final Class<?> primitiveType = type.getPrimitiveType();
+        if (primitiveType == byte[].class) {
+            return bytes;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (primitiveType == int[].class) {
+            checkLength(bytes.length, Integer.BYTES);
+            final int[] array = new int[bytes.length / Integer.BYTES];
+            buffer.asIntBuffer().get(array);
+            return array;
+        } else if (primitiveType == long[].class) {
+            checkLength(bytes.length, Long.BYTES);
+            final long[] array = new long[bytes.length / Long.BYTES];
+            buffer.asLongBuffer().get(array);
+            return array;
+        }
+        throw new IllegalArgumentException("Cannot decode value of primitive type " + primitiveType.getName());
+    }
+
+    private static void checkLength(final int length, final int elementSize) {
+        if (length % elementSize != 0) {
+            throw new IllegalArgumentException("Encoded array length " + length + " is not a multiple of " + elementSize);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Constants of the binary format used by {@link PersistentDataSerializer#toBytes(org.bukkit.persistence.PersistentDataContainer)}.
+ * <p>
+ * A payload consists of a version byte followed by the top level container. A container is a sequence of entries
+ * terminated by {@link #TAG_END}. Every entry starts with the one byte type tag of its native {@link PersistentDataType},
+ * followed by the namespace and key of its {@link org.bukkit.NamespacedKey} and the value:
+ * <ul>
+ *     <li>BYTE: one byte</li>
+ *     <li>SHORT, INTEGER, LONG: zigzag encoded varint</li>
+ *     <li>FLOAT, DOUBLE: 4 or 8 bytes, big endian</li>
+ *     <li>STRING: varint length followed by the UTF-8 bytes</li>
+ *     <li>BYTE_ARRAY, INTEGER_ARRAY, LONG_ARRAY: varint length followed by the raw big endian elements</li>
+ *     <li>TAG_CONTAINER: a nested container</li>
+ *     <li>TAG_CONTAINER_ARRAY: {@link #ARRAY_ELEMENT} followed by a nested container for every element, terminated by {@link #TAG_END}</li>
+ * </ul>
+ * Namespaces and keys are written as references into a string table that is built while writing: a reference of 0
+ * is followed by a new string (varint length and UTF-8 bytes) which is then added to the table, any other value n refers to
+ * the (n-1)th string of the table.
+ * <p>
+ * A batch payload starts with the version byte combined with {@link #BATCH_FLAG}, followed by the varint amount of
+ * containers and the containers themselves. All containers of a batch share the same string table.
+ * <p>
+ * A delta payload, as written by {@link PersistentDataDelta#toBytes()}, starts with the version byte combined with
+ * {@link #DELTA_FLAG}. It is encoded like a container, except that it may also contain {@link #TAG_REMOVE} entries without a
+ * value, {@link #TAG_PATCH} entries followed by a nested delta, and {@link #TAG_ARRAY_PATCH} entries followed by a nested
+ * delta for each element, encoded like the elements of a TAG_CONTAINER_ARRAY.
+ */
+final class BinaryFormat {
+
+    /**
+     * Current version of the binary format
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Set in the version byte of payloads containing multiple containers
+     */
+    static final int BATCH_FLAG = 0x80;
+
+    /**
+     * Set in the version byte of delta payloads
+     */
+    static final int DELTA_FLAG = 0x40;
+
+    static final int TAG_END = 0;
+    static final int TAG_BYTE = 1;
+    static final int TAG_SHORT = 2;
+    static final int TAG_INTEGER = 3;
+    static final int TAG_LONG = 4;
+    static final int TAG_FLOAT = 5;
+    static final int TAG_DOUBLE = 6;
+    static final int TAG_STRING = 7;
+    static final int TAG_BYTE_ARRAY = 8;
+    static final int TAG_INTEGER_ARRAY = 9;
+    static final int TAG_LONG_ARRAY = 10;
+    static final int TAG_CONTAINER = 11;
+    static final int TAG_CONTAINER_ARRAY = 12;
+
+    static final int TAG_REMOVE = 32;
+    static final int TAG_PATCH = 33;
+    static final int TAG_ARRAY_PATCH = 34;
+
+    /**
+     * Marks the start of another container inside a TAG_CONTAINER_ARRAY
+     */
+    static final int ARRAY_ELEMENT = 1;
+
+    /**
+     * Names of the native {@link PersistentDataType} fields, indexed by their tag
+     */
+    private static final String[] TYPE_NAMES_BY_TAG = {
+            null, "BYTE", "SHORT", "INTEGER", "LONG", "FLOAT", "DOUBLE", "STRING",
+            "BYTE_ARRAY", "INTEGER_ARRAY", "LONG_ARRAY", "TAG_CONTAINER", "TAG_CONTAINER_ARRAY"
+    };
+
+    /**
+     * Native {@link PersistentDataType}s indexed by their tag
+     */
+    private static final PersistentDataType<?, ?>[] TYPES_BY_TAG = new PersistentDataType<?, ?>[TYPE_NAMES_BY_TAG.length];
+
+    /**
+     * Tags mapped by their native {@link PersistentDataType}
+     */
+    private static final Map<PersistentDataType<?, ?>, Integer> TAGS_BY_TYPE = new IdentityHashMap<>();
+
+    static {
+        for (int tag = 1; tag < TYPE_NAMES_BY_TAG.length; tag++) {
+            final PersistentDataType<?, ?> type = PersistentDataSerializer.findNativePersistentDataTypeByFieldName(TYPE_NAMES_BY_TAG[tag]);
+            if (type != null) {
+                TYPES_BY_TAG[tag] = type;
+                TAGS_BY_TYPE.put(type, tag);
+            }
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private BinaryFormat() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Gets the tag of the given native {@link PersistentDataType}
+     *
+     * @param type native PersistentDataType
+     * @return tag
+     * @throws IllegalArgumentException if the type has no tag in the binary format
+     */
+    static int getTag(@NotNull final PersistentDataType<?, ?> type) throws IllegalArgumentException {
+        Objects.requireNonNull(type, "type cannot be null");
+        final Integer tag = TAGS_BY_TYPE.get(type);
+        if (tag == null) {
+            throw new IllegalArgumentException("PersistentDataType " + PersistentDataSerializer.getNativePersistentDataTypeFieldName(type) +
+                    " is not supported by the binary format");
+        }
+        return tag;
+    }
+
+    /**
+     * Gets the native {@link PersistentDataType} for the given tag
+     *
+     * @param tag tag
+     * @return native PersistentDataType
+     * @throws IllegalArgumentException if the tag is unknown
+     */
+    @NotNull
+    static PersistentDataType<?, ?> getType(final int tag) throws IllegalArgumentException {
+        final PersistentDataType<?, ?> type = tag > 0 && tag < TYPES_BY_TAG.length ? TYPES_BY_TAG[tag] : null;
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+        return type;
+    }
+
+    /**
+     * Gets the field name of the native {@link PersistentDataType} with the given tag, even if the Bukkit API on the
+     * classpath does not have it
+     *
+     * @param tag tag
+     * @return field name
+     * @throws IllegalArgumentException if the tag is unknown
+     */
+    @NotNull
+    static String getTypeName(final int tag) throws IllegalArgumentException {
+        if (tag <= 0 || tag >= TYPE_NAMES_BY_TAG.length) {
+            throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+        return TYPE_NAMES_BY_TAG[tag];
+    }
+
+}
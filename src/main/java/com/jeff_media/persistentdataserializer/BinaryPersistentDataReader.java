@@ -0,0 +1,636 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Reads data written in the {@link BinaryFormat} and reports the entries to a {@link PersistentDataVisitor}
+ */
+final class BinaryPersistentDataReader {
+
+    /**
+     * Kinds of the frames on the stack of {@link #readEntries(PersistentDataVisitor, boolean, PersistentDataFilter, TraversalGuard)}
+     */
+    private static final int FRAME_TOP = 0;
+    private static final int FRAME_TOP_DELTA = 1;
+    private static final int FRAME_CONTAINER = 2;
+    private static final int FRAME_ELEMENT = 3;
+    private static final int FRAME_PATCH = 4;
+    private static final int FRAME_PATCH_ELEMENT = 5;
+    private static final int FRAME_ARRAY = 6;
+    private static final int FRAME_ARRAY_PATCH = 7;
+
+    private final byte[] buffer;
+    private final int limit;
+    private final List<String> stringTable;
+    private final boolean stringTableComplete;
+    @Nullable
+    private StringPool stringPool;
+    private int position;
+
+    BinaryPersistentDataReader(@NotNull final byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    BinaryPersistentDataReader(@NotNull final byte[] buffer, final int offset, final int length) {
+        this(buffer, offset, length, new ArrayList<>(), false);
+    }
+
+    /**
+     * Creates a reader that starts in the middle of a payload, e.g. at a nested container
+     *
+     * @param stringTable string table of the whole payload, as returned by {@link #getStringTable()} after the payload has been read
+     *                    completely. Strings that are defined inline are not added to it again.
+     */
+    BinaryPersistentDataReader(@NotNull final byte[] buffer, final int offset, final int length, @NotNull final List<String> stringTable) {
+        this(buffer, offset, length, stringTable, true);
+    }
+
+    /**
+     * Creates a reader
+     *
+     * @param stringTable         list to collect the string table in, or the complete string table of the payload
+     * @param stringTableComplete whether the given string table already contains all strings of the payload
+     */
+    BinaryPersistentDataReader(
+            @NotNull final byte[] buffer,
+            final int offset,
+            final int length,
+            @NotNull final List<String> stringTable,
+            final boolean stringTableComplete
+    ) {
+        this.buffer = Objects.requireNonNull(buffer, "buffer cannot be null");
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + " and length " + length + " do not fit into buffer of length " + buffer.length);
+        }
+        this.position = offset;
+        this.limit = offset + length;
+        this.stringTable = Objects.requireNonNull(stringTable, "stringTable cannot be null");
+        this.stringTableComplete = stringTableComplete;
+    }
+
+    /**
+     * Sets the pool used to look up the namespaces and keys that are read, instead of creating new instances
+     *
+     * @param stringPool StringPool, or null to always create new instances
+     */
+    void setStringPool(@Nullable final StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the strings that have been defined so far
+     *
+     * @return string table
+     */
+    @NotNull
+    List<String> getStringTable() {
+        return stringTable;
+    }
+
+    /**
+     * Reads a complete payload, including the header, and reports its entries to the given visitor
+     *
+     * @param visitor PersistentDataVisitor
+     * @param limits  TraversalLimits to enforce
+     * @throws IllegalArgumentException if the data is malformed or was written by an unsupported version
+     */
+    void readPayload(@NotNull final PersistentDataVisitor visitor, @NotNull final TraversalLimits limits) throws IllegalArgumentException {
+        readPayload(visitor, PersistentDataFilter.ALL, limits);
+    }
+
+    /**
+     * Reads a complete payload, including the header, and reports the entries included by the given filter to the given
+     * visitor. Excluded entries are skipped without being decoded.
+     *
+     * @param visitor PersistentDataVisitor
+     * @param filter  PersistentDataFilter
+     * @param limits  TraversalLimits to enforce
+     * @throws IllegalArgumentException if the data is malformed or was written by an unsupported version
+     */
+    void readPayload(
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final TraversalLimits limits
+    ) throws IllegalArgumentException {
+        final int version = readUnsignedByte();
+        if (version != BinaryFormat.VERSION) {
+            throw new IllegalArgumentException("Unsupported binary format version " + version);
+        }
+        readEntries(visitor, false, filter, new TraversalGuard(limits));
+        expectEnd();
+    }
+
+    /**
+     * Reads a complete delta payload, including the header, and reports its changes to the given visitor
+     *
+     * @param visitor PersistentDataDeltaVisitor
+     * @param limits  TraversalLimits to enforce
+     * @throws IllegalArgumentException if the data is malformed or was written by an unsupported version
+     */
+    void readDeltaPayload(@NotNull final PersistentDataDeltaVisitor visitor, @NotNull final TraversalLimits limits) throws IllegalArgumentException {
+        final int version = readUnsignedByte();
+        if (version != (BinaryFormat.VERSION | BinaryFormat.DELTA_FLAG)) {
+            throw new IllegalArgumentException("Unsupported binary delta format version " + version);
+        }
+        readEntries(visitor, true, PersistentDataFilter.ALL, new TraversalGuard(limits));
+        expectEnd();
+    }
+
+    /**
+     * Reads the header of a batch payload
+     *
+     * @return amount of containers in the batch
+     * @throws IllegalArgumentException if the data is not a batch payload or was written by an unsupported version
+     */
+    int readBatchHeader() throws IllegalArgumentException {
+        final int version = readUnsignedByte();
+        if (version != (BinaryFormat.VERSION | BinaryFormat.BATCH_FLAG)) {
+            throw new IllegalArgumentException("Unsupported binary batch format version " + version);
+        }
+        final long count = readVarLong();
+        if (count < 0 || count > limit - position) {
+            throw new IllegalArgumentException("Invalid batch size " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Makes sure that all data has been read
+     *
+     * @throws IllegalArgumentException if there is data remaining
+     */
+    void expectEnd() throws IllegalArgumentException {
+        if (position != limit) {
+            throw new IllegalArgumentException("Binary data was not fully consumed: " + (limit - position) + " bytes remaining");
+        }
+    }
+
+    /**
+     * Reads the entries of a container up to and including its end tag
+     *
+     * @param visitor PersistentDataVisitor
+     * @param limits  TraversalLimits to enforce
+     * @throws IllegalArgumentException if the data is malformed
+     * @throws TraversalLimitExceededException if the container exceeds the {@link TraversalLimits}
+     */
+    void readContainer(@NotNull final PersistentDataVisitor visitor, @NotNull final TraversalLimits limits) {
+        readEntries(visitor, false, PersistentDataFilter.ALL, new TraversalGuard(limits));
+    }
+
+    /**
+     * Reads the entries of a container, or the changes of a delta, up to and including its end tag. Nested containers
+     * are tracked on an explicit stack, so that deeply nested data cannot cause a {@link StackOverflowError}.
+     *
+     * @param visitor PersistentDataVisitor, must be a {@link PersistentDataDeltaVisitor} if delta is true
+     * @param delta   whether to read the changes of a delta
+     * @param filter  filter for the top level entries
+     * @param guard   TraversalGuard enforcing the limits
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    private void readEntries(
+            @NotNull final PersistentDataVisitor visitor,
+            final boolean delta,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final TraversalGuard guard
+    ) {
+        final PersistentDataDeltaVisitor deltaVisitor = delta ? (PersistentDataDeltaVisitor) visitor : null;
+        int[] stack = new int[8];
+        // Filter for the entries of each frame, or for every element of an array frame
+        PersistentDataFilter[] filters = new PersistentDataFilter[8];
+        int size = 0;
+        int depth = 0;
+        filters[size] = filter;
+        stack[size++] = delta ? FRAME_TOP_DELTA : FRAME_TOP;
+
+        while (size > 0) {
+            final int frame = stack[size - 1];
+            if (frame == FRAME_ARRAY || frame == FRAME_ARRAY_PATCH) {
+                final int marker = readUnsignedByte();
+                if (marker == BinaryFormat.ARRAY_ELEMENT) {
+                    guard.checkDepth(depth + 1);
+                    guard.countArrayElements(1);
+                    visitor.enterArrayElement();
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size << 1);
+                        filters = Arrays.copyOf(filters, size << 1);
+                    }
+                    filters[size] = filters[size - 1];
+                    stack[size++] = frame == FRAME_ARRAY ? FRAME_ELEMENT : FRAME_PATCH_ELEMENT;
+                    depth++;
+                } else if (marker == BinaryFormat.TAG_END) {
+                    size--;
+                    if (frame == FRAME_ARRAY) {
+                        visitor.exitContainerArray();
+                    } else {
+                        deltaVisitor.exitArrayPatch();
+                    }
+                } else {
+                    throw new IllegalArgumentException("Invalid container array marker " + marker);
+                }
+                continue;
+            }
+
+            final int tag = readUnsignedByte();
+            if (tag == BinaryFormat.TAG_END) {
+                size--;
+                depth--;
+                if (frame == FRAME_CONTAINER) {
+                    visitor.exitContainer();
+                } else if (frame == FRAME_ELEMENT || frame == FRAME_PATCH_ELEMENT) {
+                    visitor.exitArrayElement();
+                } else if (frame == FRAME_PATCH) {
+                    deltaVisitor.exitPatch();
+                }
+                continue;
+            }
+
+            final int push;
+            PersistentDataFilter nestedFilter = PersistentDataFilter.ALL;
+            final boolean deltaFrame = frame == FRAME_TOP_DELTA || frame == FRAME_PATCH || frame == FRAME_PATCH_ELEMENT;
+            if (deltaFrame && tag == BinaryFormat.TAG_REMOVE) {
+                guard.countEntry();
+                deltaVisitor.remove(readKey());
+                continue;
+            } else if (deltaFrame && tag == BinaryFormat.TAG_PATCH) {
+                guard.countEntry();
+                guard.checkDepth(depth + 1);
+                deltaVisitor.enterPatch(readKey());
+                push = FRAME_PATCH;
+                depth++;
+            } else if (deltaFrame && tag == BinaryFormat.TAG_ARRAY_PATCH) {
+                guard.countEntry();
+                deltaVisitor.enterArrayPatch(readKey());
+                push = FRAME_ARRAY_PATCH;
+            } else {
+                final PersistentDataType<?, ?> type = BinaryFormat.getType(tag);
+                final NamespacedKey key = readKey();
+                final PersistentDataFilter frameFilter = filters[size - 1];
+                if (!frameFilter.includes(key, type)) {
+                    skipValue(tag, guard, depth);
+                    continue;
+                }
+                guard.countEntry();
+                if (tag == BinaryFormat.TAG_CONTAINER) {
+                    guard.checkDepth(depth + 1);
+                    visitor.enterContainer(key);
+                    push = FRAME_CONTAINER;
+                    nestedFilter = frameFilter.getNested(key);
+                    depth++;
+                } else if (tag == BinaryFormat.TAG_CONTAINER_ARRAY) {
+                    visitor.enterContainerArray(key);
+                    push = FRAME_ARRAY;
+                    nestedFilter = frameFilter.getNested(key);
+                } else {
+                    final Object value = readValue(tag);
+                    guard.countValue(value);
+                    visitor.visit(key, type, value);
+                    continue;
+                }
+            }
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size << 1);
+                filters = Arrays.copyOf(filters, size << 1);
+            }
+            filters[size] = nestedFilter;
+            stack[size++] = push;
+        }
+    }
+
+    /**
+     * Reads a value without tag and key
+     *
+     * @param tag tag of the value's native type, must not be TAG_CONTAINER or TAG_CONTAINER_ARRAY
+     * @return value
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    Object readValue(final int tag) {
+        switch (tag) {
+            case BinaryFormat.TAG_BYTE:
+                return (byte) readUnsignedByte();
+            case BinaryFormat.TAG_SHORT:
+                return (short) unzigzag(readVarLong());
+            case BinaryFormat.TAG_INTEGER:
+                return (int) unzigzag(readVarLong());
+            case BinaryFormat.TAG_LONG:
+                return unzigzag(readVarLong());
+            case BinaryFormat.TAG_FLOAT:
+                return Float.intBitsToFloat(readInt());
+            case BinaryFormat.TAG_DOUBLE:
+                return Double.longBitsToDouble(readLong());
+            case BinaryFormat.TAG_STRING:
+                return readString();
+            case BinaryFormat.TAG_BYTE_ARRAY: {
+                final int length = readLength(1);
+                final byte[] array = new byte[length];
+                System.arraycopy(buffer, position, array, 0, length);
+                position += length;
+                return array;
+            }
+            case BinaryFormat.TAG_INTEGER_ARRAY: {
+                final int[] array = new int[readLength(4)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readInt();
+                }
+                return array;
+            }
+            case BinaryFormat.TAG_LONG_ARRAY: {
+                final long[] array = new long[readLength(8)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readLong();
+                }
+                return array;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+    }
+
+    /**
+     * Reads a value of a custom type that was written by {@link BinaryPersistentDataWriter#writeCustomValue(PersistentDataTypeCodec, Object)}
+     *
+     * @param codec codec of the value's type
+     * @return complex value
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    Object readCustomValue(@NotNull final PersistentDataTypeCodec<?> codec) {
+        final int length = readLength(1);
+        final ByteBuffer source = ByteBuffer.wrap(buffer, position, length).slice().asReadOnlyBuffer();
+        final Object value;
+        try {
+            value = codec.read(source);
+        } catch (final BufferUnderflowException exception) {
+            throw new IllegalArgumentException("Truncated custom value at position " + position, exception);
+        }
+        if (source.hasRemaining()) {
+            throw new IllegalArgumentException("Custom value at position " + position + " has " + source.remaining() + " unread bytes");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Codec " + codec.getClass().getName() + " returned null");
+        }
+        position += length;
+        return value;
+    }
+
+    /**
+     * Skips a value without decoding it. The keys of nested containers are still read, so that the string table stays complete.
+     *
+     * @param tag   tag of the value's native type
+     * @param guard TraversalGuard of the current pass over the data
+     * @param depth nesting depth of the container that includes the value
+     * @throws IllegalArgumentException if the data is malformed
+     * @throws TraversalLimitExceededException if nested containers exceed the {@link TraversalLimits}
+     */
+    void skipValue(final int tag, @NotNull final TraversalGuard guard, final int depth) {
+        switch (tag) {
+            case BinaryFormat.TAG_CONTAINER:
+                guard.checkDepth(depth + 1);
+                skipNested(false, guard, depth + 1);
+                break;
+            case BinaryFormat.TAG_CONTAINER_ARRAY:
+                skipNested(true, guard, depth);
+                break;
+            default:
+                skipPrimitive(tag);
+                break;
+        }
+    }
+
+    /**
+     * Skips the entries of a container up to and including its end tag
+     *
+     * @param guard TraversalGuard of the current pass over the data
+     * @param depth nesting depth of the skipped container, 0 for the top level container
+     * @throws IllegalArgumentException if the data is malformed
+     * @throws TraversalLimitExceededException if nested containers exceed the {@link TraversalLimits}
+     */
+    void skipContainer(@NotNull final TraversalGuard guard, final int depth) {
+        skipNested(false, guard, depth);
+    }
+
+    /**
+     * Skips a container or container array, using an explicit stack like {@link #readEntries(PersistentDataVisitor, boolean, PersistentDataFilter, TraversalGuard)}.
+     * The skipped entries count towards the limits of the given guard, so that a single guard can cover a whole pass.
+     *
+     * @param startDepth nesting depth of the skipped container, or of the container that includes the skipped array
+     */
+    private void skipNested(final boolean array, @NotNull final TraversalGuard guard, final int startDepth) {
+        int[] stack = new int[8];
+        int size = 0;
+        int depth = startDepth;
+        stack[size++] = array ? FRAME_ARRAY : FRAME_CONTAINER;
+
+        while (size > 0) {
+            if (stack[size - 1] == FRAME_ARRAY) {
+                final int marker = readUnsignedByte();
+                if (marker == BinaryFormat.ARRAY_ELEMENT) {
+                    guard.checkDepth(++depth);
+                    guard.countArrayElements(1);
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size << 1);
+                    }
+                    stack[size++] = FRAME_CONTAINER;
+                } else if (marker == BinaryFormat.TAG_END) {
+                    size--;
+                } else {
+                    throw new IllegalArgumentException("Invalid container array marker " + marker);
+                }
+                continue;
+            }
+
+            final int tag = readUnsignedByte();
+            if (tag == BinaryFormat.TAG_END) {
+                size--;
+                depth--;
+                continue;
+            }
+            readStringReference();
+            readStringReference();
+            guard.countEntry();
+            if (tag == BinaryFormat.TAG_CONTAINER || tag == BinaryFormat.TAG_CONTAINER_ARRAY) {
+                if (tag == BinaryFormat.TAG_CONTAINER) {
+                    guard.checkDepth(++depth);
+                }
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, size << 1);
+                }
+                stack[size++] = tag == BinaryFormat.TAG_CONTAINER ? FRAME_CONTAINER : FRAME_ARRAY;
+            } else {
+                skipPrimitive(tag);
+            }
+        }
+    }
+
+    private void skipPrimitive(final int tag) {
+        switch (tag) {
+            case BinaryFormat.TAG_BYTE:
+                skip(1);
+                break;
+            case BinaryFormat.TAG_SHORT:
+            case BinaryFormat.TAG_INTEGER:
+            case BinaryFormat.TAG_LONG:
+                readVarLong();
+                break;
+            case BinaryFormat.TAG_FLOAT:
+                skip(4);
+                break;
+            case BinaryFormat.TAG_DOUBLE:
+                skip(8);
+                break;
+            case BinaryFormat.TAG_STRING:
+            case BinaryFormat.TAG_BYTE_ARRAY:
+                skip(readLength(1));
+                break;
+            case BinaryFormat.TAG_INTEGER_ARRAY:
+                skip(readLength(4) * 4);
+                break;
+            case BinaryFormat.TAG_LONG_ARRAY:
+                skip(readLength(8) * 8);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+    }
+
+    @NotNull
+    NamespacedKey readKey() {
+        final String namespace = readStringReference();
+        final String key = readStringReference();
+        return stringPool != null ? stringPool.getKey(namespace, key) : parseKey(namespace, key);
+    }
+
+    /**
+     * Creates a key through {@link NamespacedKey#fromString(String)}, because the (String, String) constructor is meant
+     * for Bukkit's internal use and deprecated
+     */
+    @NotNull
+    static NamespacedKey parseKey(@NotNull final String namespace, @NotNull final String key) {
+        final NamespacedKey namespacedKey = namespace.isEmpty() ? null : NamespacedKey.fromString(namespace + ':' + key);
+        if (namespacedKey == null) {
+            throw new IllegalArgumentException("Invalid key " + namespace + ':' + key);
+        }
+        return namespacedKey;
+    }
+
+    @NotNull
+    private String readStringReference() {
+        final long reference = readVarLong();
+        if (reference == 0) {
+            final String string = stringPool != null ? readPooledString(stringPool) : readString();
+            if (!stringTableComplete) {
+                stringTable.add(string);
+            }
+            return string;
+        }
+        if (reference > stringTable.size()) {
+            throw new IllegalArgumentException("Invalid string reference " + reference);
+        }
+        return stringTable.get((int) reference - 1);
+    }
+
+    @NotNull
+    private String readString() {
+        final int length = readLength(1);
+        final String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return string;
+    }
+
+    @NotNull
+    private String readPooledString(@NotNull final StringPool pool) {
+        final int length = readLength(1);
+        final String string = pool.getString(buffer, position, length);
+        position += length;
+        return string;
+    }
+
+    /**
+     * Reads a length and makes sure that the given amount of bytes per element is available
+     */
+    int readLength(final int bytesPerElement) {
+        final long length = readVarLong();
+        if (length < 0 || length > (limit - position) / bytesPerElement) {
+            throw new IllegalArgumentException("Invalid length " + length + " at position " + position);
+        }
+        return (int) length;
+    }
+
+    private void skip(final int length) {
+        if (length > limit - position) {
+            throw new IllegalArgumentException("Unexpected end of binary data");
+        }
+        position += length;
+    }
+
+    int peekUnsignedByte() {
+        if (position >= limit) {
+            throw new IllegalArgumentException("Unexpected end of binary data");
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    int readUnsignedByte() {
+        if (position >= limit) {
+            throw new IllegalArgumentException("Unexpected end of binary data");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private int readInt() {
+        return readUnsignedByte() << 24 | readUnsignedByte() << 16 | readUnsignedByte() << 8 | readUnsignedByte();
+    }
+
+    private long readLong() {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at position " + position);
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
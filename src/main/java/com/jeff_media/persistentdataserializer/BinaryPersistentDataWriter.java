@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link PersistentDataVisitor} that writes the visited entries in the {@link BinaryFormat} to an internal buffer
+ */
+final class BinaryPersistentDataWriter implements PersistentDataDeltaVisitor {
+
+    /**
+     * Largest buffer that is kept by {@link #reset()}, larger buffers are replaced by a new, small one
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    /**
+     * Largest string table that is kept by {@link #reset()}
+     */
+    private static final int MAX_RETAINED_STRINGS = 1 << 12;
+
+    /**
+     * Open addressing hash table of the strings written so far, so that looking them up does not allocate
+     */
+    private String[] stringSlots = new String[64];
+    private int[] stringIndices = new int[64];
+    private int stringCount;
+    private byte[] buffer;
+    private int position;
+
+    BinaryPersistentDataWriter() {
+        this(256);
+    }
+
+    BinaryPersistentDataWriter(final int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Writes the payload header
+     */
+    void begin() {
+        writeByte(BinaryFormat.VERSION);
+    }
+
+    /**
+     * Writes the header of a batch payload containing the given amount of containers
+     *
+     * @param count amount of containers
+     */
+    void beginBatch(final int count) {
+        writeByte(BinaryFormat.VERSION | BinaryFormat.BATCH_FLAG);
+        writeVarLong(count);
+    }
+
+    /**
+     * Writes the header of a delta payload
+     */
+    void beginDelta() {
+        writeByte(BinaryFormat.VERSION | BinaryFormat.DELTA_FLAG);
+    }
+
+    /**
+     * Terminates a top level container
+     */
+    void end() {
+        writeByte(BinaryFormat.TAG_END);
+    }
+
+    /**
+     * Discards everything written so far, including the string table, but keeps the allocated buffer unless it has grown very large
+     */
+    void reset() {
+        position = 0;
+        if (stringSlots.length > MAX_RETAINED_STRINGS) {
+            stringSlots = new String[64];
+            stringIndices = new int[64];
+        } else if (stringCount > 0) {
+            Arrays.fill(stringSlots, null);
+        }
+        stringCount = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[256];
+        }
+    }
+
+    /**
+     * Gets the amount of bytes written so far
+     *
+     * @return amount of bytes
+     */
+    int size() {
+        return position;
+    }
+
+    /**
+     * Gets a copy of everything written so far
+     *
+     * @return written bytes
+     */
+    @NotNull
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Writes everything written so far to the given {@link OutputStream}
+     *
+     * @param out OutputStream
+     * @throws IOException if writing fails
+     */
+    void writeTo(@NotNull final OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+    }
+
+    /**
+     * Writes everything written so far to the given {@link ByteBuffer}
+     *
+     * @param target ByteBuffer
+     * @throws java.nio.BufferOverflowException if the buffer does not have enough remaining space, in which case nothing is written
+     */
+    void writeTo(@NotNull final ByteBuffer target) {
+        target.put(buffer, 0, position);
+    }
+
+    @Override
+    public void visit(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        final int tag = BinaryFormat.getTag(type);
+        writeHeader(tag, key);
+        writeValue(tag, value);
+    }
+
+    /**
+     * Writes a value without tag and key
+     *
+     * @param tag   tag of the value's native type, must not be TAG_CONTAINER or TAG_CONTAINER_ARRAY
+     * @param value value
+     */
+    void writeValue(final int tag, @NotNull final Object value) {
+        switch (tag) {
+            case BinaryFormat.TAG_BYTE:
+                writeByte((Byte) value);
+                break;
+            case BinaryFormat.TAG_SHORT:
+            case BinaryFormat.TAG_INTEGER:
+                writeVarLong(zigzag(((Number) value).intValue()));
+                break;
+            case BinaryFormat.TAG_LONG:
+                writeVarLong(zigzag((Long) value));
+                break;
+            case BinaryFormat.TAG_FLOAT:
+                writeInt(Float.floatToRawIntBits((Float) value));
+                break;
+            case BinaryFormat.TAG_DOUBLE:
+                writeLong(Double.doubleToRawLongBits((Double) value));
+                break;
+            case BinaryFormat.TAG_STRING:
+                writeString((String) value);
+                break;
+            case BinaryFormat.TAG_BYTE_ARRAY: {
+                final byte[] array = (byte[]) value;
+                writeVarLong(array.length);
+                ensureCapacity(array.length);
+                System.arraycopy(array, 0, buffer, position, array.length);
+                position += array.length;
+                break;
+            }
+            case BinaryFormat.TAG_INTEGER_ARRAY: {
+                final int[] array = (int[]) value;
+                writeVarLong(array.length);
+                ensureCapacity(array.length * 4);
+                for (final int element : array) {
+                    writeInt(element);
+                }
+                break;
+            }
+            case BinaryFormat.TAG_LONG_ARRAY: {
+                final long[] array = (long[]) value;
+                writeVarLong(array.length);
+                ensureCapacity(array.length * 8);
+                for (final long element : array) {
+                    writeLong(element);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot write value of type " + PersistentDataSerializer.getNativePersistentDataTypeFieldName(BinaryFormat.getType(tag)));
+        }
+    }
+
+    /**
+     * Writes a value of a custom type using its codec, prefixed with its length
+     *
+     * @param codec codec of the value's type
+     * @param value complex value
+     */
+    @SuppressWarnings("unchecked")
+    void writeCustomValue(@NotNull final PersistentDataTypeCodec<?> codec, @NotNull final Object value) {
+        final PersistentDataTypeCodec<Object> objectCodec = (PersistentDataTypeCodec<Object>) codec;
+        final int size = objectCodec.getSize(value);
+        if (size < 0) {
+            throw new IllegalStateException("Codec " + codec.getClass().getName() + " returned a negative size");
+        }
+        writeVarLong(size);
+        ensureCapacity(size);
+        final ByteBuffer target = ByteBuffer.wrap(buffer, position, size).slice();
+        objectCodec.write(value, target);
+        if (target.hasRemaining()) {
+            throw new IllegalStateException("Codec " + codec.getClass().getName() + " wrote " + (size - target.remaining()) + " bytes instead of " + size);
+        }
+        position += size;
+    }
+
+    @Override
+    public void enterContainer(@NotNull final NamespacedKey key) {
+        writeHeader(BinaryFormat.TAG_CONTAINER, key);
+    }
+
+    @Override
+    public void exitContainer() {
+        writeByte(BinaryFormat.TAG_END);
+    }
+
+    @Override
+    public void enterContainerArray(@NotNull final NamespacedKey key) {
+        writeHeader(BinaryFormat.TAG_CONTAINER_ARRAY, key);
+    }
+
+    @Override
+    public void enterArrayElement() {
+        writeByte(BinaryFormat.ARRAY_ELEMENT);
+    }
+
+    @Override
+    public void exitArrayElement() {
+        writeByte(BinaryFormat.TAG_END);
+    }
+
+    @Override
+    public void exitContainerArray() {
+        writeByte(BinaryFormat.TAG_END);
+    }
+
+    @Override
+    public void remove(@NotNull final NamespacedKey key) {
+        writeHeader(BinaryFormat.TAG_REMOVE, key);
+    }
+
+    @Override
+    public void enterPatch(@NotNull final NamespacedKey key) {
+        writeHeader(BinaryFormat.TAG_PATCH, key);
+    }
+
+    @Override
+    public void exitPatch() {
+        writeByte(BinaryFormat.TAG_END);
+    }
+
+    @Override
+    public void enterArrayPatch(@NotNull final NamespacedKey key) {
+        writeHeader(BinaryFormat.TAG_ARRAY_PATCH, key);
+    }
+
+    @Override
+    public void exitArrayPatch() {
+        writeByte(BinaryFormat.TAG_END);
+    }
+
+    private void writeHeader(final int tag, @NotNull final NamespacedKey key) {
+        writeByte(tag);
+        writeStringReference(key.getNamespace());
+        writeStringReference(key.getKey());
+    }
+
+    private void writeStringReference(@NotNull final String string) {
+        final int mask = stringSlots.length - 1;
+        int slot = string.hashCode() & mask;
+        String candidate;
+        while ((candidate = stringSlots[slot]) != null) {
+            if (candidate.equals(string)) {
+                writeVarLong(stringIndices[slot] + 1);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        stringSlots[slot] = string;
+        stringIndices[slot] = stringCount++;
+        if (stringCount << 1 > stringSlots.length) {
+            growStringTable();
+        }
+        writeByte(0);
+        writeString(string);
+    }
+
+    private void growStringTable() {
+        final String[] oldSlots = stringSlots;
+        final int[] oldIndices = stringIndices;
+        stringSlots = new String[oldSlots.length << 1];
+        stringIndices = new int[oldSlots.length << 1];
+        final int mask = stringSlots.length - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == null) {
+                continue;
+            }
+            int slot = oldSlots[i].hashCode() & mask;
+            while (stringSlots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            stringSlots[slot] = oldSlots[i];
+            stringIndices[slot] = oldIndices[i];
+        }
+    }
+
+    private void writeString(@NotNull final String string) {
+        if (writeAsciiString(string)) {
+            return;
+        }
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Writes the given string without allocating if it only consists of ASCII characters, whose UTF-8 encoding is one byte per char
+     *
+     * @return false if the string contains other characters, in which case nothing was written
+     */
+    private boolean writeAsciiString(@NotNull final String string) {
+        final int length = string.length();
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        writeVarLong(length);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[position++] = (byte) string.charAt(i);
+        }
+        return true;
+    }
+
+    void writeByte(final int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeInt(final int value) {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(final long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensureCapacity(final int additional) {
+        final int required = position + additional;
+        if (required < 0) {
+            throw new IllegalStateException("Serialized PersistentDataContainer is too large");
+        }
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length << 1));
+        }
+    }
+
+}
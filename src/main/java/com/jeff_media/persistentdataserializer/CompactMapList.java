@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Immutable, memory efficient building blocks of the list of maps returned by
+ * {@link PersistentDataSerializer#toCompactMapList(org.bukkit.persistence.PersistentDataContainer)}
+ */
+final class CompactMapList {
+
+    private static final String KEY = "key";
+    private static final String TYPE = "type";
+    private static final String VALUE = "value";
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private CompactMapList() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Wraps the given elements in an immutable list
+     *
+     * @param elements elements, not copied
+     * @return immutable list
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    static <E> List<E> list(@NotNull final Object[] elements) {
+        return (List<E>) new ImmutableList(elements);
+    }
+
+    /**
+     * Wraps primitive arrays in list views, other values are returned as they are
+     *
+     * @param value value of a primitive type, not copied
+     * @return list view or the value itself
+     */
+    @NotNull
+    static Object wrap(@NotNull final Object value) {
+        if (value instanceof byte[]) {
+            return new ByteArrayList((byte[]) value);
+        } else if (value instanceof int[]) {
+            return new IntArrayList((int[]) value);
+        } else if (value instanceof long[]) {
+            return new LongArrayList((long[]) value);
+        }
+        return value;
+    }
+
+    /**
+     * Map with the fixed keys "key", "type" and "value", stored in fields instead of hash table entries
+     */
+    static final class Entry extends AbstractMap<String, Object> {
+
+        private final String key;
+        private final String type;
+        private final Object value;
+
+        Entry(@NotNull final String key, @NotNull final String type, @NotNull final Object value) {
+            this.key = key;
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public boolean containsKey(@Nullable final Object name) {
+            return KEY.equals(name) || TYPE.equals(name) || VALUE.equals(name);
+        }
+
+        @Override
+        @Nullable
+        public Object get(@Nullable final Object name) {
+            if (KEY.equals(name)) {
+                return key;
+            } else if (TYPE.equals(name)) {
+                return type;
+            } else if (VALUE.equals(name)) {
+                return value;
+            }
+            return null;
+        }
+
+        @NotNull
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @NotNull
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < 3;
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            switch (index++) {
+                                case 0:
+                                    return new SimpleImmutableEntry<>(KEY, key);
+                                case 1:
+                                    return new SimpleImmutableEntry<>(TYPE, type);
+                                case 2:
+                                    return new SimpleImmutableEntry<>(VALUE, value);
+                                default:
+                                    throw new NoSuchElementException();
+                            }
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return 3;
+                }
+            };
+        }
+    }
+
+    /**
+     * Immutable list backed by an array that is not copied
+     */
+    private static final class ImmutableList extends AbstractList<Object> implements RandomAccess {
+
+        private final Object[] elements;
+
+        private ImmutableList(@NotNull final Object[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public Object get(final int index) {
+            return elements[index];
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+    }
+
+    /**
+     * Immutable list view of a primitive array, boxing the elements on access
+     */
+    abstract static class PrimitiveArrayList<E> extends AbstractList<E> implements RandomAccess {
+
+        /**
+         * Gets a copy of the backing array
+         *
+         * @return byte[], int[] or long[]
+         */
+        @NotNull
+        abstract Object copyArray();
+    }
+
+    private static final class ByteArrayList extends PrimitiveArrayList<Byte> {
+
+        private final byte[] array;
+
+        private ByteArrayList(@NotNull final byte[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public Byte get(final int index) {
+            return array[index];
+        }
+
+        @Override
+        public int size() {
+            return array.length;
+        }
+
+        @NotNull
+        @Override
+        Object copyArray() {
+            return array.clone();
+        }
+    }
+
+    private static final class IntArrayList extends PrimitiveArrayList<Integer> {
+
+        private final int[] array;
+
+        private IntArrayList(@NotNull final int[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public Integer get(final int index) {
+            return array[index];
+        }
+
+        @Override
+        public int size() {
+            return array.length;
+        }
+
+        @NotNull
+        @Override
+        Object copyArray() {
+            return array.clone();
+        }
+    }
+
+    private static final class LongArrayList extends PrimitiveArrayList<Long> {
+
+        private final long[] array;
+
+        private LongArrayList(@NotNull final long[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public Long get(final int index) {
+            return array[index];
+        }
+
+        @Override
+        public int size() {
+            return array.length;
+        }
+
+        @NotNull
+        @Override
+        Object copyArray() {
+            return array.clone();
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * Compiles schemas of custom types with its own {@link PersistentDataOptions}, {@link PersistentDataTypeRegistry} and
+ * remembered key types
+ * <p>
+ * A {@link PersistentDataContainer} only stores the primitive form of values and does not remember which
+ * {@link PersistentDataType} wrote them, so JSON, lists of maps and the binary format always contain the primitive form.
+ * Values of the registered custom types are written and read directly by their {@link PersistentDataTypeCodec} through
+ * schemas created by {@link #schemaBuilder()} and compiled by {@link #compile(PersistentDataSchema)}. The codecs never
+ * read or change the static defaults of {@link PersistentDataSerializer}, so different plugins can each use their own
+ * instance without affecting each other. To use other options for the plain formats, use a
+ * {@link PersistentDataEncoder} or {@link PersistentDataDecoder}.
+ * <pre>{@code
+ * ConfiguredPersistentDataSerializer serializer = ConfiguredPersistentDataSerializer.builder()
+ *         .options(PersistentDataOptions.builder().traversalLimits(limits).build())
+ *         .registry(registry)
+ *         .build();
+ * PersistentDataCodec codec = serializer.compile(serializer.schemaBuilder().add(ownerKey, UUID_TYPE).build());
+ * byte[] bytes = codec.toBytes(pdc);
+ * }</pre>
+ * Instances are thread safe.
+ */
+public final class ConfiguredPersistentDataSerializer {
+
+    private final PersistentDataOptions options;
+    private final PersistentDataTypeRegistry registry;
+    private final PrimitiveTypeResolver resolver;
+
+    private ConfiguredPersistentDataSerializer(@NotNull final Builder builder) {
+        this.options = builder.options;
+        this.registry = builder.registry;
+        this.resolver = PersistentDataSerializer.newTypeResolver(builder.maxCachedKeys);
+    }
+
+    /**
+     * Creates a builder, initialized with {@link PersistentDataOptions#DEFAULT} and {@link PersistentDataTypeRegistry#EMPTY}
+     *
+     * @return Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the options used by this serializer
+     *
+     * @return PersistentDataOptions
+     */
+    @NotNull
+    public PersistentDataOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Gets the registry of custom types used by this serializer
+     *
+     * @return PersistentDataTypeRegistry
+     */
+    @NotNull
+    public PersistentDataTypeRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Gets the proper {@link PersistentDataType} for the given {@link NamespacedKey}, using the types remembered by this serializer
+     *
+     * @param pdc PersistentDataContainer
+     * @param key NamespacedKey
+     * @return PrimitivePersistentDataType
+     * @throws IllegalArgumentException if no native PrimitivePersistentDataType was found
+     * @see PersistentDataSerializer#getPrimitivePersistentDataType(PersistentDataContainer, NamespacedKey)
+     */
+    @NotNull
+    public PersistentDataType<?, ?> getPrimitivePersistentDataType(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final NamespacedKey key
+    ) throws IllegalArgumentException {
+        return PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key, resolver, options.getMetrics());
+    }
+
+    /**
+     * Clears the types remembered by this serializer
+     */
+    public void clearTypeCache() {
+        resolver.clear();
+    }
+
+    /**
+     * Creates a schema builder that accepts the custom types of this serializer's registry
+     *
+     * @return new PersistentDataSchema.Builder
+     * @see PersistentDataSchema#builder(PersistentDataTypeRegistry)
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public PersistentDataSchema.Builder schemaBuilder() {
+        return PersistentDataSchema.builder(registry);
+    }
+
+    /**
+     * Compiles the given schema into a codec that uses this serializer's options and remembered types for the entries that
+     * are not part of the schema. Unlike {@link PersistentDataSchema#compile()}, every call creates a new codec.
+     *
+     * @param schema PersistentDataSchema
+     * @return new PersistentDataCodec
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public PersistentDataCodec compile(@NotNull final PersistentDataSchema schema) {
+        Objects.requireNonNull(schema, "schema cannot be null");
+        return new PersistentDataCodec(schema, options, resolver);
+    }
+
+    @Override
+    public String toString() {
+        return "ConfiguredPersistentDataSerializer{options=" + options + ", registry=" + registry.getTypes() + "}";
+    }
+
+    /**
+     * Builds {@link ConfiguredPersistentDataSerializer}s
+     */
+    public static final class Builder {
+
+        private PersistentDataOptions options = PersistentDataOptions.DEFAULT;
+        private PersistentDataTypeRegistry registry = PersistentDataTypeRegistry.EMPTY;
+        private int maxCachedKeys = PrimitiveTypeResolver.DEFAULT_MAX_CACHED_KEYS;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the options used by the compiled codecs
+         *
+         * @param options PersistentDataOptions
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder options(@NotNull final PersistentDataOptions options) {
+            this.options = Objects.requireNonNull(options, "options cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the registry of custom types accepted by {@link #schemaBuilder()}
+         *
+         * @param registry PersistentDataTypeRegistry
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder registry(@NotNull final PersistentDataTypeRegistry registry) {
+            this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the maximum amount of keys whose last type is remembered, 4096 by default
+         *
+         * @param maxCachedKeys maximum amount of keys, 0 to not remember any
+         * @return this builder
+         * @throws IllegalArgumentException if maxCachedKeys is negative
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder maxCachedKeys(final int maxCachedKeys) throws IllegalArgumentException {
+            if (maxCachedKeys < 0) {
+                throw new IllegalArgumentException("maxCachedKeys cannot be negative");
+            }
+            this.maxCachedKeys = maxCachedKeys;
+            return this;
+        }
+
+        /**
+         * Builds the serializer
+         *
+         * @return new ConfiguredPersistentDataSerializer
+         */
+        @NotNull
+        @Contract(value = "-> new", pure = true)
+        public ConfiguredPersistentDataSerializer build() {
+            return new ConfiguredPersistentDataSerializer(this);
+        }
+    }
+
+}
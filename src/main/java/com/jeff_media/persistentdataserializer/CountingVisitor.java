@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * {@link PersistentDataVisitor} that counts the visited entries and the nesting depth for {@link PersistentDataMetrics},
+ * then forwards everything to another visitor
+ */
+final class CountingVisitor implements PersistentDataVisitor {
+
+    @Nullable
+    private final PersistentDataVisitor delegate;
+    private int entries;
+    private int depth;
+    private int maxDepth;
+
+    CountingVisitor(@Nullable final PersistentDataVisitor delegate) {
+        this.delegate = delegate;
+    }
+
+    int getEntries() {
+        return entries;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    private void countEntry() {
+        entries++;
+    }
+
+    private void enter() {
+        if (++depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    private void exit() {
+        depth--;
+    }
+
+    @Override
+    public void visit(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        countEntry();
+        if (delegate != null) {
+            delegate.visit(key, type, value);
+        }
+    }
+
+    @Override
+    public void enterContainer(@NotNull final NamespacedKey key) {
+        countEntry();
+        enter();
+        if (delegate != null) {
+            delegate.enterContainer(key);
+        }
+    }
+
+    @Override
+    public void exitContainer() {
+        exit();
+        if (delegate != null) {
+            delegate.exitContainer();
+        }
+    }
+
+    @Override
+    public void enterContainerArray(@NotNull final NamespacedKey key) {
+        countEntry();
+        if (delegate != null) {
+            delegate.enterContainerArray(key);
+        }
+    }
+
+    @Override
+    public void enterArrayElement() {
+        enter();
+        if (delegate != null) {
+            delegate.enterArrayElement();
+        }
+    }
+
+    @Override
+    public void exitArrayElement() {
+        exit();
+        if (delegate != null) {
+            delegate.exitArrayElement();
+        }
+    }
+
+    @Override
+    public void exitContainerArray() {
+        if (delegate != null) {
+            delegate.exitContainerArray();
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * {@link PersistentDataVisitor} that calculates a 64 bit structural hash of the visited entries
+ * <p>
+ * The hash of a container does not depend on the order of its entries, while the containers of a TAG_CONTAINER_ARRAY are
+ * hashed in order. Strings and arrays are hashed completely, so that any change of a value changes the hash.
+ */
+final class HashingVisitor implements PersistentDataVisitor {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Per nesting level: sum of the entry hashes of a container, or the ordered hash of a container array
+     */
+    private long[] accumulators = new long[8];
+
+    /**
+     * Per nesting level: hash of the key of the container or container array, 0 for array elements
+     */
+    private long[] keyHashes = new long[8];
+
+    /**
+     * Per nesting level: amount of entries or array elements
+     */
+    private int[] counts = new int[8];
+
+    private int depth;
+
+    /**
+     * Gets the hash of the top level container
+     *
+     * @return hash
+     */
+    long getHash() {
+        if (depth != 0) {
+            throw new IllegalStateException("Not all nested containers have been exited");
+        }
+        return finishContainer(0);
+    }
+
+    @Override
+    public void visit(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        addEntry(hashKey(key), BinaryFormat.getTag(type), hashValue(value));
+    }
+
+    @Override
+    public void enterContainer(@NotNull final NamespacedKey key) {
+        push(hashKey(key));
+    }
+
+    @Override
+    public void exitContainer() {
+        final long hash = finishContainer(depth);
+        final long keyHash = keyHashes[depth];
+        depth--;
+        addEntry(keyHash, BinaryFormat.TAG_CONTAINER, hash);
+    }
+
+    @Override
+    public void enterContainerArray(@NotNull final NamespacedKey key) {
+        push(hashKey(key));
+        accumulators[depth] = FNV_OFFSET_BASIS;
+    }
+
+    @Override
+    public void enterArrayElement() {
+        push(0);
+    }
+
+    @Override
+    public void exitArrayElement() {
+        final long hash = finishContainer(depth);
+        depth--;
+        accumulators[depth] = mix(accumulators[depth] * 31 + hash);
+        counts[depth]++;
+    }
+
+    @Override
+    public void exitContainerArray() {
+        final long hash = mix(accumulators[depth] + counts[depth]);
+        final long keyHash = keyHashes[depth];
+        depth--;
+        addEntry(keyHash, BinaryFormat.TAG_CONTAINER_ARRAY, hash);
+    }
+
+    private void push(final long keyHash) {
+        depth++;
+        if (depth == accumulators.length) {
+            accumulators = Arrays.copyOf(accumulators, depth << 1);
+            keyHashes = Arrays.copyOf(keyHashes, depth << 1);
+            counts = Arrays.copyOf(counts, depth << 1);
+        }
+        accumulators[depth] = 0;
+        keyHashes[depth] = keyHash;
+        counts[depth] = 0;
+    }
+
+    /**
+     * Adds an entry to the current container. Entry hashes are summed up, so their order does not matter.
+     */
+    private void addEntry(final long keyHash, final int tag, final long valueHash) {
+        accumulators[depth] += mix(mix(keyHash + GOLDEN_RATIO * tag) ^ valueHash);
+        counts[depth]++;
+    }
+
+    private long finishContainer(final int level) {
+        return mix(accumulators[level] ^ (GOLDEN_RATIO * counts[level]));
+    }
+
+    private static long hashKey(@NotNull final NamespacedKey key) {
+        return mix(hashString(key.getNamespace()) * 31 + hashString(key.getKey()));
+    }
+
+    private static long hashValue(@NotNull final Object value) {
+        if (value instanceof String) {
+            return hashString((String) value);
+        }
+        if (value instanceof Float) {
+            return mix(Float.floatToRawIntBits((Float) value));
+        }
+        if (value instanceof Double) {
+            return mix(Double.doubleToRawLongBits((Double) value));
+        }
+        if (value instanceof Number) {
+            return mix(((Number) value).longValue());
+        }
+        long hash = FNV_OFFSET_BASIS;
+        if (value instanceof byte[]) {
+            final byte[] array = (byte[]) value;
+            for (final byte element : array) {
+                hash = (hash ^ (element & 0xFF)) * FNV_PRIME;
+            }
+            return mix(hash + array.length);
+        }
+        if (value instanceof int[]) {
+            final int[] array = (int[]) value;
+            for (final int element : array) {
+                hash = mix(hash ^ element);
+            }
+            return mix(hash + array.length);
+        }
+        if (value instanceof long[]) {
+            final long[] array = (long[]) value;
+            for (final long element : array) {
+                hash = mix(hash ^ element);
+            }
+            return mix(hash + array.length);
+        }
+        throw new IllegalArgumentException("Cannot hash value of class " + value.getClass().getName());
+    }
+
+    private static long hashString(@NotNull final String string) {
+        long hash = FNV_OFFSET_BASIS;
+        final int length = string.length();
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash + length);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every input bit over the whole result
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+}
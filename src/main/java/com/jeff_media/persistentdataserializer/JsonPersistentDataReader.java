@@ -0,0 +1,561 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * Reads the JSON produced by {@link JsonPersistentDataWriter} token by token and reports the entries to a
+ * {@link PersistentDataVisitor}. Numbers are decoded directly into their target primitive type, so that
+ * {@link PersistentDataType#LONG} and {@link PersistentDataType#LONG_ARRAY} values keep their full precision.
+ * <p>
+ * Nested containers are tracked on an explicit stack instead of the call stack, so that deeply nested JSON cannot cause
+ * a {@link StackOverflowError}. The given {@link TraversalLimits} are enforced while reading.
+ */
+final class JsonPersistentDataReader {
+
+    private static final int FRAME_ENTRIES = 0;
+    private static final int FRAME_ELEMENTS = 1;
+    private static final int FRAME_ENTRY = 2;
+
+    private static final int CLOSE_NONE = 0;
+    private static final int CLOSE_CONTAINER = 1;
+    private static final int CLOSE_ARRAY_ELEMENT = 2;
+    private static final int CLOSE_PATCH = 3;
+
+    private final JsonReader reader;
+    private final PersistentDataVisitor visitor;
+    private final PersistentDataFilter filter;
+    private final TraversalGuard guard;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    JsonPersistentDataReader(
+            @NotNull final JsonReader reader,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final TraversalLimits limits
+    ) {
+        this(reader, visitor, PersistentDataFilter.ALL, limits);
+    }
+
+    /**
+     * Creates a reader that only reports the entries included by the given filter. Excluded entries are skipped token by
+     * token without being decoded.
+     */
+    JsonPersistentDataReader(
+            @NotNull final JsonReader reader,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final TraversalLimits limits
+    ) {
+        this.reader = Objects.requireNonNull(reader, "reader cannot be null");
+        this.visitor = Objects.requireNonNull(visitor, "visitor cannot be null");
+        this.filter = Objects.requireNonNull(filter, "filter cannot be null");
+        this.guard = new TraversalGuard(Objects.requireNonNull(limits, "limits cannot be null"));
+    }
+
+    /**
+     * Reads a complete JSON document containing a serialized {@link org.bukkit.persistence.PersistentDataContainer}
+     *
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the underlying reader fails
+     * @throws TraversalLimitExceededException if the container exceeds the {@link TraversalLimits}
+     */
+    void readDocument() throws JsonSyntaxException, JsonIOException {
+        readDocument(false);
+    }
+
+    /**
+     * Reads a complete JSON document containing a serialized {@link PersistentDataDelta}. The visitor must be a
+     * {@link PersistentDataDeltaVisitor}.
+     *
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the underlying reader fails
+     * @throws TraversalLimitExceededException if the delta exceeds the {@link TraversalLimits}
+     */
+    void readDeltaDocument() throws JsonSyntaxException, JsonIOException {
+        if (!(visitor instanceof PersistentDataDeltaVisitor)) {
+            throw new IllegalStateException("visitor must be a PersistentDataDeltaVisitor");
+        }
+        readDocument(true);
+    }
+
+    private void readDocument(final boolean delta) throws JsonSyntaxException, JsonIOException {
+        try {
+            reader.beginArray();
+            stack.push(Frame.entries(reader, delta, CLOSE_NONE, 0, delta ? PersistentDataFilter.ALL : filter));
+            run();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+        } catch (final MalformedJsonException | IllegalStateException | NumberFormatException exception) {
+            throw new JsonSyntaxException(exception);
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    /**
+     * Processes the frames on the stack until it is empty
+     */
+    private void run() throws IOException {
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            final JsonReader in = frame.in;
+            switch (frame.kind) {
+                case FRAME_ENTRIES:
+                    if (in.hasNext()) {
+                        in.beginObject();
+                        stack.push(Frame.entry(in, frame.delta, frame.depth, frame.filter));
+                    } else {
+                        in.endArray();
+                        stack.pop();
+                        if (frame.close == CLOSE_CONTAINER) {
+                            visitor.exitContainer();
+                        } else if (frame.close == CLOSE_ARRAY_ELEMENT) {
+                            visitor.exitArrayElement();
+                        } else if (frame.close == CLOSE_PATCH) {
+                            ((PersistentDataDeltaVisitor) visitor).exitPatch();
+                        }
+                    }
+                    break;
+                case FRAME_ELEMENTS:
+                    if (in.hasNext()) {
+                        guard.checkDepth(frame.depth + 1);
+                        guard.countArrayElements(1);
+                        visitor.enterArrayElement();
+                        in.beginArray();
+                        stack.push(Frame.entries(in, frame.delta, CLOSE_ARRAY_ELEMENT, frame.depth + 1, frame.filter));
+                    } else {
+                        in.endArray();
+                        stack.pop();
+                        if (frame.delta) {
+                            ((PersistentDataDeltaVisitor) visitor).exitArrayPatch();
+                        } else {
+                            visitor.exitContainerArray();
+                        }
+                    }
+                    break;
+                default:
+                    continueEntry(frame);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of an entry object until its value has entered a nested container, or until the object ends
+     */
+    private void continueEntry(@NotNull final Frame frame) throws IOException {
+        final JsonReader in = frame.in;
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "key":
+                    frame.keyName = in.nextString();
+                    break;
+                case "type":
+                    frame.typeName = in.nextString();
+                    break;
+                case "value":
+                    if (frame.keyName != null && frame.typeName != null) {
+                        frame.valueRead = true;
+                        final NamespacedKey key = parseKey(frame.keyName);
+                        if (isExcluded(frame.filter, key, frame.typeName)) {
+                            in.skipValue();
+                        } else if (startValue(in, key, frame.typeName, frame.delta, frame.depth, frame.filter)) {
+                            // Continue with this entry once the nested container has been read
+                            return;
+                        }
+                    } else {
+                        // Fields are in an unusual order, so we have to look at the value again once we know its type
+                        frame.bufferedValue = bufferValue(in, frame.depth);
+                    }
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+
+        in.endObject();
+        stack.pop();
+
+        if (frame.valueRead) {
+            return;
+        }
+        if (frame.delta && frame.keyName != null && PersistentDataDeltaVisitor.REMOVE.equals(frame.typeName) && frame.bufferedValue == null) {
+            guard.countEntry();
+            ((PersistentDataDeltaVisitor) visitor).remove(parseKey(frame.keyName));
+            return;
+        }
+        if (frame.keyName == null || frame.typeName == null || frame.bufferedValue == null) {
+            throw new JsonSyntaxException("Entry must contain \"key\", \"type\" and \"value\"");
+        }
+        final NamespacedKey key = parseKey(frame.keyName);
+        if (isExcluded(frame.filter, key, frame.typeName)) {
+            return;
+        }
+        final JsonReader bufferedReader = new JsonReader(new StringReader(frame.bufferedValue));
+        bufferedReader.setLenient(true);
+        startValue(bufferedReader, key, frame.typeName, frame.delta, frame.depth, frame.filter);
+    }
+
+    /**
+     * Copies the next value token by token into a string, so that it can be read again once its type is known. Like the
+     * frames, this does not recurse, and the nesting depth and amount of tokens are limited while copying.
+     *
+     * @param depth nesting depth of the entry the value belongs to
+     */
+    @NotNull
+    private String bufferValue(@NotNull final JsonReader in, final int depth) throws IOException {
+        final StringWriter buffer = new StringWriter();
+        final JsonWriter out = new JsonWriter(buffer);
+        int nesting = 0;
+        do {
+            guard.countBufferedToken();
+            switch (in.peek()) {
+                case BEGIN_ARRAY:
+                    in.beginArray();
+                    out.beginArray();
+                    // Every nested container adds at least an array and an object
+                    guard.checkDepth(depth + ++nesting / 2);
+                    break;
+                case END_ARRAY:
+                    in.endArray();
+                    out.endArray();
+                    nesting--;
+                    break;
+                case BEGIN_OBJECT:
+                    in.beginObject();
+                    out.beginObject();
+                    guard.checkDepth(depth + ++nesting / 2);
+                    break;
+                case END_OBJECT:
+                    in.endObject();
+                    out.endObject();
+                    nesting--;
+                    break;
+                case NAME:
+                    out.name(in.nextName());
+                    break;
+                case NUMBER:
+                    out.jsonValue(in.nextString());
+                    break;
+                case BOOLEAN:
+                    out.value(in.nextBoolean());
+                    break;
+                case NULL:
+                    in.nextNull();
+                    out.nullValue();
+                    break;
+                case STRING:
+                    out.value(in.nextString());
+                    break;
+                default:
+                    throw new JsonSyntaxException("Unexpected end of value");
+            }
+        } while (nesting > 0);
+        out.flush();
+        return buffer.toString();
+    }
+
+    /**
+     * Checks whether the given filter excludes an entry. The type is only resolved if the filter depends on it.
+     */
+    private static boolean isExcluded(
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final NamespacedKey key,
+            @NotNull final String typeName
+    ) {
+        if (!filter.includesKey(key)) {
+            return true;
+        }
+        return filter.filtersTypes() && !filter.includesType(PersistentDataSerializer.getNativePersistentDataTypeByFieldName(typeName));
+    }
+
+    /**
+     * Reads a primitive value directly, or enters a nested container and pushes a frame that reads its entries
+     *
+     * @return true if a frame has been pushed
+     */
+    private boolean startValue(
+            @NotNull final JsonReader in,
+            @NotNull final NamespacedKey key,
+            @NotNull final String typeName,
+            final boolean delta,
+            final int depth,
+            @NotNull final PersistentDataFilter filter
+    ) throws IOException {
+        guard.countEntry();
+        if (delta) {
+            final PersistentDataDeltaVisitor deltaVisitor = (PersistentDataDeltaVisitor) visitor;
+            switch (typeName) {
+                case PersistentDataDeltaVisitor.REMOVE:
+                    in.skipValue();
+                    deltaVisitor.remove(key);
+                    return false;
+                case PersistentDataDeltaVisitor.PATCH:
+                    guard.checkDepth(depth + 1);
+                    deltaVisitor.enterPatch(key);
+                    in.beginArray();
+                    stack.push(Frame.entries(in, true, CLOSE_PATCH, depth + 1, PersistentDataFilter.ALL));
+                    return true;
+                case PersistentDataDeltaVisitor.ARRAY_PATCH:
+                    deltaVisitor.enterArrayPatch(key);
+                    in.beginArray();
+                    stack.push(Frame.elements(in, true, depth, PersistentDataFilter.ALL));
+                    return true;
+                default:
+                    break;
+            }
+        }
+
+        final PersistentDataType<?, ?> type = PersistentDataSerializer.getNativePersistentDataTypeByFieldName(typeName);
+        if (in.peek() == JsonToken.NULL) {
+            throw new JsonSyntaxException("Value of key " + key + " cannot be null");
+        }
+
+        if (type.equals(PersistentDataType.TAG_CONTAINER)) {
+            guard.checkDepth(depth + 1);
+            visitor.enterContainer(key);
+            in.beginArray();
+            stack.push(Frame.entries(in, false, CLOSE_CONTAINER, depth + 1, filter.getNested(key)));
+            return true;
+        } else if (type.equals(PersistentDataType.TAG_CONTAINER_ARRAY)) {
+            visitor.enterContainerArray(key);
+            in.beginArray();
+            stack.push(Frame.elements(in, false, depth, filter.getNested(key)));
+            return true;
+        }
+        visitor.visit(key, type, readPrimitive(in, type));
+        return false;
+    }
+
+    @NotNull
+    private Object readPrimitive(
+            @NotNull final JsonReader in,
+            @NotNull final PersistentDataType<?, ?> type
+    ) throws IOException {
+
+        final Class<?> primitiveType = type.getPrimitiveType();
+
+        if (primitiveType == String.class) {
+            return in.nextString();
+        } else if (primitiveType == Integer.class) {
+            return readInt(in);
+        } else if (primitiveType == Long.class) {
+            return readLong(in);
+        } else if (primitiveType == Double.class) {
+            return in.nextDouble();
+        } else if (primitiveType == Float.class) {
+            return (float) in.nextDouble();
+        } else if (primitiveType == Short.class) {
+            return (short) readInt(in);
+        } else if (primitiveType == Byte.class) {
+            if (in.peek() == JsonToken.BOOLEAN) {
+                return (byte) (in.nextBoolean() ? 1 : 0);
+            }
+            return (byte) readInt(in);
+        } else if (primitiveType.isArray() && in.peek() == JsonToken.STRING) {
+            return readEncodedArray(in, type);
+        } else if (primitiveType == byte[].class) {
+            return readByteArray(in);
+        } else if (primitiveType == int[].class) {
+            return readIntArray(in);
+        } else if (primitiveType == long[].class) {
+            return readLongArray(in);
+        }
+        throw new IllegalArgumentException("Unknown primitive type: " + primitiveType.getName());
+    }
+
+    /**
+     * Reads an integral number exactly. Numbers with a fractional part or exponent are truncated, and numbers out of
+     * range saturate, like they did before when going through {@link Double}.
+     */
+    private static long readLong(@NotNull final JsonReader in) throws IOException {
+        try {
+            return in.nextLong();
+        } catch (final NumberFormatException exception) {
+            // nextLong() keeps the value buffered if it is not an exact long
+            return (long) in.nextDouble();
+        }
+    }
+
+    /**
+     * Reads an integral number like {@link #readLong(JsonReader)}, saturating at the range of an int like
+     * {@link Double#intValue()} did before. Shorts and bytes are narrowed from this value, like {@link Double#shortValue()}
+     * and {@link Double#byteValue()} did.
+     */
+    private static int readInt(@NotNull final JsonReader in) throws IOException {
+        final long value = readLong(in);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    /**
+     * Reads a primitive array that was written as a string using an {@link ArrayEncoding}
+     */
+    @NotNull
+    private Object readEncodedArray(
+            @NotNull final JsonReader in,
+            @NotNull final PersistentDataType<?, ?> type
+    ) throws IOException {
+        final Object array;
+        try {
+            array = ArrayEncoding.decode(in.nextString(), type);
+        } catch (final IllegalArgumentException exception) {
+            throw new JsonSyntaxException(exception.getMessage(), exception);
+        }
+        guard.countValue(array);
+        return array;
+    }
+
+    @NotNull
+    private byte[] readByteArray(@NotNull final JsonReader in) throws IOException {
+        byte[] array = new byte[16];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            guard.countArrayElements(1);
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size << 1);
+            }
+            array[size++] = (byte) readInt(in);
+        }
+        in.endArray();
+        return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+
+    @NotNull
+    private int[] readIntArray(@NotNull final JsonReader in) throws IOException {
+        int[] array = new int[16];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            guard.countArrayElements(1);
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size << 1);
+            }
+            array[size++] = readInt(in);
+        }
+        in.endArray();
+        return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+
+    @NotNull
+    private long[] readLongArray(@NotNull final JsonReader in) throws IOException {
+        long[] array = new long[16];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            guard.countArrayElements(1);
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size << 1);
+            }
+            array[size++] = readLong(in);
+        }
+        in.endArray();
+        return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+
+    @NotNull
+    private static NamespacedKey parseKey(@NotNull final String keyName) {
+        final NamespacedKey key = NamespacedKey.fromString(keyName);
+        if (key == null) {
+            throw new JsonSyntaxException("Invalid key: " + keyName);
+        }
+        return key;
+    }
+
+    /**
+     * An array of entries, an array of container array elements, or a single entry object that is currently being read
+     */
+    private static final class Frame {
+
+        private final int kind;
+        private final JsonReader in;
+        private final boolean delta;
+        private final int close;
+        private final int depth;
+
+        /**
+         * Filter for the entries of this array, for every element of this container array, or for this entry
+         */
+        private final PersistentDataFilter filter;
+        @Nullable
+        private String keyName;
+        @Nullable
+        private String typeName;
+        @Nullable
+        private String bufferedValue;
+        private boolean valueRead;
+
+        private Frame(
+                final int kind,
+                @NotNull final JsonReader in,
+                final boolean delta,
+                final int close,
+                final int depth,
+                @NotNull final PersistentDataFilter filter
+        ) {
+            this.kind = kind;
+            this.in = in;
+            this.delta = delta;
+            this.close = close;
+            this.depth = depth;
+            this.filter = filter;
+        }
+
+        @NotNull
+        private static Frame entries(
+                @NotNull final JsonReader in,
+                final boolean delta,
+                final int close,
+                final int depth,
+                @NotNull final PersistentDataFilter filter
+        ) {
+            return new Frame(FRAME_ENTRIES, in, delta, close, depth, filter);
+        }
+
+        @NotNull
+        private static Frame elements(@NotNull final JsonReader in, final boolean delta, final int depth, @NotNull final PersistentDataFilter filter) {
+            return new Frame(FRAME_ELEMENTS, in, delta, CLOSE_NONE, depth, filter);
+        }
+
+        @NotNull
+        private static Frame entry(@NotNull final JsonReader in, final boolean delta, final int depth, @NotNull final PersistentDataFilter filter) {
+            return new Frame(FRAME_ENTRY, in, delta, CLOSE_NONE, depth, filter);
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@link PersistentDataVisitor} that writes the visited entries directly to a {@link JsonWriter}. The produced JSON is
+ * identical to serializing the result of {@link PersistentDataSerializer#toMapList(org.bukkit.persistence.PersistentDataContainer)} with Gson.
+ */
+final class JsonPersistentDataWriter implements PersistentDataDeltaVisitor {
+
+    /**
+     * Maximum amount of cached key strings. When it is reached, the cache is cleared.
+     */
+    private static final int MAX_CACHED_KEY_STRINGS = 4096;
+
+    private final JsonWriter writer;
+    @Nullable
+    private final Map<NamespacedKey, String> keyStrings;
+    private final ArrayEncoding arrayEncoding;
+
+    /**
+     * Creates a writer that remembers the string representation of the written keys in the given map
+     *
+     * @param keyStrings    cache of {@link NamespacedKey#toString()}, or null to not cache them
+     * @param arrayEncoding how to write primitive arrays
+     */
+    JsonPersistentDataWriter(
+            @NotNull final JsonWriter writer,
+            @Nullable final Map<NamespacedKey, String> keyStrings,
+            @NotNull final ArrayEncoding arrayEncoding
+    ) {
+        this.writer = Objects.requireNonNull(writer, "writer cannot be null");
+        this.keyStrings = keyStrings;
+        this.arrayEncoding = Objects.requireNonNull(arrayEncoding, "arrayEncoding cannot be null");
+    }
+
+    /**
+     * Writes the opening bracket of the top level container
+     */
+    void begin() {
+        try {
+            writer.beginArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    /**
+     * Writes the closing bracket of the top level container and flushes the underlying writer
+     */
+    void end() {
+        try {
+            writer.endArray();
+            writer.flush();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void visit(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        try {
+            writeHeader(key, type);
+            if (value instanceof String) {
+                writer.value((String) value);
+            } else if (value instanceof Float) {
+                // Gson writes floats using Float#toString, so we must not widen them to double
+                writer.value((Float) value);
+            } else if (value instanceof Double) {
+                writer.value((double) (Double) value);
+            } else if (value instanceof Number) {
+                writer.value(((Number) value).longValue());
+            } else if (arrayEncoding != ArrayEncoding.NUMBERS && (value instanceof byte[] || value instanceof int[] || value instanceof long[])) {
+                writer.value((String) arrayEncoding.encode(value));
+            } else if (value instanceof byte[]) {
+                writer.beginArray();
+                for (final byte element : (byte[]) value) {
+                    writer.value(element);
+                }
+                writer.endArray();
+            } else if (value instanceof int[]) {
+                writer.beginArray();
+                for (final int element : (int[]) value) {
+                    writer.value(element);
+                }
+                writer.endArray();
+            } else if (value instanceof long[]) {
+                writer.beginArray();
+                for (final long element : (long[]) value) {
+                    writer.value(element);
+                }
+                writer.endArray();
+            } else {
+                throw new IllegalArgumentException("Cannot write value of class " + value.getClass().getName() + " to JSON");
+            }
+            writer.endObject();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void enterContainer(@NotNull final NamespacedKey key) {
+        try {
+            writeHeader(key, PersistentDataType.TAG_CONTAINER);
+            writer.beginArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void exitContainer() {
+        try {
+            writer.endArray();
+            writer.endObject();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void enterContainerArray(@NotNull final NamespacedKey key) {
+        try {
+            writeHeader(key, PersistentDataType.TAG_CONTAINER_ARRAY);
+            writer.beginArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void enterArrayElement() {
+        try {
+            writer.beginArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void exitArrayElement() {
+        try {
+            writer.endArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void exitContainerArray() {
+        try {
+            writer.endArray();
+            writer.endObject();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final NamespacedKey key) {
+        try {
+            writer.beginObject();
+            writer.name("key").value(keyToString(key));
+            writer.name("type").value(REMOVE);
+            writer.endObject();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void enterPatch(@NotNull final NamespacedKey key) {
+        try {
+            writeHeader(key, PATCH);
+            writer.beginArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void exitPatch() {
+        exitContainer();
+    }
+
+    @Override
+    public void enterArrayPatch(@NotNull final NamespacedKey key) {
+        try {
+            writeHeader(key, ARRAY_PATCH);
+            writer.beginArray();
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+    }
+
+    @Override
+    public void exitArrayPatch() {
+        exitContainerArray();
+    }
+
+    /**
+     * Writes the start of an entry object up to and including the name of the "value" field
+     */
+    private void writeHeader(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type
+    ) throws IOException {
+        writeHeader(key, PersistentDataSerializer.getNativePersistentDataTypeFieldName(type));
+    }
+
+    private void writeHeader(
+            @NotNull final NamespacedKey key,
+            @NotNull final String typeName
+    ) throws IOException {
+        writer.beginObject();
+        writer.name("key").value(keyToString(key));
+        writer.name("type").value(typeName);
+        writer.name("value");
+    }
+
+    @NotNull
+    private String keyToString(@NotNull final NamespacedKey key) {
+        if (keyStrings == null) {
+            return key.toString();
+        }
+        String string = keyStrings.get(key);
+        if (string == null) {
+            if (keyStrings.size() >= MAX_CACHED_KEY_STRINGS) {
+                keyStrings.clear();
+            }
+            string = key.toString();
+            keyStrings.put(key, string);
+        }
+        return string;
+    }
+
+    /**
+     * {@link Writer} that forwards to an {@link Appendable}
+     */
+    static final class AppendableWriter extends Writer {
+
+        private final Appendable appendable;
+
+        AppendableWriter(@NotNull final Appendable appendable) {
+            this.appendable = Objects.requireNonNull(appendable, "appendable cannot be null");
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            appendable.append((char) c);
+        }
+
+        @Override
+        public void write(@NotNull final char[] buffer, final int offset, final int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                appendable.append(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(@NotNull final String string, final int offset, final int length) throws IOException {
+            appendable.append(string, offset, offset + length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (appendable instanceof Flushable) {
+                ((Flushable) appendable).flush();
+            }
+        }
+
+        @Override
+        public void close() {
+            // The appendable is owned by the caller
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Read-only {@link PersistentDataContainer} that is backed by a serialized payload and only decodes the values that are
+ * actually requested
+ * <p>
+ * Creating the view only reads the keys of the top level container and remembers where each value starts. Values are
+ * decoded when {@link #get(NamespacedKey, PersistentDataType)} is called, and nested TAG_CONTAINERs and TAG_CONTAINER_ARRAYs
+ * are returned as lazy views themselves. Use {@link #materialize(PersistentDataContainer)} to copy everything into a
+ * real container. All methods that would modify the container throw an {@link UnsupportedOperationException}.
+ * <p>
+ * The server's own containers only accept nested containers that they created themselves, so a nested lazy view cannot be
+ * set as the value of a TAG_CONTAINER or TAG_CONTAINER_ARRAY in a real container. Materialize it into a container created
+ * by {@link PersistentDataAdapterContext#newPersistentDataContainer()} first.
+ * <p>
+ * Instances are not thread safe, because nested views are created on first access without synchronization.
+ * <pre>{@code
+ * LazyPersistentDataContainer lazy = LazyPersistentDataContainer.fromBytes(bytes, pdc.getAdapterContext());
+ * String name = lazy.get(nameKey, PersistentDataType.STRING);
+ * LazyPersistentDataContainer home = (LazyPersistentDataContainer) lazy.get(homeKey, PersistentDataType.TAG_CONTAINER);
+ * pdc.set(homeKey, PersistentDataType.TAG_CONTAINER, home.materialize(pdc.getAdapterContext().newPersistentDataContainer()));
+ * }</pre>
+ */
+public final class LazyPersistentDataContainer implements PersistentDataContainer {
+
+    private final byte[] buffer;
+    private final List<String> stringTable;
+    private final PersistentDataAdapterContext context;
+    private final TraversalLimits limits;
+    private final int offset;
+    private final int depth;
+
+    /**
+     * Tag and value position of every key, in the order of the payload
+     */
+    private final Map<NamespacedKey, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Indexes the top level container of a complete payload
+     */
+    private LazyPersistentDataContainer(
+            @NotNull final byte[] buffer,
+            @NotNull final PersistentDataAdapterContext context,
+            @NotNull final TraversalLimits limits
+    ) {
+        final BinaryPersistentDataReader reader = new BinaryPersistentDataReader(buffer);
+        final int version = reader.readUnsignedByte();
+        if (version != BinaryFormat.VERSION) {
+            throw new IllegalArgumentException("Unsupported binary format version " + version);
+        }
+        this.buffer = buffer;
+        this.context = context;
+        this.limits = limits;
+        this.offset = reader.getPosition();
+        this.depth = 0;
+        this.stringTable = reader.getStringTable();
+        index(reader);
+        reader.expectEnd();
+    }
+
+    /**
+     * Indexes a nested container of a payload whose string table is already complete
+     */
+    private LazyPersistentDataContainer(
+            @NotNull final byte[] buffer,
+            final int offset,
+            final int depth,
+            @NotNull final List<String> stringTable,
+            @NotNull final PersistentDataAdapterContext context,
+            @NotNull final TraversalLimits limits
+    ) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.depth = depth;
+        this.stringTable = stringTable;
+        this.context = context;
+        this.limits = limits;
+        index(reader(offset));
+    }
+
+    /**
+     * Creates a lazy view of a {@link PersistentDataContainer} that was serialized using
+     * {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}. The given array is not copied and must not be
+     * modified afterwards.
+     *
+     * @param serializedPdc serialized PersistentDataContainer
+     * @param context       PersistentDataAdapterContext used to convert values of custom types and to materialize the view
+     * @return lazy view
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static LazyPersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+        return new LazyPersistentDataContainer(serializedPdc, context, PersistentDataSerializer.getDefaultOptions().getTraversalLimits());
+    }
+
+    /**
+     * Creates a lazy view of a {@link PersistentDataContainer} that was serialized using
+     * {@link PersistentDataSerializer#toJson(PersistentDataContainer)}. The JSON is parsed once and transcoded to the
+     * binary format, no PersistentDataContainers are created.
+     *
+     * @param json    JSON
+     * @param context PersistentDataAdapterContext used to convert values of custom types and to materialize the view
+     * @return lazy view
+     * @throws JsonSyntaxException if the JSON is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static LazyPersistentDataContainer fromJson(
+            @NotNull final String json,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws JsonSyntaxException {
+        Objects.requireNonNull(json, "json cannot be null");
+        return fromJson(new StringReader(json), context);
+    }
+
+    /**
+     * Creates a lazy view of a {@link PersistentDataContainer} whose JSON representation is read from the given {@link Reader}
+     *
+     * @param reader  Reader to read the JSON from
+     * @param context PersistentDataAdapterContext used to convert values of custom types and to materialize the view
+     * @return lazy view
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     * @see #fromJson(String, PersistentDataAdapterContext)
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static LazyPersistentDataContainer fromJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws JsonSyntaxException, JsonIOException {
+        Objects.requireNonNull(reader, "reader cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+        final TraversalLimits limits = PersistentDataSerializer.getDefaultOptions().getTraversalLimits();
+        return new LazyPersistentDataContainer(PersistentDataSerializer.writeBytes(visitor -> PersistentDataSerializer.readJson(reader, visitor, limits)), context, limits);
+    }
+
+    /**
+     * Copies all entries, including nested containers, into the given {@link PersistentDataContainer}
+     *
+     * @param target target PersistentDataContainer
+     * @return the target PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> param1")
+    public PersistentDataContainer materialize(@NotNull final PersistentDataContainer target) {
+        Objects.requireNonNull(target, "target cannot be null");
+        reader(offset).readContainer(new PersistentDataContainerBuilder(target), limits);
+        return target;
+    }
+
+    /**
+     * Copies all entries, including nested containers, into a new {@link PersistentDataContainer} created in this view's context
+     *
+     * @return new PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "-> new")
+    public PersistentDataContainer materialize() {
+        return materialize(context.newPersistentDataContainer());
+    }
+
+    @Override
+    public <T, Z> void set(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<T, Z> type,
+            @NotNull final Z value
+    ) {
+        throw new UnsupportedOperationException("LazyPersistentDataContainer is read-only");
+    }
+
+    @Override
+    public <T, Z> boolean has(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<T, Z> type
+    ) {
+        Objects.requireNonNull(key, "key cannot be null");
+        Objects.requireNonNull(type, "type cannot be null");
+        final Entry entry = entries.get(key);
+        return entry != null && entry.getNativeType().getPrimitiveType() == type.getPrimitiveType();
+    }
+
+    /**
+     * Decodes the value of the given key. Values of TAG_CONTAINERs and TAG_CONTAINER_ARRAYs are read-only
+     * {@link LazyPersistentDataContainer}s, which cannot be set in a real container. Use
+     * {@link #materialize(PersistentDataContainer)} to copy them into one first.
+     *
+     * @param key  NamespacedKey
+     * @param type PersistentDataType
+     * @return value, or null if there is no value with this key
+     * @throws IllegalArgumentException if the value has a different primitive type
+     */
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T, Z> Z get(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<T, Z> type
+    ) {
+        Objects.requireNonNull(key, "key cannot be null");
+        Objects.requireNonNull(type, "type cannot be null");
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.getNativeType().getPrimitiveType() != type.getPrimitiveType()) {
+            throw new IllegalArgumentException("The value of " + key + " is a "
+                    + PersistentDataSerializer.getNativePersistentDataTypeFieldName(entry.getNativeType())
+                    + " and cannot be read as " + type.getPrimitiveType().getSimpleName());
+        }
+        return type.fromPrimitive((T) decode(entry), context);
+    }
+
+    @NotNull
+    @Override
+    public <T, Z> Z getOrDefault(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<T, Z> type,
+            @NotNull final Z defaultValue
+    ) {
+        final Z value = get(key, type);
+        return value != null ? value : defaultValue;
+    }
+
+    @NotNull
+    @Override
+    public Set<NamespacedKey> getKeys() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    @Override
+    public void remove(@NotNull final NamespacedKey key) {
+        throw new UnsupportedOperationException("LazyPersistentDataContainer is read-only");
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @NotNull
+    @Override
+    public PersistentDataAdapterContext getAdapterContext() {
+        return context;
+    }
+
+    /**
+     * Reads the keys of this container and skips over their values. A single {@link TraversalGuard} covers the whole pass.
+     */
+    private void index(@NotNull final BinaryPersistentDataReader reader) {
+        final TraversalGuard guard = new TraversalGuard(limits);
+        int tag;
+        while ((tag = reader.readUnsignedByte()) != BinaryFormat.TAG_END) {
+            final NamespacedKey key = reader.readKey();
+            guard.countEntry();
+            entries.put(key, new Entry(tag, reader.getPosition()));
+            reader.skipValue(tag, guard, depth);
+        }
+    }
+
+    @NotNull
+    private Object decode(@NotNull final Entry entry) {
+        switch (entry.tag) {
+            case BinaryFormat.TAG_CONTAINER:
+                if (entry.container == null) {
+                    entry.container = new LazyPersistentDataContainer(buffer, entry.position, depth + 1, stringTable, context, limits);
+                }
+                return entry.container;
+            case BinaryFormat.TAG_CONTAINER_ARRAY:
+                if (entry.containers == null) {
+                    final BinaryPersistentDataReader reader = reader(entry.position);
+                    final TraversalGuard guard = new TraversalGuard(limits);
+                    final List<PersistentDataContainer> containers = new ArrayList<>();
+                    while (reader.readUnsignedByte() == BinaryFormat.ARRAY_ELEMENT) {
+                        containers.add(new LazyPersistentDataContainer(buffer, reader.getPosition(), depth + 1, stringTable, context, limits));
+                        reader.skipContainer(guard, depth + 1);
+                    }
+                    entry.containers = containers.toArray(new PersistentDataContainer[0]);
+                }
+                return entry.containers.clone();
+            default:
+                return reader(entry.position).readValue(entry.tag);
+        }
+    }
+
+    @NotNull
+    private BinaryPersistentDataReader reader(final int position) {
+        return new BinaryPersistentDataReader(buffer, position, buffer.length - position, stringTable);
+    }
+
+    /**
+     * Position of a value inside the payload. Nested containers are cached once they have been indexed.
+     */
+    private static final class Entry {
+
+        private final int tag;
+        private final int position;
+        @Nullable
+        private LazyPersistentDataContainer container;
+        @Nullable
+        private PersistentDataContainer[] containers;
+
+        private Entry(final int tag, final int position) {
+            this.tag = tag;
+            this.position = position;
+        }
+
+        @NotNull
+        private PersistentDataType<?, ?> getNativeType() {
+            return BinaryFormat.getType(tag);
+        }
+    }
+
+}
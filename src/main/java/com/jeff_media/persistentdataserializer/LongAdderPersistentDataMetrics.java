@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free {@link PersistentDataMetrics} that sums up everything using {@link LongAdder}s
+ * <p>
+ * Latencies are recorded in a histogram with power of two buckets: bucket {@code i} counts the operations that took less
+ * than {@link #getBucketUpperBoundNanos(int)} nanoseconds, but at least as long as the upper bound of bucket {@code i - 1}.
+ */
+public final class LongAdderPersistentDataMetrics implements PersistentDataMetrics {
+
+    /**
+     * Amount of latency buckets. The last bucket counts everything that took at least 2^37 nanoseconds, about 2.3 minutes.
+     */
+    public static final int BUCKETS = 39;
+
+    private final OperationMetrics[] operations = new OperationMetrics[Operation.values().length];
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder probedKeys = new LongAdder();
+
+    public LongAdderPersistentDataMetrics() {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new OperationMetrics();
+        }
+    }
+
+    /**
+     * Gets the exclusive upper bound of the given latency bucket
+     *
+     * @param bucket bucket index
+     * @return upper bound in nanoseconds, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long getBucketUpperBoundNanos(final int bucket) {
+        if (bucket < 0 || bucket >= BUCKETS) {
+            throw new IllegalArgumentException("bucket must be between 0 and " + (BUCKETS - 1));
+        }
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    @Override
+    public void recordOperation(@NotNull final Operation operation, final long nanos, final int entries, final int maxDepth, final long size) {
+        final OperationMetrics metrics = operations[operation.ordinal()];
+        metrics.calls.increment();
+        metrics.nanos.add(nanos);
+        metrics.entries.add(entries);
+        metrics.size.add(size);
+        metrics.maxDepth.accumulate(maxDepth);
+        metrics.maxEntries.accumulate(entries);
+        final int bucket = nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+        metrics.latencies[Math.min(bucket, BUCKETS - 1)].increment();
+    }
+
+    @Override
+    public void recordProbes(final int probes) {
+        this.probes.add(probes);
+        probedKeys.increment();
+    }
+
+    /**
+     * Gets how often the given operation was called
+     *
+     * @param operation operation
+     * @return amount of calls
+     */
+    public long getCalls(@NotNull final Operation operation) {
+        return get(operation).calls.sum();
+    }
+
+    /**
+     * Gets the total time spent in the given operation
+     *
+     * @param operation operation
+     * @return total duration in nanoseconds
+     */
+    public long getTotalNanos(@NotNull final Operation operation) {
+        return get(operation).nanos.sum();
+    }
+
+    /**
+     * Gets the total amount of entries processed by the given operation
+     *
+     * @param operation operation
+     * @return total amount of entries
+     */
+    public long getEntries(@NotNull final Operation operation) {
+        return get(operation).entries.sum();
+    }
+
+    /**
+     * Gets the largest amount of entries processed by a single call of the given operation
+     *
+     * @param operation operation
+     * @return largest amount of entries
+     */
+    public long getMaxEntries(@NotNull final Operation operation) {
+        return get(operation).maxEntries.get();
+    }
+
+    /**
+     * Gets the deepest nesting level seen by the given operation
+     *
+     * @param operation operation
+     * @return deepest nesting level
+     */
+    public long getMaxDepth(@NotNull final Operation operation) {
+        return get(operation).maxDepth.get();
+    }
+
+    /**
+     * Gets the total amount of chars or bytes produced or consumed by the given operation
+     *
+     * @param operation operation
+     * @return total size
+     */
+    public long getSize(@NotNull final Operation operation) {
+        return get(operation).size.sum();
+    }
+
+    /**
+     * Gets the latency histogram of the given operation
+     *
+     * @param operation operation
+     * @return amount of calls per bucket, see {@link #getBucketUpperBoundNanos(int)}
+     */
+    @NotNull
+    public long[] getLatencyHistogram(@NotNull final Operation operation) {
+        final LongAdder[] latencies = get(operation).latencies;
+        final long[] histogram = new long[latencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            histogram[i] = latencies[i].sum();
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets the total amount of has calls issued to find the types of keys
+     *
+     * @return amount of has calls
+     */
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    /**
+     * Gets the amount of keys whose type was looked up
+     *
+     * @return amount of keys
+     */
+    public long getProbedKeys() {
+        return probedKeys.sum();
+    }
+
+    /**
+     * Resets all metrics to zero. Operations that are recorded at the same time may be partially lost.
+     */
+    public void reset() {
+        for (final OperationMetrics metrics : operations) {
+            metrics.calls.reset();
+            metrics.nanos.reset();
+            metrics.entries.reset();
+            metrics.size.reset();
+            metrics.maxDepth.reset();
+            metrics.maxEntries.reset();
+            for (final LongAdder latency : metrics.latencies) {
+                latency.reset();
+            }
+        }
+        probes.reset();
+        probedKeys.reset();
+    }
+
+    @NotNull
+    private OperationMetrics get(@NotNull final Operation operation) {
+        return operations[Objects.requireNonNull(operation, "operation cannot be null").ordinal()];
+    }
+
+    /**
+     * Metrics of a single operation
+     */
+    private static final class OperationMetrics {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder size = new LongAdder();
+        private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxEntries = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+        private OperationMetrics() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LongAdder();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reads the list of maps returned by {@link PersistentDataSerializer#toMapList(org.bukkit.persistence.PersistentDataContainer)}
+ * and reports the entries to a {@link PersistentDataVisitor}
+ * <p>
+ * Nested containers are tracked on an explicit stack instead of the call stack, so that deeply nested lists cannot cause a
+ * {@link StackOverflowError}. The {@link TraversalLimits} are enforced while reading.
+ */
+final class MapListReader {
+
+    private static final int CLOSE_NONE = 0;
+    private static final int CLOSE_CONTAINER = 1;
+    private static final int CLOSE_ARRAY_ELEMENT = 2;
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private MapListReader() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Reports all entries of the given list of maps, including nested containers, to the given visitor
+     *
+     * @param serializedPdc serialized PersistentDataContainer
+     * @param visitor       PersistentDataVisitor
+     * @param limits        TraversalLimits to enforce
+     * @throws TraversalLimitExceededException if the container exceeds the {@link TraversalLimits}
+     */
+    static void read(
+            @NotNull final List<Map<?, ?>> serializedPdc,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final TraversalLimits limits
+    ) {
+        read(serializedPdc, visitor, PersistentDataFilter.ALL, limits);
+    }
+
+    /**
+     * Reports the entries of the given list of maps that are included by the given filter to the given visitor
+     *
+     * @param serializedPdc serialized PersistentDataContainer
+     * @param visitor       PersistentDataVisitor
+     * @param filter        PersistentDataFilter
+     * @param limits        TraversalLimits to enforce
+     * @throws TraversalLimitExceededException if the container exceeds the {@link TraversalLimits}
+     */
+    @SuppressWarnings("unchecked")
+    static void read(
+            @NotNull final List<Map<?, ?>> serializedPdc,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final TraversalLimits limits
+    ) {
+        final TraversalGuard guard = new TraversalGuard(limits);
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(serializedPdc.iterator(), null, 0, CLOSE_NONE, filter));
+
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            if (frame.elements != null) {
+                if (frame.elements.hasNext()) {
+                    final List<Map<?, ?>> element = frame.elements.next();
+                    guard.checkDepth(frame.depth + 1);
+                    visitor.enterArrayElement();
+                    stack.push(new Frame(element.iterator(), null, frame.depth + 1, CLOSE_ARRAY_ELEMENT, frame.filter));
+                } else {
+                    stack.pop();
+                    visitor.exitContainerArray();
+                }
+                continue;
+            }
+            if (!frame.entries.hasNext()) {
+                stack.pop();
+                if (frame.close == CLOSE_CONTAINER) {
+                    visitor.exitContainer();
+                } else if (frame.close == CLOSE_ARRAY_ELEMENT) {
+                    visitor.exitArrayElement();
+                }
+                continue;
+            }
+
+            final Map<?, ?> map = frame.entries.next();
+            final NamespacedKey key = NamespacedKey.fromString((String) map.get("key"));
+
+            Objects.requireNonNull(key, "key cannot be null");
+            if (!frame.filter.includesKey(key)) {
+                continue;
+            }
+            final Object value = map.get("value");
+
+            final PersistentDataType<?, ?> type = PersistentDataSerializer.getNativePersistentDataTypeByFieldName((String) map.get("type"));
+            if (!frame.filter.includesType(type)) {
+                continue;
+            }
+
+            guard.countEntry();
+
+            if (type.equals(PersistentDataType.TAG_CONTAINER)) {
+                guard.checkDepth(frame.depth + 1);
+                visitor.enterContainer(key);
+                stack.push(new Frame(((List<Map<?, ?>>) value).iterator(), null, frame.depth + 1, CLOSE_CONTAINER, frame.filter.getNested(key)));
+            } else if (type.equals(PersistentDataType.TAG_CONTAINER_ARRAY)) {
+                final List<List<Map<?, ?>>> serializedContainers = (List<List<Map<?, ?>>>) value;
+                guard.countArrayElements(serializedContainers.size());
+                visitor.enterContainerArray(key);
+                stack.push(new Frame(null, serializedContainers.iterator(), frame.depth, CLOSE_NONE, frame.filter.getNested(key)));
+            } else {
+                final Object castValue = cast(value, type);
+                if (castValue != null) {
+                    guard.countValue(castValue);
+                }
+                visitor.visit(key, type, castValue);
+            }
+        }
+    }
+
+    /**
+     * Casts a value to the given {@link PersistentDataType}'s primitive type
+     *
+     * @param value value to cast
+     * @param type  PersistentDataType
+     * @return casted value
+     */
+    private static Object cast(
+            @Nullable final Object value,
+            @NotNull final PersistentDataType<?, ?> type
+    ) {
+
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof CompactMapList.PrimitiveArrayList) {
+            // Created by toCompactMapList, so the backing array can be copied directly
+            final Object array = ((CompactMapList.PrimitiveArrayList<?>) value).copyArray();
+            if (type.getPrimitiveType().isInstance(array)) {
+                return array;
+            }
+        }
+
+        Objects.requireNonNull(type, "type cannot be null");
+        final Class<?> primitiveType = type.getPrimitiveType();
+
+        if (value instanceof String && primitiveType.isArray()) {
+            return ArrayEncoding.decode((String) value, type);
+        }
+
+        if (primitiveType == Float.class) {
+            return ((Number) value).floatValue();
+        } else if (primitiveType == Integer.class) {
+            return ((Number) value).intValue();
+        } else if (primitiveType == Double.class) {
+            return ((Number) value).doubleValue();
+        } else if (primitiveType == Short.class) {
+            return ((Number) value).shortValue();
+        } else if (primitiveType == Byte.class) {
+            if (type.getComplexType() == Boolean.class) {
+                if (value instanceof Byte) {
+                    return ((Byte) value) == 1;
+                } else if (value instanceof Boolean) {
+                    return value;
+                }
+            } else if (value instanceof Boolean) {
+                return (byte) (((Boolean) value) ? 1 : 0);
+            } else if (value instanceof Number) {
+                return ((Number) value).byteValue();
+            }
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            int length = list.size();
+            if (type == PersistentDataType.BYTE_ARRAY) {
+                byte[] arr = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    arr[i] = ((Number) list.get(i)).byteValue();
+                }
+                return arr;
+            } else if (type == PersistentDataType.INTEGER_ARRAY) {
+                int[] arr = new int[length];
+                for (int i = 0; i < length; i++) {
+                    arr[i] = ((Number) list.get(i)).intValue();
+                }
+                return arr;
+            } else if (type == PersistentDataType.LONG_ARRAY) {
+                long[] arr = new long[length];
+                for (int i = 0; i < length; i++) {
+                    arr[i] = ((Number) list.get(i)).longValue();
+                }
+                return arr;
+            } else {
+                throw new IllegalArgumentException("Unknown array type: " + type.getPrimitiveType().getComponentType().getName());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A list of entries, or a list of container array elements, that is currently being read
+     */
+    private static final class Frame {
+
+        @Nullable
+        private final Iterator<Map<?, ?>> entries;
+        @Nullable
+        private final Iterator<List<Map<?, ?>>> elements;
+        private final int depth;
+        private final int close;
+        private final PersistentDataFilter filter;
+
+        private Frame(
+                @Nullable final Iterator<Map<?, ?>> entries,
+                @Nullable final Iterator<List<Map<?, ?>>> elements,
+                final int depth,
+                final int close,
+                @NotNull final PersistentDataFilter filter
+        ) {
+            this.entries = entries;
+            this.elements = elements;
+            this.depth = depth;
+            this.close = close;
+            this.filter = filter;
+        }
+    }
+
+}
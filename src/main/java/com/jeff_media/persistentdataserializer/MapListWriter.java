@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@link PersistentDataVisitor} that builds the list of maps returned by {@link PersistentDataSerializer#toMapList(org.bukkit.persistence.PersistentDataContainer)},
+ * or the immutable one returned by {@link PersistentDataSerializer#toCompactMapList(org.bukkit.persistence.PersistentDataContainer)}
+ */
+final class MapListWriter implements PersistentDataVisitor {
+
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final boolean compact;
+    private final ArrayEncoding arrayEncoding;
+
+    /**
+     * Creates a writer
+     *
+     * @param compact       whether to build immutable {@link CompactMapList}s instead of mutable maps and lists
+     * @param arrayEncoding how to store primitive arrays
+     */
+    MapListWriter(final boolean compact, @NotNull final ArrayEncoding arrayEncoding) {
+        this.compact = compact;
+        this.arrayEncoding = Objects.requireNonNull(arrayEncoding, "arrayEncoding cannot be null");
+        stack.push(new Frame(null));
+    }
+
+    /**
+     * Gets the list of maps of the top level container
+     *
+     * @return list of maps
+     */
+    @NotNull
+    List<Map<?, ?>> getResult() {
+        if (stack.size() != 1) {
+            throw new IllegalStateException("Not all nested containers have been exited");
+        }
+        return finish(stack.peek().entries);
+    }
+
+    @Override
+    public void visit(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        addEntry(key, type, value instanceof byte[] || value instanceof int[] || value instanceof long[] ? arrayEncoding.encode(value) : value);
+    }
+
+    @Override
+    public void enterContainer(@NotNull final NamespacedKey key) {
+        stack.push(new Frame(key));
+    }
+
+    @Override
+    public void exitContainer() {
+        final Frame frame = stack.pop();
+        addEntry(frame.key, PersistentDataType.TAG_CONTAINER, finish(frame.entries));
+    }
+
+    @Override
+    public void enterContainerArray(@NotNull final NamespacedKey key) {
+        final Frame frame = new Frame(key);
+        frame.elements = new ArrayList<>();
+        stack.push(frame);
+    }
+
+    @Override
+    public void enterArrayElement() {
+        stack.push(new Frame(null));
+    }
+
+    @Override
+    public void exitArrayElement() {
+        final Frame frame = stack.pop();
+        Objects.requireNonNull(stack.peek().elements, "not inside a container array").add(finish(frame.entries));
+    }
+
+    @Override
+    public void exitContainerArray() {
+        final Frame frame = stack.pop();
+        addEntry(frame.key, PersistentDataType.TAG_CONTAINER_ARRAY, compact ? CompactMapList.list(frame.elements.toArray()) : frame.elements);
+    }
+
+    private void addEntry(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        if (compact) {
+            final String typeName = PersistentDataSerializer.getNativePersistentDataTypeFieldName(type);
+            stack.peek().entries.add(new CompactMapList.Entry(NamespacedKeyCache.toString(key), typeName, CompactMapList.wrap(value)));
+            return;
+        }
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("key", key.toString());
+        map.put("type", PersistentDataSerializer.getNativePersistentDataTypeFieldName(type));
+        map.put("value", value);
+        stack.peek().entries.add(map);
+    }
+
+    @NotNull
+    private List<Map<?, ?>> finish(@NotNull final List<Map<?, ?>> entries) {
+        return compact ? CompactMapList.list(entries.toArray()) : entries;
+    }
+
+    /**
+     * A container, or container array, whose entries are currently being collected
+     */
+    private static final class Frame {
+
+        @Nullable
+        private final NamespacedKey key;
+        private final List<Map<?, ?>> entries = new ArrayList<>();
+        @Nullable
+        private List<List<Map<?, ?>>> elements;
+
+        private Frame(@Nullable final NamespacedKey key) {
+            this.key = key;
+        }
+    }
+
+}
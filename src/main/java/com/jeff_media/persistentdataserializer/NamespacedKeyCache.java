@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded, thread-safe cache of {@link NamespacedKey}s, so that equal keys decoded or captured at different times
+ * share a single instance, and of their string representations
+ */
+final class NamespacedKeyCache {
+
+    /**
+     * Maximum amount of cached keys. When it is reached, the cache is cleared.
+     */
+    private static final int MAX_SIZE = 8192;
+
+    private static final Map<NamespacedKey, NamespacedKey> KEYS = new ConcurrentHashMap<>();
+    private static final Map<NamespacedKey, String> STRINGS = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private NamespacedKeyCache() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Gets the cached instance that is equal to the given key, caching the given key if there is none
+     *
+     * @param key NamespacedKey
+     * @return cached NamespacedKey
+     */
+    @NotNull
+    static NamespacedKey intern(@NotNull final NamespacedKey key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        final NamespacedKey cached = KEYS.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (KEYS.size() >= MAX_SIZE) {
+            KEYS.clear();
+        }
+        final NamespacedKey previous = KEYS.putIfAbsent(key, key);
+        return previous == null ? key : previous;
+    }
+
+    /**
+     * Gets the cached string representation of the given key, as returned by {@link NamespacedKey#toString()}
+     *
+     * @param key NamespacedKey
+     * @return cached string
+     */
+    @NotNull
+    static String toString(@NotNull final NamespacedKey key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        final String cached = STRINGS.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (STRINGS.size() >= MAX_SIZE) {
+            STRINGS.clear();
+        }
+        final String string = key.toString();
+        final String previous = STRINGS.putIfAbsent(key, string);
+        return previous == null ? string : previous;
+    }
+
+}
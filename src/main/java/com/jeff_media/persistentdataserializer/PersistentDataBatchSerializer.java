@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Serializes and deserializes many {@link PersistentDataContainer}s at once, using the binary format of
+ * {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}
+ */
+public final class PersistentDataBatchSerializer {
+
+    /**
+     * Per thread writer, so that encoding many containers reuses the same scratch buffer
+     */
+    private static final ThreadLocal<BinaryPersistentDataWriter> WRITERS = ThreadLocal.withInitial(BinaryPersistentDataWriter::new);
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private PersistentDataBatchSerializer() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Serializes the given {@link PersistentDataContainer}s into one combined payload. All containers share the same
+     * string table, so namespaces and keys that occur in several containers are only written once.
+     *
+     * @param pdcs PersistentDataContainers
+     * @return serialized PersistentDataContainers
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static byte[] toBytes(
+            @NotNull final Collection<? extends PersistentDataContainer> pdcs
+    ) {
+        Objects.requireNonNull(pdcs, "pdcs cannot be null");
+
+        final PersistentDataOptions options = PersistentDataSerializer.getDefaultOptions();
+        final BinaryPersistentDataWriter writer = WRITERS.get();
+        writer.reset();
+        try {
+            writer.beginBatch(pdcs.size());
+            for (final PersistentDataContainer pdc : pdcs) {
+                PersistentDataWalker.walk(Objects.requireNonNull(pdc, "pdcs cannot contain null"), writer, options);
+                writer.end();
+            }
+            return writer.toByteArray();
+        } finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Deserializes the {@link PersistentDataContainer}s of a combined payload into new containers created in the given context
+     *
+     * @param serializedPdcs serialized PersistentDataContainers, as returned by {@link #toBytes(Collection)}
+     * @param context        PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainers, in their original order
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static List<PersistentDataContainer> fromBytes(
+            @NotNull final byte[] serializedPdcs,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdcs, "serializedPdcs cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+
+        final TraversalLimits limits = PersistentDataSerializer.getDefaultOptions().getTraversalLimits();
+        final BinaryPersistentDataReader reader = new BinaryPersistentDataReader(serializedPdcs);
+        final int count = reader.readBatchHeader();
+        final List<PersistentDataContainer> pdcs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final PersistentDataContainer pdc = context.newPersistentDataContainer();
+            reader.readContainer(new PersistentDataContainerBuilder(pdc), limits);
+            pdcs.add(pdc);
+        }
+        reader.expectEnd();
+        return pdcs;
+    }
+
+    /**
+     * Serializes each of the given {@link PersistentDataContainer}s into its own payload, reusing the same scratch buffer
+     *
+     * @param pdcs PersistentDataContainers
+     * @return serialized PersistentDataContainers, in the iteration order of the given collection
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static List<byte[]> toBytesList(
+            @NotNull final Collection<? extends PersistentDataContainer> pdcs
+    ) {
+        Objects.requireNonNull(pdcs, "pdcs cannot be null");
+
+        final PersistentDataOptions options = PersistentDataSerializer.getDefaultOptions();
+        final BinaryPersistentDataWriter writer = WRITERS.get();
+        final List<byte[]> payloads = new ArrayList<>(pdcs.size());
+        try {
+            for (final PersistentDataContainer pdc : pdcs) {
+                writer.reset();
+                writer.begin();
+                PersistentDataWalker.walk(Objects.requireNonNull(pdc, "pdcs cannot contain null"), writer, options);
+                writer.end();
+                payloads.add(writer.toByteArray());
+            }
+        } finally {
+            writer.reset();
+        }
+        return payloads;
+    }
+
+    /**
+     * Serializes each of the given {@link PersistentDataContainer}s into its own payload, encoding them in parallel
+     * <p>
+     * The containers are copied on the calling thread before this method returns, so it must be called on the thread that
+     * is allowed to access them, usually the main thread. Only the encoding of the copies runs on the given executor,
+     * split into roughly one chunk of containers per available processor.
+     *
+     * @param pdcs     PersistentDataContainers
+     * @param executor Executor to encode the containers on, e.g. {@link java.util.concurrent.ForkJoinPool#commonPool()}
+     * @return future that completes with the serialized PersistentDataContainers, in the iteration order of the given collection
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static CompletableFuture<List<byte[]>> toBytesListAsync(
+            @NotNull final Collection<? extends PersistentDataContainer> pdcs,
+            @NotNull final Executor executor
+    ) {
+        Objects.requireNonNull(pdcs, "pdcs cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+
+        final PersistentDataSnapshot[] snapshots = new PersistentDataSnapshot[pdcs.size()];
+        int index = 0;
+        for (final PersistentDataContainer pdc : pdcs) {
+            snapshots[index++] = PersistentDataSnapshot.capture(Objects.requireNonNull(pdc, "pdcs cannot contain null"));
+        }
+
+        final byte[][] payloads = new byte[snapshots.length][];
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        final int chunkSize = Math.max(1, (snapshots.length + parallelism - 1) / parallelism);
+        final List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int start = 0; start < snapshots.length; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(snapshots.length, start + chunkSize);
+            chunks.add(CompletableFuture.runAsync(() -> encode(snapshots, payloads, chunkStart, chunkEnd), executor));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> Collections.unmodifiableList(Arrays.asList(payloads)));
+    }
+
+    /**
+     * Deserializes each of the given payloads into a new {@link PersistentDataContainer} created in the given context
+     *
+     * @param serializedPdcs serialized PersistentDataContainers, as returned by {@link #toBytesList(Collection)}
+     * @param context        PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainers, in the iteration order of the given collection
+     * @throws IllegalArgumentException if any of the payloads is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static List<PersistentDataContainer> fromBytesList(
+            @NotNull final Collection<byte[]> serializedPdcs,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdcs, "serializedPdcs cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+
+        final List<PersistentDataContainer> pdcs = new ArrayList<>(serializedPdcs.size());
+        for (final byte[] serializedPdc : serializedPdcs) {
+            pdcs.add(PersistentDataSerializer.fromBytes(serializedPdc, context));
+        }
+        return pdcs;
+    }
+
+    private static void encode(
+            @NotNull final PersistentDataSnapshot[] snapshots,
+            @NotNull final byte[][] payloads,
+            final int start,
+            final int end
+    ) {
+        final BinaryPersistentDataWriter writer = WRITERS.get();
+        try {
+            for (int i = start; i < end; i++) {
+                writer.reset();
+                writer.begin();
+                snapshots[i].accept(writer);
+                writer.end();
+                payloads[i] = writer.toByteArray();
+            }
+        } finally {
+            writer.reset();
+        }
+    }
+
+}
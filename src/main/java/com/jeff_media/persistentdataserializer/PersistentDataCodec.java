@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Serializes {@link PersistentDataContainer}s with a known layout, compiled from a {@link PersistentDataSchema}
+ * <p>
+ * Every key of the schema is read with its known type, without probing for it. The encoding is positional and has no header:
+ * a bitmap telling which keys of the schema are present, followed by their values in schema order, without keys or type tags.
+ * Entries that are not part of the schema, or that have a different type than expected, are appended after the values in the
+ * format of {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}, so no data is lost if a container does not
+ * match its schema. Data written by a codec can only be read by a codec compiled from the same schema.
+ * <p>
+ * Values of custom types from the schema's {@link PersistentDataTypeRegistry} are written by their {@link PersistentDataTypeCodec},
+ * and {@link #decode(byte[])} returns them as complex values without converting them to their primitive form.
+ */
+public final class PersistentDataCodec {
+
+    /**
+     * Tag of keys whose values are written by a {@link PersistentDataTypeCodec}. It is never written to the payload.
+     */
+    private static final int TAG_CUSTOM = -1;
+
+    /**
+     * Per thread writer, so that encoding many containers reuses the same scratch buffer
+     */
+    private static final ThreadLocal<BinaryPersistentDataWriter> WRITERS = ThreadLocal.withInitial(BinaryPersistentDataWriter::new);
+
+    private final PersistentDataSchema schema;
+    private final NamespacedKey[] keys;
+    private final PersistentDataType<?, ?>[] types;
+    private final int[] tags;
+    private final PersistentDataCodec[] nestedCodecs;
+    private final PersistentDataTypeCodec<?>[] typeCodecs;
+    private final Map<NamespacedKey, Integer> indices = new HashMap<>();
+    private final int bitmapLength;
+
+    /**
+     * Options for the entries that are not part of the schema, or null to use {@link PersistentDataSerializer#getDefaultOptions()}
+     */
+    @Nullable
+    private final PersistentDataOptions options;
+    private final PrimitiveTypeResolver resolver;
+
+    PersistentDataCodec(@NotNull final PersistentDataSchema schema) {
+        this(schema, null, PersistentDataSerializer.getTypeResolver());
+    }
+
+    PersistentDataCodec(
+            @NotNull final PersistentDataSchema schema,
+            @Nullable final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) {
+        this.schema = schema;
+        this.options = options;
+        this.resolver = resolver;
+        final int size = schema.getKeys().size();
+        this.keys = new NamespacedKey[size];
+        this.types = new PersistentDataType<?, ?>[size];
+        this.tags = new int[size];
+        this.nestedCodecs = new PersistentDataCodec[size];
+        this.typeCodecs = new PersistentDataTypeCodec<?>[size];
+        this.bitmapLength = (size + 7) >>> 3;
+
+        int index = 0;
+        for (final PersistentDataSchema.Field field : schema.getFields()) {
+            keys[index] = field.key;
+            types[index] = field.type;
+            tags[index] = field.typeCodec == null ? BinaryFormat.getTag(field.type) : TAG_CUSTOM;
+            typeCodecs[index] = field.typeCodec;
+            if (field.nestedSchema != null) {
+                nestedCodecs[index] = options == null ? field.nestedSchema.compile() : new PersistentDataCodec(field.nestedSchema, options, resolver);
+            }
+            indices.put(field.key, index);
+            index++;
+        }
+    }
+
+    /**
+     * Gets the schema this codec was compiled from
+     *
+     * @return PersistentDataSchema
+     */
+    @NotNull
+    public PersistentDataSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Gets the options used for the entries that are not part of the schema
+     *
+     * @return the options of the {@link ConfiguredPersistentDataSerializer} that compiled this codec, or
+     * {@link PersistentDataSerializer#getDefaultOptions()}
+     */
+    @NotNull
+    public PersistentDataOptions getOptions() {
+        return options != null ? options : PersistentDataSerializer.getDefaultOptions();
+    }
+
+    /**
+     * Serializes a {@link PersistentDataContainer}
+     *
+     * @param pdc PersistentDataContainer
+     * @return serialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public byte[] toBytes(@NotNull final PersistentDataContainer pdc) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        final BinaryPersistentDataWriter writer = WRITERS.get();
+        writer.reset();
+        try {
+            write(pdc, writer);
+            return writer.toByteArray();
+        } finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} and saves it to the given target {@link PersistentDataContainer}
+     *
+     * @param serializedPdc serialized PersistentDataContainer, as returned by {@link #toBytes(PersistentDataContainer)}
+     * @param targetPdc     target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> param2")
+    public PersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        final BinaryPersistentDataReader reader = new BinaryPersistentDataReader(serializedPdc);
+        read(reader, targetPdc);
+        reader.expectEnd();
+        return targetPdc;
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} into a new container created in the given context
+     *
+     * @param serializedPdc serialized PersistentDataContainer, as returned by {@link #toBytes(PersistentDataContainer)}
+     * @param context       PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public PersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(context, "context cannot be null");
+        return fromBytes(serializedPdc, context.newPersistentDataContainer());
+    }
+
+    /**
+     * Deserializes the values of the schema's keys, without a {@link PersistentDataContainer}
+     * <p>
+     * Values of custom types are returned exactly as read by their {@link PersistentDataTypeCodec}, nested TAG_CONTAINERs as
+     * maps and TAG_CONTAINER_ARRAYs as lists of maps. Entries that are not part of the schema are skipped.
+     *
+     * @param serializedPdc serialized PersistentDataContainer, as returned by {@link #toBytes(PersistentDataContainer)}
+     * @return unmodifiable map of the present keys and their values, in schema order
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public Map<NamespacedKey, Object> decode(@NotNull final byte[] serializedPdc) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        final BinaryPersistentDataReader reader = new BinaryPersistentDataReader(serializedPdc);
+        final Map<NamespacedKey, Object> values = decode(reader);
+        reader.expectEnd();
+        return values;
+    }
+
+    private void write(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final BinaryPersistentDataWriter writer
+    ) {
+        final Object[] values = new Object[keys.length];
+        int present = 0;
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = getOrNull(pdc, i);
+            if (values[i] != null) {
+                present++;
+            }
+        }
+
+        for (int i = 0; i < bitmapLength; i++) {
+            int bits = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                final int index = (i << 3) + bit;
+                if (index < values.length && values[index] != null) {
+                    bits |= 1 << bit;
+                }
+            }
+            writer.writeByte(bits);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            final Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            switch (tags[i]) {
+                case BinaryFormat.TAG_CONTAINER:
+                    nestedCodecs[i].write((PersistentDataContainer) value, writer);
+                    break;
+                case BinaryFormat.TAG_CONTAINER_ARRAY: {
+                    final PersistentDataContainer[] elements = (PersistentDataContainer[]) value;
+                    writer.writeVarLong(elements.length);
+                    for (final PersistentDataContainer element : elements) {
+                        nestedCodecs[i].write(element, writer);
+                    }
+                    break;
+                }
+                case TAG_CUSTOM:
+                    writer.writeCustomValue(typeCodecs[i], value);
+                    break;
+                default:
+                    writer.writeValue(tags[i], value);
+                    break;
+            }
+        }
+
+        // Every present value belongs to a different key of the container, so there are only unexpected entries if it has more keys
+        final Set<NamespacedKey> pdcKeys = pdc.getKeys();
+        if (pdcKeys.size() != present) {
+            for (final NamespacedKey key : pdcKeys) {
+                final Integer index = indices.get(key);
+                if (index == null || values[index] == null) {
+                    PersistentDataWalker.walkEntry(pdc, key, writer, getOptions(), resolver);
+                }
+            }
+        }
+        writer.end();
+    }
+
+    /**
+     * Gets the value of the given field, or null if it is missing or has a different type
+     */
+    @Nullable
+    private Object getOrNull(@NotNull final PersistentDataContainer pdc, final int index) {
+        try {
+            return pdc.get(keys[index], types[index]);
+        } catch (final IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void read(
+            @NotNull final BinaryPersistentDataReader reader,
+            @NotNull final PersistentDataContainer target
+    ) {
+        final PersistentDataAdapterContext context = target.getAdapterContext();
+        final int[] bitmap = readBitmap(reader);
+
+        for (int i = 0; i < keys.length; i++) {
+            if ((bitmap[i >>> 3] & (1 << (i & 7))) == 0) {
+                continue;
+            }
+            switch (tags[i]) {
+                case BinaryFormat.TAG_CONTAINER: {
+                    final PersistentDataContainer nested = context.newPersistentDataContainer();
+                    nestedCodecs[i].read(reader, nested);
+                    target.set(keys[i], PersistentDataType.TAG_CONTAINER, nested);
+                    break;
+                }
+                case BinaryFormat.TAG_CONTAINER_ARRAY: {
+                    final PersistentDataContainer[] elements = new PersistentDataContainer[reader.readLength(1)];
+                    for (int j = 0; j < elements.length; j++) {
+                        elements[j] = context.newPersistentDataContainer();
+                        nestedCodecs[i].read(reader, elements[j]);
+                    }
+                    target.set(keys[i], PersistentDataType.TAG_CONTAINER_ARRAY, elements);
+                    break;
+                }
+                case TAG_CUSTOM:
+                    target.set(keys[i], (PersistentDataType<Object, Object>) types[i], reader.readCustomValue(typeCodecs[i]));
+                    break;
+                default:
+                    target.set(keys[i], (PersistentDataType<Object, Object>) types[i], reader.readValue(tags[i]));
+                    break;
+            }
+        }
+
+        if (reader.peekUnsignedByte() == BinaryFormat.TAG_END) {
+            reader.readUnsignedByte();
+        } else {
+            reader.readContainer(new PersistentDataContainerBuilder(target), getOptions().getTraversalLimits());
+        }
+    }
+
+    @NotNull
+    private Map<NamespacedKey, Object> decode(@NotNull final BinaryPersistentDataReader reader) {
+        final int[] bitmap = readBitmap(reader);
+        final Map<NamespacedKey, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if ((bitmap[i >>> 3] & (1 << (i & 7))) == 0) {
+                continue;
+            }
+            switch (tags[i]) {
+                case BinaryFormat.TAG_CONTAINER:
+                    values.put(keys[i], nestedCodecs[i].decode(reader));
+                    break;
+                case BinaryFormat.TAG_CONTAINER_ARRAY: {
+                    final int length = reader.readLength(1);
+                    final List<Map<NamespacedKey, Object>> elements = new ArrayList<>(length);
+                    for (int j = 0; j < length; j++) {
+                        elements.add(nestedCodecs[i].decode(reader));
+                    }
+                    values.put(keys[i], Collections.unmodifiableList(elements));
+                    break;
+                }
+                case TAG_CUSTOM:
+                    values.put(keys[i], reader.readCustomValue(typeCodecs[i]));
+                    break;
+                default:
+                    values.put(keys[i], reader.readValue(tags[i]));
+                    break;
+            }
+        }
+
+        if (reader.peekUnsignedByte() == BinaryFormat.TAG_END) {
+            reader.readUnsignedByte();
+        } else {
+            reader.skipContainer(new TraversalGuard(getOptions().getTraversalLimits()), 0);
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    @NotNull
+    private int[] readBitmap(@NotNull final BinaryPersistentDataReader reader) {
+        final int[] bitmap = new int[bitmapLength];
+        for (int i = 0; i < bitmapLength; i++) {
+            bitmap[i] = reader.readUnsignedByte();
+        }
+        if (bitmapLength > 0 && (bitmap[bitmapLength - 1] >>> (keys.length - ((bitmapLength - 1) << 3))) != 0) {
+            throw new IllegalArgumentException("Serialized PersistentDataContainer contains more keys than the schema");
+        }
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Optional compression for serialized {@link org.bukkit.persistence.PersistentDataContainer}s, e.g. the output of
+ * {@link PersistentDataSerializer#toBytes(org.bukkit.persistence.PersistentDataContainer)} or
+ * {@link PersistentDataSerializer#toJson(org.bukkit.persistence.PersistentDataContainer, Appendable)}.
+ * <p>
+ * Uses zlib with a preset dictionary, so that even small payloads compress well. There is one dictionary for the binary
+ * format, containing the "minecraft" namespace as it is encoded in its string table, and one for JSON, containing the
+ * native type names and the JSON field names. The dictionary is chosen by the first byte of the data, and the decompressor
+ * recognizes it by its checksum. Both dictionaries are built only from constants, so that they are the same on every
+ * server and Bukkit version. {@link Deflater}s and {@link Inflater}s are pooled and reused between calls.
+ * <p>
+ * Decompressing is limited to {@link #DEFAULT_MAX_DECOMPRESSED_SIZE} bytes unless another limit is given, so that a few
+ * bytes of crafted data cannot expand to gigabytes.
+ */
+public final class PersistentDataCompression {
+
+    /**
+     * Default maximum size of decompressed data: 64 MiB
+     */
+    public static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 64 << 20;
+
+    /**
+     * Largest array size that every JVM supports
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Namespace contained in the dictionaries. Changing it, or anything else the dictionaries are built from, changes their
+     * checksums and makes all previously compressed data unreadable.
+     */
+    private static final String DICTIONARY_NAMESPACE = "minecraft";
+
+    /**
+     * Maximum amount of idle deflaters and inflaters kept in each pool
+     */
+    private static final int MAX_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Preset dictionaries shared by the compressor and decompressor
+     */
+    private static final byte[] BINARY_DICTIONARY = buildBinaryDictionary();
+    private static final byte[] JSON_DICTIONARY = buildJsonDictionary();
+
+    /**
+     * Adler-32 checksums of the dictionaries, as stored in the zlib header of compressed data
+     */
+    private static final int BINARY_DICTIONARY_ID = adler32(BINARY_DICTIONARY);
+    private static final int JSON_DICTIONARY_ID = adler32(JSON_DICTIONARY);
+
+    private static final Queue<Deflater> DEFLATER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger DEFLATER_POOL_SIZE = new AtomicInteger();
+    private static final Queue<Inflater> INFLATER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger INFLATER_POOL_SIZE = new AtomicInteger();
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private PersistentDataCompression() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Compresses the given data
+     *
+     * @param data uncompressed data
+     * @return compressed data
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static byte[] compress(@NotNull final byte[] data) {
+        Objects.requireNonNull(data, "data cannot be null");
+
+        final Deflater deflater = acquireDeflater();
+        try {
+            deflater.setDictionary(dictionaryFor(data.length == 0 ? -1 : data[0]));
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] output = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length << 1);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    /**
+     * Decompresses data that was compressed using {@link #compress(byte[])} or {@link #compressingStream(OutputStream)}
+     *
+     * @param data compressed data
+     * @return uncompressed data
+     * @throws IllegalArgumentException if the data is not valid compressed data, or decompresses to more than
+     *                                  {@link #DEFAULT_MAX_DECOMPRESSED_SIZE} bytes
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static byte[] decompress(@NotNull final byte[] data) throws IllegalArgumentException {
+        return decompress(data, DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    /**
+     * Decompresses data that was compressed using {@link #compress(byte[])} or {@link #compressingStream(OutputStream)}
+     *
+     * @param data    compressed data
+     * @param maxSize maximum size of the decompressed data in bytes
+     * @return uncompressed data
+     * @throws IllegalArgumentException if the data is not valid compressed data, or decompresses to more than maxSize bytes
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new", pure = true)
+    public static byte[] decompress(@NotNull final byte[] data, final int maxSize) throws IllegalArgumentException {
+        Objects.requireNonNull(data, "data cannot be null");
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize cannot be negative");
+        }
+
+        // One more byte than allowed, so that exceeding the limit can be detected
+        final int capacity = (int) Math.min((long) maxSize + 1, MAX_ARRAY_SIZE);
+        final Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(data);
+            byte[] output = new byte[(int) Math.min(capacity, Math.max(64L, data.length * 4L))];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    if (length == capacity) {
+                        break;
+                    }
+                    output = Arrays.copyOf(output, (int) Math.min(capacity, (long) output.length << 1));
+                }
+                final int inflated = inflater.inflate(output, length, output.length - length);
+                length += inflated;
+                if (inflated == 0 && !inflater.finished()) {
+                    if (inflater.needsDictionary()) {
+                        setDictionary(inflater);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalArgumentException("Compressed data is truncated");
+                    }
+                }
+            }
+            if (length > maxSize || !inflater.finished()) {
+                throw new IllegalArgumentException("Decompressed data exceeds the maximum size of " + maxSize + " bytes");
+            }
+            return Arrays.copyOf(output, length);
+        } catch (final DataFormatException exception) {
+            throw new IllegalArgumentException("Invalid compressed data", exception);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Returns an {@link OutputStream} that compresses everything written to it and writes it to the given stream. Closing the
+     * returned stream finishes the compressed data and closes the given stream.
+     *
+     * @param out OutputStream to write the compressed data to
+     * @return compressing OutputStream
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public static OutputStream compressingStream(@NotNull final OutputStream out) {
+        Objects.requireNonNull(out, "out cannot be null");
+        return new PooledDeflaterOutputStream(out, acquireDeflater());
+    }
+
+    /**
+     * Returns an {@link InputStream} that decompresses the data read from the given stream. Closing the returned stream
+     * closes the given stream. Reading fails once more than {@link #DEFAULT_MAX_DECOMPRESSED_SIZE} bytes have been decompressed.
+     *
+     * @param in InputStream to read the compressed data from
+     * @return decompressing InputStream
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public static InputStream decompressingStream(@NotNull final InputStream in) {
+        return decompressingStream(in, DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    /**
+     * Returns an {@link InputStream} that decompresses the data read from the given stream. Closing the returned stream
+     * closes the given stream. Reading fails with an {@link IOException} once more than maxSize bytes have been decompressed.
+     *
+     * @param in      InputStream to read the compressed data from
+     * @param maxSize maximum size of the decompressed data in bytes
+     * @return decompressing InputStream
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static InputStream decompressingStream(@NotNull final InputStream in, final long maxSize) {
+        Objects.requireNonNull(in, "in cannot be null");
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize cannot be negative");
+        }
+        return new PooledInflaterInputStream(in, acquireInflater(), maxSize);
+    }
+
+    /**
+     * Builds the preset dictionary for the binary format. A namespace is written as a new string table entry the first time
+     * it occurs in a payload, i.e. as a zero byte followed by its length and its bytes, usually right after a type tag.
+     */
+    @NotNull
+    private static byte[] buildBinaryDictionary() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] bytes = DICTIONARY_NAMESPACE.getBytes(StandardCharsets.UTF_8);
+        for (int tag = BinaryFormat.TAG_BYTE; tag <= BinaryFormat.TAG_CONTAINER_ARRAY; tag++) {
+            out.write(tag);
+            out.write(0);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds the preset dictionary for JSON. Strings that are expected to occur most often come last, as zlib can refer to
+     * them with the shortest distances. The type names are those of the tags of the binary format, whether or not the
+     * Bukkit API on the classpath has the type.
+     */
+    @NotNull
+    private static byte[] buildJsonDictionary() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"key\":\"").append(DICTIONARY_NAMESPACE).append(':');
+        for (int tag = BinaryFormat.TAG_BYTE; tag <= BinaryFormat.TAG_CONTAINER_ARRAY; tag++) {
+            builder.append("\",\"type\":\"").append(BinaryFormat.getTypeName(tag)).append("\",\"value\":");
+        }
+        builder.append("[{\"key\":\"");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the dictionary for data starting with the given byte. JSON always starts with a bracket, the binary format
+     * with its version.
+     */
+    @NotNull
+    private static byte[] dictionaryFor(final int firstByte) {
+        return firstByte == '[' || firstByte == '{' ? JSON_DICTIONARY : BINARY_DICTIONARY;
+    }
+
+    private static int adler32(@NotNull final byte[] data) {
+        final Adler32 adler = new Adler32();
+        adler.update(data, 0, data.length);
+        return (int) adler.getValue();
+    }
+
+    private static void setDictionary(@NotNull final Inflater inflater) {
+        final int id = inflater.getAdler();
+        if (id == BINARY_DICTIONARY_ID) {
+            inflater.setDictionary(BINARY_DICTIONARY);
+        } else if (id == JSON_DICTIONARY_ID) {
+            inflater.setDictionary(JSON_DICTIONARY);
+        } else {
+            throw new IllegalArgumentException("Compressed data requires an unknown preset dictionary");
+        }
+    }
+
+    @NotNull
+    private static Deflater acquireDeflater() {
+        Deflater deflater = DEFLATER_POOL.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        } else {
+            DEFLATER_POOL_SIZE.decrementAndGet();
+        }
+        return deflater;
+    }
+
+    private static void releaseDeflater(@NotNull final Deflater deflater) {
+        deflater.reset();
+        if (DEFLATER_POOL_SIZE.incrementAndGet() <= MAX_POOL_SIZE) {
+            DEFLATER_POOL.offer(deflater);
+        } else {
+            DEFLATER_POOL_SIZE.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    @NotNull
+    private static Inflater acquireInflater() {
+        final Inflater inflater = INFLATER_POOL.poll();
+        if (inflater == null) {
+            return new Inflater();
+        }
+        INFLATER_POOL_SIZE.decrementAndGet();
+        return inflater;
+    }
+
+    private static void releaseInflater(@NotNull final Inflater inflater) {
+        inflater.reset();
+        if (INFLATER_POOL_SIZE.incrementAndGet() <= MAX_POOL_SIZE) {
+            INFLATER_POOL.offer(inflater);
+        } else {
+            INFLATER_POOL_SIZE.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /**
+     * {@link DeflaterOutputStream} that chooses the preset dictionary on the first write and returns its deflater to the
+     * pool when closed
+     */
+    private static final class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+        private boolean started;
+        private boolean released;
+
+        private PooledDeflaterOutputStream(@NotNull final OutputStream out, @NotNull final Deflater deflater) {
+            super(out, deflater, 4096);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull final byte[] buffer, final int offset, final int length) throws IOException {
+            if (!started && length > 0) {
+                started = true;
+                def.setDictionary(dictionaryFor(buffer[offset]));
+            }
+            super.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) {
+                return;
+            }
+            try {
+                super.close();
+            } finally {
+                released = true;
+                releaseDeflater(def);
+            }
+        }
+    }
+
+    /**
+     * {@link InflaterInputStream} that supplies the preset dictionary and returns its inflater to the pool when closed
+     */
+    private static final class PooledInflaterInputStream extends InflaterInputStream {
+
+        private final long maxSize;
+        private long size;
+        private boolean released;
+
+        private PooledInflaterInputStream(@NotNull final InputStream in, @NotNull final Inflater inflater, final long maxSize) {
+            super(in, inflater, 4096);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] buffer, final int offset, final int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1 && inf.needsDictionary()) {
+                try {
+                    setDictionary(inf);
+                } catch (final IllegalArgumentException exception) {
+                    throw new IOException(exception.getMessage(), exception);
+                }
+                read = super.read(buffer, offset, length);
+            }
+            if (read > 0) {
+                size += read;
+                if (size > maxSize) {
+                    throw new IOException("Decompressed data exceeds the maximum size of " + maxSize + " bytes");
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) {
+                return;
+            }
+            try {
+                super.close();
+            } finally {
+                released = true;
+                releaseInflater(inf);
+            }
+        }
+    }
+
+}
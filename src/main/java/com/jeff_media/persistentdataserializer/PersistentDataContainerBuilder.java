@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * {@link PersistentDataVisitor} that writes the visited entries into a target {@link PersistentDataContainer}.
+ * Nested containers are created using the target's {@link PersistentDataAdapterContext} and are set on their parent
+ * as soon as they are complete.
+ */
+final class PersistentDataContainerBuilder implements PersistentDataVisitor {
+
+    private final PersistentDataContainer target;
+    private final PersistentDataAdapterContext context;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    PersistentDataContainerBuilder(@NotNull final PersistentDataContainer target) {
+        this.target = Objects.requireNonNull(target, "target cannot be null");
+        this.context = target.getAdapterContext();
+        stack.push(new Frame(null, target, null));
+    }
+
+    /**
+     * Gets the target {@link PersistentDataContainer}
+     *
+     * @return target PersistentDataContainer
+     */
+    @NotNull
+    PersistentDataContainer getTarget() {
+        return target;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void visit(
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataType<?, ?> type,
+            @NotNull final Object value
+    ) {
+        current().set(key, (PersistentDataType<Object, Object>) type, value);
+    }
+
+    @Override
+    public void enterContainer(@NotNull final NamespacedKey key) {
+        stack.push(new Frame(key, context.newPersistentDataContainer(), null));
+    }
+
+    @Override
+    public void exitContainer() {
+        final Frame frame = stack.pop();
+        current().set(frame.key, PersistentDataType.TAG_CONTAINER, frame.container);
+    }
+
+    @Override
+    public void enterContainerArray(@NotNull final NamespacedKey key) {
+        stack.push(new Frame(key, null, new ArrayList<>()));
+    }
+
+    @Override
+    public void enterArrayElement() {
+        stack.push(new Frame(null, context.newPersistentDataContainer(), null));
+    }
+
+    @Override
+    public void exitArrayElement() {
+        final Frame frame = stack.pop();
+        Objects.requireNonNull(stack.peek().elements, "not inside a container array").add(frame.container);
+    }
+
+    @Override
+    public void exitContainerArray() {
+        final Frame frame = stack.pop();
+        current().set(frame.key, PersistentDataType.TAG_CONTAINER_ARRAY, frame.elements.toArray(new PersistentDataContainer[0]));
+    }
+
+    @NotNull
+    private PersistentDataContainer current() {
+        return Objects.requireNonNull(stack.peek().container, "not inside a container");
+    }
+
+    /**
+     * A container, or container array, that is currently being built
+     */
+    private static final class Frame {
+
+        @Nullable
+        private final NamespacedKey key;
+        @Nullable
+        private final PersistentDataContainer container;
+        @Nullable
+        private final List<PersistentDataContainer> elements;
+
+        private Frame(
+                @Nullable final NamespacedKey key,
+                @Nullable final PersistentDataContainer container,
+                @Nullable final List<PersistentDataContainer> elements
+        ) {
+            this.key = key;
+            this.container = container;
+            this.elements = elements;
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Reusable deserializer for the binary format of {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}. It owns
+ * its scratch buffers and remembers the namespaces and keys it has decoded, so that decoding the same keys again does not
+ * create new strings or {@link org.bukkit.NamespacedKey}s.
+ * <p>
+ * Instances are not thread safe. Keep one per thread, e.g. in a {@link ThreadLocal}, or pool them. Decoders created with
+ * {@link PersistentDataOptions} enforce their {@link TraversalLimits}, others those of the
+ * {@link PersistentDataSerializer#getDefaultOptions() default options} at the time of the call.
+ *
+ * @see PersistentDataEncoder
+ */
+public final class PersistentDataDecoder {
+
+    /**
+     * Largest scratch buffer that is kept between calls
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private final StringPool stringPool = new StringPool();
+    private final List<String> stringTable = new ArrayList<>();
+    private byte[] scratch = new byte[256];
+    @Nullable
+    private final PersistentDataOptions options;
+
+    /**
+     * Creates a decoder that uses the default options
+     */
+    public PersistentDataDecoder() {
+        this.options = null;
+    }
+
+    /**
+     * Creates a decoder that uses the given options
+     *
+     * @param options PersistentDataOptions
+     */
+    public PersistentDataDecoder(@NotNull final PersistentDataOptions options) {
+        this.options = Objects.requireNonNull(options, "options cannot be null");
+    }
+
+    /**
+     * Gets the options used by this decoder
+     *
+     * @return PersistentDataOptions
+     */
+    @NotNull
+    public PersistentDataOptions getOptions() {
+        return options != null ? options : PersistentDataSerializer.getDefaultOptions();
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from the remaining bytes of the given {@link ByteBuffer} and saves it to
+     * the given target {@link PersistentDataContainer}. The buffer's position is advanced to its limit.
+     *
+     * @param source    ByteBuffer containing exactly one serialized PersistentDataContainer
+     * @param targetPdc target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> param2")
+    public PersistentDataContainer decode(
+            @NotNull final ByteBuffer source,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(source, "source cannot be null");
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+
+        final int length = source.remaining();
+        if (source.hasArray()) {
+            decode(source.array(), source.arrayOffset() + source.position(), length, targetPdc);
+            source.position(source.limit());
+            return targetPdc;
+        }
+
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length << 1)];
+        }
+        source.get(scratch, 0, length);
+        try {
+            return decode(scratch, 0, length, targetPdc);
+        } finally {
+            if (scratch.length > MAX_RETAINED_CAPACITY) {
+                scratch = new byte[256];
+            }
+        }
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from the given range of bytes and saves it to the given target {@link PersistentDataContainer}
+     *
+     * @param source    array containing a serialized PersistentDataContainer
+     * @param offset    offset of the serialized PersistentDataContainer
+     * @param length    length of the serialized PersistentDataContainer
+     * @param targetPdc target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _, _, _ -> param4")
+    public PersistentDataContainer decode(
+            @NotNull final byte[] source,
+            final int offset,
+            final int length,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(source, "source cannot be null");
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+
+        stringTable.clear();
+        final BinaryPersistentDataReader reader = new BinaryPersistentDataReader(source, offset, length, stringTable, false);
+        reader.setStringPool(stringPool);
+        try {
+            reader.readPayload(new PersistentDataContainerBuilder(targetPdc), getOptions().getTraversalLimits());
+        } finally {
+            stringTable.clear();
+        }
+        return targetPdc;
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from the given bytes into a new container created in the given context
+     *
+     * @param source  serialized PersistentDataContainer
+     * @param context PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public PersistentDataContainer decode(
+            @NotNull final byte[] source,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(source, "source cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+        return decode(source, 0, source.length, context.newPersistentDataContainer());
+    }
+
+}
@@ -0,0 +1,828 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable set of changes between two states of a {@link PersistentDataContainer}
+ * <p>
+ * A delta lists the entries that were added, changed or removed. Nested {@link PersistentDataType#TAG_CONTAINER}s and
+ * {@link PersistentDataType#TAG_CONTAINER_ARRAY}s of unchanged length are compared recursively, so that only the changed
+ * entries inside them are included. Deltas can be serialized to JSON or the binary format and later be applied to a
+ * container holding the previous state.
+ * <pre>{@code
+ * PersistentDataSnapshot current = PersistentDataSnapshot.capture(pdc);
+ * byte[] record = PersistentDataDelta.between(lastSaved, current).toBytes();
+ * lastSaved = current;
+ *
+ * PersistentDataDelta.fromBytes(record).applyTo(pdc);
+ * }</pre>
+ */
+public final class PersistentDataDelta {
+
+    private static final int CLOSE_NONE = 0;
+    private static final int CLOSE_PATCH = 1;
+    private static final int CLOSE_ARRAY_ELEMENT = 2;
+
+    private static final PersistentDataDelta EMPTY = new PersistentDataDelta(new Change[0]);
+
+    private final Change[] changes;
+
+    private PersistentDataDelta(@NotNull final Change[] changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Computes the changes between two snapshots
+     *
+     * @param previous previous state
+     * @param current  current state
+     * @return delta that turns the previous state into the current state
+     */
+    @NotNull
+    @Contract(pure = true)
+    public static PersistentDataDelta between(
+            @NotNull final PersistentDataSnapshot previous,
+            @NotNull final PersistentDataSnapshot current
+    ) {
+        Objects.requireNonNull(previous, "previous cannot be null");
+        Objects.requireNonNull(current, "current cannot be null");
+        return compute(previous, current);
+    }
+
+    /**
+     * Computes the changes between a snapshot and the current contents of a {@link PersistentDataContainer}
+     *
+     * @param previous previous state
+     * @param current  PersistentDataContainer holding the current state
+     * @return delta that turns the previous state into the current state
+     */
+    @NotNull
+    @Contract(pure = true)
+    public static PersistentDataDelta between(
+            @NotNull final PersistentDataSnapshot previous,
+            @NotNull final PersistentDataContainer current
+    ) {
+        Objects.requireNonNull(previous, "previous cannot be null");
+        Objects.requireNonNull(current, "current cannot be null");
+        return compute(previous, PersistentDataSnapshot.capture(current));
+    }
+
+    /**
+     * Computes the changes between two {@link PersistentDataContainer}s
+     *
+     * @param previous PersistentDataContainer holding the previous state
+     * @param current  PersistentDataContainer holding the current state
+     * @return delta that turns the previous state into the current state
+     */
+    @NotNull
+    @Contract(pure = true)
+    public static PersistentDataDelta between(
+            @NotNull final PersistentDataContainer previous,
+            @NotNull final PersistentDataContainer current
+    ) {
+        Objects.requireNonNull(previous, "previous cannot be null");
+        Objects.requireNonNull(current, "current cannot be null");
+        return compute(PersistentDataSnapshot.capture(previous), PersistentDataSnapshot.capture(current));
+    }
+
+    /**
+     * Computes the changes between a serialized container and the current contents of a {@link PersistentDataContainer}
+     *
+     * @param previous previous state, as returned by {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}
+     * @param current  PersistentDataContainer holding the current state
+     * @return delta that turns the previous state into the current state
+     * @throws IllegalArgumentException if the serialized container is malformed
+     */
+    @NotNull
+    @Contract(pure = true)
+    public static PersistentDataDelta between(
+            @NotNull final byte[] previous,
+            @NotNull final PersistentDataContainer current
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(previous, "previous cannot be null");
+        Objects.requireNonNull(current, "current cannot be null");
+        return compute(PersistentDataSnapshot.fromBytes(previous), PersistentDataSnapshot.capture(current));
+    }
+
+    /**
+     * Deserializes a delta from JSON, as produced by {@link #toJson()}
+     *
+     * @param json JSON
+     * @return delta
+     * @throws JsonSyntaxException if the JSON is malformed
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static PersistentDataDelta fromJson(@NotNull final String json) throws JsonSyntaxException {
+        Objects.requireNonNull(json, "json cannot be null");
+        return fromJson(new StringReader(json));
+    }
+
+    /**
+     * Deserializes a delta from JSON read from the given {@link Reader}
+     *
+     * @param reader Reader to read the JSON from
+     * @return delta
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public static PersistentDataDelta fromJson(@NotNull final Reader reader) throws JsonSyntaxException, JsonIOException {
+        Objects.requireNonNull(reader, "reader cannot be null");
+        return fromJson(reader, PersistentDataSerializer.getDefaultOptions());
+    }
+
+    /**
+     * Deserializes a delta from JSON using the given options
+     */
+    @NotNull
+    static PersistentDataDelta fromJson(@NotNull final Reader reader, @NotNull final PersistentDataOptions options) {
+        final Builder builder = new Builder();
+        PersistentDataSerializer.readDeltaJson(reader, builder, options.getTraversalLimits());
+        return builder.build();
+    }
+
+    /**
+     * Deserializes a delta from the binary format, as produced by {@link #toBytes()}
+     *
+     * @param bytes binary payload
+     * @return delta
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static PersistentDataDelta fromBytes(@NotNull final byte[] bytes) throws IllegalArgumentException {
+        Objects.requireNonNull(bytes, "bytes cannot be null");
+        return fromBytes(bytes, PersistentDataSerializer.getDefaultOptions());
+    }
+
+    /**
+     * Deserializes a delta from the binary format using the given options
+     */
+    @NotNull
+    static PersistentDataDelta fromBytes(@NotNull final byte[] bytes, @NotNull final PersistentDataOptions options) {
+        final Builder builder = new Builder();
+        new BinaryPersistentDataReader(bytes).readDeltaPayload(builder, options.getTraversalLimits());
+        return builder.build();
+    }
+
+    /**
+     * Checks whether this delta contains no changes
+     *
+     * @return true if both states were equal
+     */
+    public boolean isEmpty() {
+        return changes.length == 0;
+    }
+
+    /**
+     * Gets the amount of changed top level entries. Changes inside nested containers count as one change of their parent entry.
+     *
+     * @return amount of changes
+     */
+    public int size() {
+        return changes.length;
+    }
+
+    /**
+     * Applies this delta to the given {@link PersistentDataContainer}, which should hold the previous state. Entries that
+     * are not part of this delta are left untouched.
+     * <p>
+     * All partially changed nested containers and container arrays, including nested ones, are checked before anything
+     * is written, so the target is left unchanged if this delta cannot be applied.
+     *
+     * @param targetPdc target PersistentDataContainer
+     * @return the target PersistentDataContainer
+     * @throws IllegalArgumentException if a partially changed nested container is missing from the target, or a changed
+     *                                  container array does not have the expected length in the target
+     */
+    @NotNull
+    @Contract(value = "_ -> param1")
+    @SuppressWarnings("unchecked")
+    public PersistentDataContainer applyTo(@NotNull final PersistentDataContainer targetPdc) throws IllegalArgumentException {
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        final PersistentDataAdapterContext context = targetPdc.getAdapterContext();
+
+        // Collects the nested containers that are patched, and checks them, before anything is written. Every
+        // application is added after the one containing it.
+        final List<Application> applications = new ArrayList<>();
+        applications.add(new Application(this, targetPdc));
+        for (int a = 0; a < applications.size(); a++) {
+            final Application application = applications.get(a);
+            final PersistentDataContainer target = application.target;
+            final Change[] changes = application.delta.changes;
+            for (int i = 0; i < changes.length; i++) {
+                final Change change = changes[i];
+                if (change.operation == Change.PATCH) {
+                    final PersistentDataContainer nested = target.has(change.key, PersistentDataType.TAG_CONTAINER)
+                            ? target.get(change.key, PersistentDataType.TAG_CONTAINER)
+                            : null;
+                    if (nested == null) {
+                        throw new IllegalArgumentException("Cannot apply delta to " + change.key + ": expected a TAG_CONTAINER");
+                    }
+                    application.nested[i] = nested;
+                    applications.add(new Application((PersistentDataDelta) change.value, nested));
+                } else if (change.operation == Change.ARRAY_PATCH) {
+                    final PersistentDataDelta[] deltas = (PersistentDataDelta[]) change.value;
+                    final PersistentDataContainer[] containers = target.has(change.key, PersistentDataType.TAG_CONTAINER_ARRAY)
+                            ? target.get(change.key, PersistentDataType.TAG_CONTAINER_ARRAY)
+                            : null;
+                    if (containers == null || containers.length != deltas.length) {
+                        throw new IllegalArgumentException("Cannot apply delta to " + change.key + ": expected a TAG_CONTAINER_ARRAY of length " + deltas.length);
+                    }
+                    application.nested[i] = containers;
+                    for (int j = 0; j < deltas.length; j++) {
+                        applications.add(new Application(deltas[j], containers[j]));
+                    }
+                }
+            }
+        }
+
+        // Nested containers are patched before they are set on the container holding them
+        for (int a = applications.size() - 1; a >= 0; a--) {
+            final Application application = applications.get(a);
+            final PersistentDataContainer target = application.target;
+            final Change[] changes = application.delta.changes;
+            for (int i = 0; i < changes.length; i++) {
+                final Change change = changes[i];
+                switch (change.operation) {
+                    case Change.SET:
+                        if (change.value instanceof PersistentDataSnapshot) {
+                            target.set(change.key, PersistentDataType.TAG_CONTAINER, ((PersistentDataSnapshot) change.value).toContainer(context));
+                        } else if (change.value instanceof PersistentDataSnapshot[]) {
+                            final PersistentDataSnapshot[] snapshots = (PersistentDataSnapshot[]) change.value;
+                            final PersistentDataContainer[] containers = new PersistentDataContainer[snapshots.length];
+                            for (int j = 0; j < snapshots.length; j++) {
+                                containers[j] = snapshots[j].toContainer(context);
+                            }
+                            target.set(change.key, PersistentDataType.TAG_CONTAINER_ARRAY, containers);
+                        } else {
+                            target.set(change.key, (PersistentDataType<Object, Object>) change.type, change.value);
+                        }
+                        break;
+                    case Change.REMOVE:
+                        target.remove(change.key);
+                        break;
+                    case Change.PATCH:
+                        target.set(change.key, PersistentDataType.TAG_CONTAINER, (PersistentDataContainer) application.nested[i]);
+                        break;
+                    case Change.ARRAY_PATCH:
+                        target.set(change.key, PersistentDataType.TAG_CONTAINER_ARRAY, (PersistentDataContainer[]) application.nested[i]);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown operation " + change.operation);
+                }
+            }
+        }
+        return targetPdc;
+    }
+
+    /**
+     * Serializes this delta to JSON. Added and changed entries are written like in {@link PersistentDataSerializer#toJson(PersistentDataContainer)},
+     * removed entries and partially changed nested containers use the special types "REMOVE", "PATCH" and "ARRAY_PATCH".
+     *
+     * @return JSON string
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder();
+        toJson(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Serializes this delta to JSON and writes it to the given {@link Appendable}
+     *
+     * @param output Appendable to write the JSON to
+     * @throws JsonIOException if writing to the output fails
+     */
+    public void toJson(@NotNull final Appendable output) throws JsonIOException {
+        Objects.requireNonNull(output, "output cannot be null");
+        toJson(output, PersistentDataSerializer.getDefaultOptions());
+    }
+
+    /**
+     * Serializes this delta to JSON using the given options
+     */
+    void toJson(@NotNull final Appendable output, @NotNull final PersistentDataOptions options) throws JsonIOException {
+        PersistentDataSerializer.writeJson(output, this::accept, options);
+    }
+
+    /**
+     * Serializes this delta to the binary format
+     *
+     * @return binary payload
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public byte[] toBytes() {
+        final BinaryPersistentDataWriter writer = new BinaryPersistentDataWriter();
+        writer.beginDelta();
+        accept(writer);
+        writer.end();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Reports all changes of this delta to the given visitor
+     * <p>
+     * Nested deltas are tracked on an explicit stack instead of the call stack, so that deeply nested deltas cannot
+     * cause a {@link StackOverflowError}.
+     *
+     * @param visitor PersistentDataDeltaVisitor
+     */
+    void accept(@NotNull final PersistentDataDeltaVisitor visitor) {
+        final Deque<AcceptFrame> stack = new ArrayDeque<>();
+        stack.push(new AcceptFrame(this, CLOSE_NONE));
+
+        while (!stack.isEmpty()) {
+            final AcceptFrame frame = stack.peek();
+            if (frame.elements != null) {
+                if (frame.index < frame.elements.length) {
+                    visitor.enterArrayElement();
+                    stack.push(new AcceptFrame(frame.elements[frame.index++], CLOSE_ARRAY_ELEMENT));
+                } else {
+                    stack.pop();
+                    visitor.exitArrayPatch();
+                }
+                continue;
+            }
+            final Change[] changes = frame.delta.changes;
+            if (frame.index == changes.length) {
+                stack.pop();
+                if (frame.close == CLOSE_PATCH) {
+                    visitor.exitPatch();
+                } else if (frame.close == CLOSE_ARRAY_ELEMENT) {
+                    visitor.exitArrayElement();
+                }
+                continue;
+            }
+
+            final Change change = changes[frame.index++];
+            switch (change.operation) {
+                case Change.SET:
+                    if (change.value instanceof PersistentDataSnapshot) {
+                        visitor.enterContainer(change.key);
+                        ((PersistentDataSnapshot) change.value).accept(visitor);
+                        visitor.exitContainer();
+                    } else if (change.value instanceof PersistentDataSnapshot[]) {
+                        visitor.enterContainerArray(change.key);
+                        for (final PersistentDataSnapshot element : (PersistentDataSnapshot[]) change.value) {
+                            visitor.enterArrayElement();
+                            element.accept(visitor);
+                            visitor.exitArrayElement();
+                        }
+                        visitor.exitContainerArray();
+                    } else {
+                        visitor.visit(change.key, change.type, change.value);
+                    }
+                    break;
+                case Change.REMOVE:
+                    visitor.remove(change.key);
+                    break;
+                case Change.PATCH:
+                    visitor.enterPatch(change.key);
+                    stack.push(new AcceptFrame((PersistentDataDelta) change.value, CLOSE_PATCH));
+                    break;
+                case Change.ARRAY_PATCH:
+                    visitor.enterArrayPatch(change.key);
+                    stack.push(new AcceptFrame((PersistentDataDelta[]) change.value));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + change.operation);
+            }
+        }
+    }
+
+    /**
+     * Computes the changes between two snapshots. Nested snapshots are compared on an explicit stack instead of the
+     * call stack.
+     */
+    @NotNull
+    private static PersistentDataDelta compute(
+            @NotNull final PersistentDataSnapshot previous,
+            @NotNull final PersistentDataSnapshot current
+    ) {
+        final Deque<ComputeFrame> stack = new ArrayDeque<>();
+        stack.push(new ComputeFrame(previous, current));
+        PersistentDataDelta completed = null;
+
+        while (true) {
+            final ComputeFrame frame = stack.peek();
+            if (completed != null) {
+                frame.addNested(completed);
+                completed = null;
+            }
+            if (frame.elements != null) {
+                if (frame.element < frame.elements.length) {
+                    stack.push(new ComputeFrame(frame.previousElements[frame.element], frame.elements[frame.element]));
+                    frame.element++;
+                    continue;
+                }
+                frame.finishArray();
+            }
+            if (frame.index == frame.current.size()) {
+                stack.pop();
+                completed = frame.toDelta();
+                if (stack.isEmpty()) {
+                    return completed;
+                }
+                continue;
+            }
+
+            final int i = frame.index++;
+            final NamespacedKey key = frame.current.getKeyAt(i);
+            final PersistentDataType<?, ?> type = frame.current.getTypeAt(i);
+            final Object value = frame.current.getValueAt(i);
+            final Integer previousIndex = frame.previousIndices.remove(key);
+
+            if (previousIndex == null || !frame.previous.getTypeAt(previousIndex).equals(type)) {
+                frame.changes.add(new Change(Change.SET, key, type, value));
+                continue;
+            }
+
+            final Object previousValue = frame.previous.getValueAt(previousIndex);
+            if (value instanceof PersistentDataSnapshot) {
+                stack.push(new ComputeFrame((PersistentDataSnapshot) previousValue, (PersistentDataSnapshot) value));
+            } else if (value instanceof PersistentDataSnapshot[]) {
+                final PersistentDataSnapshot[] previousElements = (PersistentDataSnapshot[]) previousValue;
+                final PersistentDataSnapshot[] elements = (PersistentDataSnapshot[]) value;
+                if (previousElements.length != elements.length) {
+                    frame.changes.add(new Change(Change.SET, key, type, value));
+                } else {
+                    frame.startArray(previousElements, elements);
+                }
+            } else if (!valueEquals(previousValue, value)) {
+                frame.changes.add(new Change(Change.SET, key, type, value));
+            }
+        }
+    }
+
+    private static boolean valueEquals(@NotNull final Object first, @NotNull final Object second) {
+        if (first instanceof byte[] && second instanceof byte[]) {
+            return Arrays.equals((byte[]) first, (byte[]) second);
+        } else if (first instanceof int[] && second instanceof int[]) {
+            return Arrays.equals((int[]) first, (int[]) second);
+        } else if (first instanceof long[] && second instanceof long[]) {
+            return Arrays.equals((long[]) first, (long[]) second);
+        }
+        return first.equals(second);
+    }
+
+    /**
+     * A single change of an entry
+     */
+    private static final class Change {
+
+        /**
+         * The entry was added or replaced, value is the new value
+         */
+        private static final int SET = 0;
+
+        /**
+         * The entry was removed
+         */
+        private static final int REMOVE = 1;
+
+        /**
+         * The nested container was partially changed, value is a {@link PersistentDataDelta}
+         */
+        private static final int PATCH = 2;
+
+        /**
+         * The elements of the container array were partially changed, value is a {@link PersistentDataDelta}[]
+         */
+        private static final int ARRAY_PATCH = 3;
+
+        private final int operation;
+        private final NamespacedKey key;
+        @Nullable
+        private final PersistentDataType<?, ?> type;
+        @Nullable
+        private final Object value;
+
+        private Change(
+                final int operation,
+                @NotNull final NamespacedKey key,
+                @Nullable final PersistentDataType<?, ?> type,
+                @Nullable final Object value
+        ) {
+            this.operation = operation;
+            this.key = key;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A delta that is applied by {@link #applyTo(PersistentDataContainer)}, together with the container it is applied to
+     */
+    private static final class Application {
+
+        private final PersistentDataDelta delta;
+        private final PersistentDataContainer target;
+        /**
+         * The patched nested container, or container array, of every PATCH and ARRAY_PATCH change, by change index
+         */
+        private final Object[] nested;
+
+        private Application(@NotNull final PersistentDataDelta delta, @NotNull final PersistentDataContainer target) {
+            this.delta = delta;
+            this.target = target;
+            this.nested = new Object[delta.changes.length];
+        }
+    }
+
+    /**
+     * A delta whose changes, or an array patch whose elements, are currently being reported
+     */
+    private static final class AcceptFrame {
+
+        @Nullable
+        private final PersistentDataDelta delta;
+        @Nullable
+        private final PersistentDataDelta[] elements;
+        private final int close;
+        private int index;
+
+        private AcceptFrame(@NotNull final PersistentDataDelta delta, final int close) {
+            this.delta = delta;
+            this.elements = null;
+            this.close = close;
+        }
+
+        private AcceptFrame(@NotNull final PersistentDataDelta[] elements) {
+            this.delta = null;
+            this.elements = elements;
+            this.close = CLOSE_NONE;
+        }
+    }
+
+    /**
+     * Two snapshots that are currently being compared by {@link #compute(PersistentDataSnapshot, PersistentDataSnapshot)}
+     */
+    private static final class ComputeFrame {
+
+        private final PersistentDataSnapshot previous;
+        private final PersistentDataSnapshot current;
+        private final Map<NamespacedKey, Integer> previousIndices = new HashMap<>();
+        private final List<Change> changes = new ArrayList<>();
+        private int index;
+
+        /**
+         * Elements of the container array at index - 1 that are currently being compared, or null
+         */
+        @Nullable
+        private PersistentDataSnapshot[] previousElements;
+        @Nullable
+        private PersistentDataSnapshot[] elements;
+        @Nullable
+        private PersistentDataDelta[] nestedElements;
+        private int element;
+
+        private ComputeFrame(@NotNull final PersistentDataSnapshot previous, @NotNull final PersistentDataSnapshot current) {
+            this.previous = previous;
+            this.current = current;
+            for (int i = 0; i < previous.size(); i++) {
+                previousIndices.put(previous.getKeyAt(i), i);
+            }
+        }
+
+        private void startArray(@NotNull final PersistentDataSnapshot[] previousElements, @NotNull final PersistentDataSnapshot[] elements) {
+            this.previousElements = previousElements;
+            this.elements = elements;
+            this.nestedElements = new PersistentDataDelta[elements.length];
+            this.element = 0;
+        }
+
+        /**
+         * Adds the delta of the nested container, or of the container array element, that was compared last
+         */
+        private void addNested(@NotNull final PersistentDataDelta nested) {
+            if (nestedElements != null) {
+                nestedElements[element - 1] = nested;
+            } else if (!nested.isEmpty()) {
+                changes.add(new Change(Change.PATCH, current.getKeyAt(index - 1), current.getTypeAt(index - 1), nested));
+            }
+        }
+
+        private void finishArray() {
+            final PersistentDataDelta[] nested = Objects.requireNonNull(nestedElements, "not inside a container array");
+            for (final PersistentDataDelta delta : nested) {
+                if (!delta.isEmpty()) {
+                    changes.add(new Change(Change.ARRAY_PATCH, current.getKeyAt(index - 1), current.getTypeAt(index - 1), nested));
+                    break;
+                }
+            }
+            previousElements = null;
+            elements = null;
+            nestedElements = null;
+        }
+
+        @NotNull
+        private PersistentDataDelta toDelta() {
+            if (!previousIndices.isEmpty()) {
+                for (int i = 0; i < previous.size(); i++) {
+                    final NamespacedKey key = previous.getKeyAt(i);
+                    if (previousIndices.containsKey(key)) {
+                        changes.add(new Change(Change.REMOVE, key, null, null));
+                    }
+                }
+            }
+            return changes.isEmpty() ? EMPTY : new PersistentDataDelta(changes.toArray(new Change[0]));
+        }
+    }
+
+    /**
+     * {@link PersistentDataDeltaVisitor} that builds a {@link PersistentDataDelta}
+     */
+    private static final class Builder implements PersistentDataDeltaVisitor {
+
+        private final Deque<Level> stack = new ArrayDeque<>();
+
+        /**
+         * Collects added or replaced nested containers, which are reported as regular container entries
+         */
+        @Nullable
+        private PersistentDataSnapshot.Builder capture;
+        private int captureDepth;
+
+        private Builder() {
+            stack.push(new Level(null));
+        }
+
+        @NotNull
+        private PersistentDataDelta build() {
+            if (stack.size() != 1 || capture != null) {
+                throw new IllegalStateException("Not all nested containers have been exited");
+            }
+            return stack.peek().toDelta();
+        }
+
+        @Override
+        public void visit(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataType<?, ?> type,
+                @NotNull final Object value
+        ) {
+            if (capture != null) {
+                capture.visit(key, type, value);
+            } else {
+                stack.peek().changes.add(new Change(Change.SET, NamespacedKeyCache.intern(key), type, value));
+            }
+        }
+
+        @Override
+        public void enterContainer(@NotNull final NamespacedKey key) {
+            startCapture().enterContainer(key);
+        }
+
+        @Override
+        public void exitContainer() {
+            Objects.requireNonNull(capture, "not inside a container").exitContainer();
+            finishCapture();
+        }
+
+        @Override
+        public void enterContainerArray(@NotNull final NamespacedKey key) {
+            startCapture().enterContainerArray(key);
+        }
+
+        @Override
+        public void exitContainerArray() {
+            Objects.requireNonNull(capture, "not inside a container array").exitContainerArray();
+            finishCapture();
+        }
+
+        @Override
+        public void enterArrayElement() {
+            if (capture != null) {
+                capture.enterArrayElement();
+            } else {
+                Objects.requireNonNull(stack.peek().elements, "not inside an array patch");
+                stack.push(new Level(null));
+            }
+        }
+
+        @Override
+        public void exitArrayElement() {
+            if (capture != null) {
+                capture.exitArrayElement();
+            } else {
+                final PersistentDataDelta element = stack.pop().toDelta();
+                Objects.requireNonNull(stack.peek().elements, "not inside an array patch").add(element);
+            }
+        }
+
+        @Override
+        public void remove(@NotNull final NamespacedKey key) {
+            stack.peek().changes.add(new Change(Change.REMOVE, NamespacedKeyCache.intern(key), null, null));
+        }
+
+        @Override
+        public void enterPatch(@NotNull final NamespacedKey key) {
+            stack.push(new Level(NamespacedKeyCache.intern(key)));
+        }
+
+        @Override
+        public void exitPatch() {
+            final Level level = stack.pop();
+            stack.peek().changes.add(new Change(Change.PATCH, level.key, PersistentDataType.TAG_CONTAINER, level.toDelta()));
+        }
+
+        @Override
+        public void enterArrayPatch(@NotNull final NamespacedKey key) {
+            final Level level = new Level(NamespacedKeyCache.intern(key));
+            level.elements = new ArrayList<>();
+            stack.push(level);
+        }
+
+        @Override
+        public void exitArrayPatch() {
+            final Level level = stack.pop();
+            stack.peek().changes.add(new Change(Change.ARRAY_PATCH, level.key, PersistentDataType.TAG_CONTAINER_ARRAY,
+                    Objects.requireNonNull(level.elements, "not inside an array patch").toArray(new PersistentDataDelta[0])));
+        }
+
+        @NotNull
+        private PersistentDataSnapshot.Builder startCapture() {
+            if (capture == null) {
+                capture = new PersistentDataSnapshot.Builder();
+            }
+            captureDepth++;
+            return capture;
+        }
+
+        /**
+         * Adds the captured container as a change once its outermost level has been exited
+         */
+        private void finishCapture() {
+            if (--captureDepth > 0) {
+                return;
+            }
+            final PersistentDataSnapshot captured = Objects.requireNonNull(capture, "capture cannot be null").build();
+            capture = null;
+            stack.peek().changes.add(new Change(Change.SET, captured.getKeyAt(0), captured.getTypeAt(0), captured.getValueAt(0)));
+        }
+
+        /**
+         * Changes of a container that is currently being read
+         */
+        private static final class Level {
+
+            @Nullable
+            private final NamespacedKey key;
+            private final List<Change> changes = new ArrayList<>();
+            @Nullable
+            private List<PersistentDataDelta> elements;
+
+            private Level(@Nullable final NamespacedKey key) {
+                this.key = key;
+            }
+
+            @NotNull
+            private PersistentDataDelta toDelta() {
+                return changes.isEmpty() ? EMPTY : new PersistentDataDelta(changes.toArray(new Change[0]));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the changes of a {@link PersistentDataDelta} one by one.
+ * <p>
+ * Entries that were added or changed are reported like the entries of a container, using the methods of
+ * {@link PersistentDataVisitor}. Removed entries are reported as {@link #remove(NamespacedKey)}. Nested
+ * {@link PersistentDataType#TAG_CONTAINER}s that were only partially changed are reported as {@link #enterPatch(NamespacedKey)},
+ * followed by the changes of the nested container and {@link #exitPatch()}. {@link PersistentDataType#TAG_CONTAINER_ARRAY}s
+ * of unchanged length are reported as {@link #enterArrayPatch(NamespacedKey)}, followed by one
+ * {@link #enterArrayElement()} / {@link #exitArrayElement()} pair containing the changes of every element, and
+ * {@link #exitArrayPatch()}.
+ */
+interface PersistentDataDeltaVisitor extends PersistentDataVisitor {
+
+    /**
+     * Name used instead of a type name for removed entries in JSON
+     */
+    String REMOVE = "REMOVE";
+
+    /**
+     * Name used instead of a type name for partially changed nested containers in JSON
+     */
+    String PATCH = "PATCH";
+
+    /**
+     * Name used instead of a type name for partially changed container arrays in JSON
+     */
+    String ARRAY_PATCH = "ARRAY_PATCH";
+
+    /**
+     * Visits an entry that was removed
+     *
+     * @param key NamespacedKey
+     */
+    void remove(@NotNull NamespacedKey key);
+
+    /**
+     * Called before the changes of a nested {@link PersistentDataType#TAG_CONTAINER} are visited
+     *
+     * @param key NamespacedKey of the nested container
+     */
+    void enterPatch(@NotNull NamespacedKey key);
+
+    /**
+     * Called after all changes of a nested {@link PersistentDataType#TAG_CONTAINER} have been visited
+     */
+    void exitPatch();
+
+    /**
+     * Called before the changes of the elements of a {@link PersistentDataType#TAG_CONTAINER_ARRAY} are visited
+     *
+     * @param key NamespacedKey of the container array
+     */
+    void enterArrayPatch(@NotNull NamespacedKey key);
+
+    /**
+     * Called after the changes of all elements of a {@link PersistentDataType#TAG_CONTAINER_ARRAY} have been visited
+     */
+    void exitArrayPatch();
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import com.google.gson.JsonIOException;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reusable serializer that owns its scratch buffers and caches, so that serializing many {@link PersistentDataContainer}s
+ * allocates almost nothing except the results. Produces the same output as {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}
+ * and {@link PersistentDataSerializer#toJson(PersistentDataContainer)}.
+ * <p>
+ * Instances are not thread safe. Keep one per thread, e.g. in a {@link ThreadLocal}, or pool them. Encoders created with
+ * {@link PersistentDataOptions} use them for every call, others use the {@link PersistentDataSerializer#getDefaultOptions()
+ * default options} at the time of the call.
+ * <pre>{@code
+ * private static final ThreadLocal<PersistentDataEncoder> ENCODERS = ThreadLocal.withInitial(PersistentDataEncoder::new);
+ *
+ * int length = ENCODERS.get().encode(pdc, byteBuffer);
+ * }</pre>
+ *
+ * @see PersistentDataDecoder
+ */
+public final class PersistentDataEncoder {
+
+    private final BinaryPersistentDataWriter writer = new BinaryPersistentDataWriter();
+    private final Map<NamespacedKey, String> keyStrings = new HashMap<>();
+    private final StringBuilder json = new StringBuilder(256);
+    @Nullable
+    private final PersistentDataOptions options;
+
+    /**
+     * Creates an encoder that uses the default options
+     */
+    public PersistentDataEncoder() {
+        this.options = null;
+    }
+
+    /**
+     * Creates an encoder that uses the given options
+     *
+     * @param options PersistentDataOptions
+     */
+    public PersistentDataEncoder(@NotNull final PersistentDataOptions options) {
+        this.options = Objects.requireNonNull(options, "options cannot be null");
+    }
+
+    /**
+     * Serializes the given {@link PersistentDataContainer} in the binary format into the given {@link ByteBuffer}, starting
+     * at its current position
+     *
+     * @param pdc    PersistentDataContainer
+     * @param target ByteBuffer to write to
+     * @return amount of bytes written
+     * @throws BufferOverflowException if the buffer does not have enough remaining space, in which case nothing is written
+     */
+    public int encode(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final ByteBuffer target
+    ) throws BufferOverflowException {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(target, "target cannot be null");
+        try {
+            writeBinary(pdc);
+            final int size = writer.size();
+            writer.writeTo(target);
+            return size;
+        } finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Serializes the given {@link PersistentDataContainer} in the binary format
+     *
+     * @param pdc PersistentDataContainer
+     * @return serialized PersistentDataContainer
+     * @see PersistentDataSerializer#toBytes(PersistentDataContainer)
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public byte[] toBytes(@NotNull final PersistentDataContainer pdc) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        try {
+            writeBinary(pdc);
+            return writer.toByteArray();
+        } finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Serializes the given {@link PersistentDataContainer} as JSON to the given {@link Appendable}, e.g. a
+     * {@link java.nio.CharBuffer} or a {@link StringBuilder}
+     *
+     * @param pdc    PersistentDataContainer
+     * @param output Appendable to write the JSON to
+     * @throws JsonIOException if writing to the output fails
+     */
+    public void toJson(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final Appendable output
+    ) throws JsonIOException {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(output, "output cannot be null");
+        final PersistentDataOptions options = getOptions();
+        PersistentDataSerializer.writeJson(output, visitor -> PersistentDataWalker.walk(pdc, visitor, options), keyStrings, options);
+    }
+
+    /**
+     * Serializes the given {@link PersistentDataContainer} as JSON
+     *
+     * @param pdc PersistentDataContainer
+     * @return JSON
+     * @see PersistentDataSerializer#toJson(PersistentDataContainer)
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public String toJson(@NotNull final PersistentDataContainer pdc) {
+        json.setLength(0);
+        toJson(pdc, json);
+        final String result = json.toString();
+        if (json.capacity() > 1 << 16) {
+            json.setLength(0);
+            json.trimToSize();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the options used by this encoder
+     *
+     * @return PersistentDataOptions
+     */
+    @NotNull
+    public PersistentDataOptions getOptions() {
+        return options != null ? options : PersistentDataSerializer.getDefaultOptions();
+    }
+
+    private void writeBinary(@NotNull final PersistentDataContainer pdc) {
+        writer.reset();
+        writer.begin();
+        PersistentDataWalker.walk(pdc, writer, getOptions());
+        writer.end();
+    }
+
+}
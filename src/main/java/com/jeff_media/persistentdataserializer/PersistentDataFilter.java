@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Selects which entries of a {@link org.bukkit.persistence.PersistentDataContainer} are serialized or deserialized
+ * <p>
+ * An entry is included if it matches at least one of the included namespaces, at least one of the included key prefixes
+ * and at least one of the included types, and none of the excluded ones. Criteria without any included values match
+ * every entry. Key prefixes are matched against {@link NamespacedKey#getKey()}, without the namespace.
+ * <p>
+ * A filter only applies to the entries of the container it is given to. Nested containers are included completely,
+ * unless a nested filter has been set for their key. When deserializing, excluded entries are skipped without being decoded.
+ * <pre>{@code
+ * PersistentDataFilter filter = PersistentDataFilter.builder()
+ *         .includeNamespace("myplugin")
+ *         .nested(new NamespacedKey("myplugin", "stats"), PersistentDataFilter.builder().excludeKeyPrefix("cache_").build())
+ *         .build();
+ * String json = PersistentDataSerializer.toJson(pdc, filter);
+ * }</pre>
+ */
+public final class PersistentDataFilter {
+
+    /**
+     * Filter that includes all entries
+     */
+    public static final PersistentDataFilter ALL = builder().build();
+
+    private final Set<String> includedNamespaces;
+    private final Set<String> excludedNamespaces;
+    private final String[] includedKeyPrefixes;
+    private final String[] excludedKeyPrefixes;
+    private final Set<PersistentDataType<?, ?>> includedTypes;
+    private final Set<PersistentDataType<?, ?>> excludedTypes;
+    private final Map<NamespacedKey, PersistentDataFilter> nested;
+
+    private PersistentDataFilter(@NotNull final Builder builder) {
+        this.includedNamespaces = copy(builder.includedNamespaces);
+        this.excludedNamespaces = copy(builder.excludedNamespaces);
+        this.includedKeyPrefixes = builder.includedKeyPrefixes.toArray(new String[0]);
+        this.excludedKeyPrefixes = builder.excludedKeyPrefixes.toArray(new String[0]);
+        this.includedTypes = copy(builder.includedTypes);
+        this.excludedTypes = copy(builder.excludedTypes);
+        this.nested = builder.nested.isEmpty() ? Collections.emptyMap() : new HashMap<>(builder.nested);
+    }
+
+    /**
+     * Creates a builder for a filter that includes all entries until restricted
+     *
+     * @return Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Checks whether the entry with the given key and native type is included
+     *
+     * @param key  NamespacedKey
+     * @param type native PersistentDataType
+     * @return true if the entry is included
+     */
+    public boolean includes(@NotNull final NamespacedKey key, @NotNull final PersistentDataType<?, ?> type) {
+        return includesKey(key) && includesType(type);
+    }
+
+    /**
+     * Gets the filter that applies to the entries of the TAG_CONTAINER, or of every element of the TAG_CONTAINER_ARRAY,
+     * stored under the given key
+     *
+     * @param key NamespacedKey
+     * @return nested filter, or {@link #ALL} if no nested filter has been set for this key
+     */
+    @NotNull
+    public PersistentDataFilter getNested(@NotNull final NamespacedKey key) {
+        final PersistentDataFilter filter = nested.get(key);
+        return filter == null ? ALL : filter;
+    }
+
+    /**
+     * Checks whether entries with the given key are included, regardless of their type
+     */
+    boolean includesKey(@NotNull final NamespacedKey key) {
+        if (this == ALL) {
+            return true;
+        }
+        final String namespace = key.getNamespace();
+        if (!includedNamespaces.isEmpty() && !includedNamespaces.contains(namespace) || excludedNamespaces.contains(namespace)) {
+            return false;
+        }
+        final String name = key.getKey();
+        return (includedKeyPrefixes.length == 0 || startsWithAny(name, includedKeyPrefixes)) && !startsWithAny(name, excludedKeyPrefixes);
+    }
+
+    /**
+     * Checks whether entries of the given native type are included, regardless of their key
+     */
+    boolean includesType(@NotNull final PersistentDataType<?, ?> type) {
+        return (includedTypes.isEmpty() || includedTypes.contains(type)) && !excludedTypes.contains(type);
+    }
+
+    /**
+     * Checks whether this filter includes or excludes any types, so that readers know whether they have to resolve the type
+     */
+    boolean filtersTypes() {
+        return !includedTypes.isEmpty() || !excludedTypes.isEmpty();
+    }
+
+    private static boolean startsWithAny(@NotNull final String name, @NotNull final String[] prefixes) {
+        for (final String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static <T> Set<T> copy(@NotNull final Set<T> set) {
+        return set.isEmpty() ? Collections.emptySet() : new HashSet<>(set);
+    }
+
+    /**
+     * Builds a {@link PersistentDataFilter}
+     */
+    public static final class Builder {
+
+        private final Set<String> includedNamespaces = new HashSet<>();
+        private final Set<String> excludedNamespaces = new HashSet<>();
+        private final List<String> includedKeyPrefixes = new ArrayList<>();
+        private final List<String> excludedKeyPrefixes = new ArrayList<>();
+        private final Set<PersistentDataType<?, ?>> includedTypes = new HashSet<>();
+        private final Set<PersistentDataType<?, ?>> excludedTypes = new HashSet<>();
+        private final Map<NamespacedKey, PersistentDataFilter> nested = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Includes entries of the given namespace, e.g. the name of a plugin in lowercase
+         *
+         * @param namespace namespace
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder includeNamespace(@NotNull final String namespace) {
+            includedNamespaces.add(Objects.requireNonNull(namespace, "namespace cannot be null"));
+            return this;
+        }
+
+        /**
+         * Excludes entries of the given namespace
+         *
+         * @param namespace namespace
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder excludeNamespace(@NotNull final String namespace) {
+            excludedNamespaces.add(Objects.requireNonNull(namespace, "namespace cannot be null"));
+            return this;
+        }
+
+        /**
+         * Includes entries whose key, without the namespace, starts with the given prefix
+         *
+         * @param prefix key prefix
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder includeKeyPrefix(@NotNull final String prefix) {
+            includedKeyPrefixes.add(Objects.requireNonNull(prefix, "prefix cannot be null"));
+            return this;
+        }
+
+        /**
+         * Excludes entries whose key, without the namespace, starts with the given prefix
+         *
+         * @param prefix key prefix
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder excludeKeyPrefix(@NotNull final String prefix) {
+            excludedKeyPrefixes.add(Objects.requireNonNull(prefix, "prefix cannot be null"));
+            return this;
+        }
+
+        /**
+         * Includes entries of the given native type
+         *
+         * @param type native PersistentDataType, e.g. {@link PersistentDataType#STRING} or {@link PersistentDataType#TAG_CONTAINER}
+         * @return this builder
+         * @throws IllegalArgumentException if the type is not a native PersistentDataType
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder includeType(@NotNull final PersistentDataType<?, ?> type) {
+            includedTypes.add(checkNative(type));
+            return this;
+        }
+
+        /**
+         * Excludes entries of the given native type
+         *
+         * @param type native PersistentDataType
+         * @return this builder
+         * @throws IllegalArgumentException if the type is not a native PersistentDataType
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder excludeType(@NotNull final PersistentDataType<?, ?> type) {
+            excludedTypes.add(checkNative(type));
+            return this;
+        }
+
+        /**
+         * Sets the filter for the entries of the TAG_CONTAINER, or of every element of the TAG_CONTAINER_ARRAY, stored
+         * under the given key. Filters can be nested to any depth.
+         *
+         * @param key    NamespacedKey of the nested container
+         * @param filter filter for the nested container's entries
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_, _ -> this")
+        public Builder nested(@NotNull final NamespacedKey key, @NotNull final PersistentDataFilter filter) {
+            Objects.requireNonNull(key, "key cannot be null");
+            Objects.requireNonNull(filter, "filter cannot be null");
+            nested.put(key, filter);
+            return this;
+        }
+
+        /**
+         * Builds the filter
+         *
+         * @return PersistentDataFilter
+         */
+        @NotNull
+        @Contract(value = "-> new", pure = true)
+        public PersistentDataFilter build() {
+            return new PersistentDataFilter(this);
+        }
+
+        @NotNull
+        private static PersistentDataType<?, ?> checkNative(@NotNull final PersistentDataType<?, ?> type) {
+            Objects.requireNonNull(type, "type cannot be null");
+            if (!(type instanceof PersistentDataType.PrimitivePersistentDataType)) {
+                throw new IllegalArgumentException("Only native PersistentDataTypes can be filtered, but got " + type.getClass().getName());
+            }
+            return type;
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives metrics about the operations of {@link PersistentDataSerializer}. Set the default recorder, e.g. a
+ * {@link LongAdderPersistentDataMetrics}, using {@link PersistentDataSerializer#setDefaultOptions(PersistentDataOptions)},
+ * or pass one to a single encoder or decoder using {@link PersistentDataOptions}.
+ * <p>
+ * Implementations are called from whatever thread the serializer is used on and must therefore be thread safe.
+ * While the recorder is {@link #NOOP}, the serializer neither measures time nor counts entries.
+ * <p>
+ * Only the methods of {@link PersistentDataSerializer} itself are recorded, including the stream based ones. The
+ * specialized classes built on top of the formats, i.e. {@link PersistentDataBatchSerializer}, {@link PersistentDataEncoder},
+ * {@link PersistentDataDecoder}, {@link PersistentDataCodec}, {@link PersistentDataSnapshot} and
+ * {@link LazyPersistentDataContainer}, do not record metrics of their own. Only
+ * {@link PersistentDataBatchSerializer#fromBytesList(java.util.Collection, org.bukkit.persistence.PersistentDataAdapterContext)}
+ * records every container as a {@link Operation#FROM_BYTES} operation, as it deserializes them one by one.
+ */
+public interface PersistentDataMetrics {
+
+    /**
+     * Recorder that ignores everything. This is the default.
+     */
+    PersistentDataMetrics NOOP = new PersistentDataMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void recordOperation(@NotNull final Operation operation, final long nanos, final int entries, final int maxDepth, final long size) {
+            // Ignored
+        }
+
+        @Override
+        public void recordProbes(final int probes) {
+            // Ignored
+        }
+    };
+
+    /**
+     * Whether this recorder wants to receive metrics. If false, the serializer skips all measuring.
+     *
+     * @return true if metrics should be recorded
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Records a completed operation
+     *
+     * @param operation operation
+     * @param nanos     duration in nanoseconds
+     * @param entries   amount of entries, including the entries of nested containers
+     * @param maxDepth  deepest nesting level of TAG_CONTAINERs and TAG_CONTAINER_ARRAYs, 0 for a flat container
+     * @param size      amount of chars (JSON) or bytes (binary format) produced or consumed, 0 for list of maps
+     */
+    void recordOperation(@NotNull Operation operation, long nanos, int entries, int maxDepth, long size);
+
+    /**
+     * Records the amount of {@link org.bukkit.persistence.PersistentDataContainer#has(org.bukkit.NamespacedKey, org.bukkit.persistence.PersistentDataType)}
+     * calls that {@link PersistentDataSerializer#getPrimitivePersistentDataType(org.bukkit.persistence.PersistentDataContainer, org.bukkit.NamespacedKey)}
+     * needed to find the type of a single key
+     *
+     * @param probes amount of has calls
+     */
+    void recordProbes(int probes);
+
+    /**
+     * Operations of {@link PersistentDataSerializer} that are recorded
+     */
+    enum Operation {
+        TO_MAP_LIST,
+        FROM_MAP_LIST,
+        TO_JSON,
+        FROM_JSON,
+        TO_BYTES,
+        FROM_BYTES
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * Settings of serializations and deserializations: how primitive arrays are written to JSON and to lists of maps, which
+ * {@link TraversalLimits} are enforced when reading and when serializing live containers, and which
+ * {@link PersistentDataMetrics} recorder is used
+ * <p>
+ * Options are immutable and can be shared between threads. Pass them to a {@link ConfiguredPersistentDataSerializer} or to
+ * {@link PersistentDataEncoder#PersistentDataEncoder(PersistentDataOptions)}. Everything that is not given options uses
+ * {@link PersistentDataSerializer#getDefaultOptions()} at the time it is called.
+ * <pre>{@code
+ * PersistentDataOptions options = PersistentDataOptions.builder()
+ *         .arrayEncoding(ArrayEncoding.BASE64)
+ *         .traversalLimits(TraversalLimits.builder().maxDepth(32).build())
+ *         .build();
+ * PersistentDataEncoder encoder = new PersistentDataEncoder(options);
+ * }</pre>
+ */
+public final class PersistentDataOptions {
+
+    /**
+     * Default options: {@link ArrayEncoding#NUMBERS}, {@link TraversalLimits#DEFAULT} when reading,
+     * {@link TraversalLimits#UNLIMITED} when serializing live containers and {@link PersistentDataMetrics#NOOP}
+     */
+    public static final PersistentDataOptions DEFAULT = builder().build();
+
+    private final ArrayEncoding arrayEncoding;
+    private final TraversalLimits traversalLimits;
+    private final TraversalLimits serializationLimits;
+    private final PersistentDataMetrics metrics;
+
+    private PersistentDataOptions(@NotNull final Builder builder) {
+        this.arrayEncoding = builder.arrayEncoding;
+        this.traversalLimits = builder.traversalLimits;
+        this.serializationLimits = builder.serializationLimits;
+        this.metrics = builder.metrics;
+    }
+
+    /**
+     * Creates a builder, initialized with the {@link #DEFAULT} options
+     *
+     * @return Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a builder, initialized with these options
+     *
+     * @return Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public Builder toBuilder() {
+        return new Builder()
+                .arrayEncoding(arrayEncoding)
+                .traversalLimits(traversalLimits)
+                .serializationLimits(serializationLimits)
+                .metrics(metrics);
+    }
+
+    /**
+     * Gets how byte, int and long arrays are written to JSON and to lists of maps. The binary format is not affected.
+     * Deserializing always accepts every {@link ArrayEncoding}.
+     *
+     * @return ArrayEncoding
+     */
+    @NotNull
+    public ArrayEncoding getArrayEncoding() {
+        return arrayEncoding;
+    }
+
+    /**
+     * Gets the limits that are enforced when reading serialized containers, in every format
+     *
+     * @return TraversalLimits
+     */
+    @NotNull
+    public TraversalLimits getTraversalLimits() {
+        return traversalLimits;
+    }
+
+    /**
+     * Gets the limits that are enforced when serializing, snapshotting or hashing live {@link org.bukkit.persistence.PersistentDataContainer}s
+     *
+     * @return TraversalLimits, {@link TraversalLimits#UNLIMITED} by default
+     */
+    @NotNull
+    public TraversalLimits getSerializationLimits() {
+        return serializationLimits;
+    }
+
+    /**
+     * Gets the recorder that receives metrics
+     *
+     * @return PersistentDataMetrics, {@link PersistentDataMetrics#NOOP} if metrics are disabled
+     */
+    @NotNull
+    public PersistentDataMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentDataOptions{arrayEncoding=" + arrayEncoding + ", traversalLimits=" + traversalLimits + ", serializationLimits=" + serializationLimits + ", metrics=" + metrics + "}";
+    }
+
+    /**
+     * Builds {@link PersistentDataOptions}
+     */
+    public static final class Builder {
+
+        private ArrayEncoding arrayEncoding = ArrayEncoding.NUMBERS;
+        private TraversalLimits traversalLimits = TraversalLimits.DEFAULT;
+        private TraversalLimits serializationLimits = TraversalLimits.UNLIMITED;
+        private PersistentDataMetrics metrics = PersistentDataMetrics.NOOP;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how byte, int and long arrays are written to JSON and to lists of maps
+         *
+         * @param arrayEncoding ArrayEncoding, e.g. {@link ArrayEncoding#BASE64}
+         * @return this builder
+         * @see PersistentDataOptions#getArrayEncoding()
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder arrayEncoding(@NotNull final ArrayEncoding arrayEncoding) {
+            this.arrayEncoding = Objects.requireNonNull(arrayEncoding, "arrayEncoding cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the limits that are enforced when reading serialized containers. Containers that exceed them are rejected
+         * with a {@link TraversalLimitExceededException} as soon as the limit is reached.
+         *
+         * @param traversalLimits TraversalLimits, e.g. {@link TraversalLimits#DEFAULT} or {@link TraversalLimits#UNLIMITED}
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder traversalLimits(@NotNull final TraversalLimits traversalLimits) {
+            this.traversalLimits = Objects.requireNonNull(traversalLimits, "traversalLimits cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the limits that are enforced when serializing, snapshotting or hashing live containers. Defaults to
+         * {@link TraversalLimits#UNLIMITED}, so that large containers the server already holds can always be saved.
+         *
+         * @param serializationLimits TraversalLimits
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder serializationLimits(@NotNull final TraversalLimits serializationLimits) {
+            this.serializationLimits = Objects.requireNonNull(serializationLimits, "serializationLimits cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the recorder that receives metrics, e.g. a {@link LongAdderPersistentDataMetrics}
+         *
+         * @param metrics PersistentDataMetrics, {@link PersistentDataMetrics#NOOP} to disable metrics
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder metrics(@NotNull final PersistentDataMetrics metrics) {
+            this.metrics = Objects.requireNonNull(metrics, "metrics cannot be null");
+            return this;
+        }
+
+        /**
+         * Builds the options
+         *
+         * @return PersistentDataOptions
+         */
+        @NotNull
+        @Contract(value = "-> new", pure = true)
+        public PersistentDataOptions build() {
+            return new PersistentDataOptions(this);
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataContainer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded cache that remembers the serialized form of a {@link PersistentDataContainer} together with its
+ * {@link PersistentDataSerializer#hash(PersistentDataContainer) structural hash}, so that containers that did not change
+ * since they were last serialized are not serialized again
+ * <p>
+ * Payloads are cached per caller supplied id, e.g. the UUID of the entity that owns the container, and are only reused
+ * if both the id and the hash match. The hash is not cryptographic: contents that collide with the previous contents of
+ * the same id can be constructed on purpose, and would be answered with the previous payload. Do not use this cache for
+ * containers whose contents are chosen by untrusted parties if that matters, or serialize them directly.
+ * <p>
+ * Because the hash does not depend on the order of the keys, a cached JSON string may list the entries in a different
+ * order than serializing the container again would. The least recently used ids are evicted once the cache is full.
+ * This class is thread safe.
+ * <pre>{@code
+ * PersistentDataPayloadCache cache = new PersistentDataPayloadCache(1024);
+ * long hash = PersistentDataSerializer.hash(pdc);
+ * if (hash != lastSavedHash) {
+ *     save(cache.toBytes(entity.getUniqueId(), pdc, hash));
+ *     lastSavedHash = hash;
+ * }
+ * }</pre>
+ */
+public final class PersistentDataPayloadCache {
+
+    private final Map<Object, Payload> payloads;
+
+    /**
+     * Creates a cache that keeps the serialized forms of up to the given amount of ids
+     *
+     * @param maxSize maximum amount of cached ids
+     */
+    public PersistentDataPayloadCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.payloads = new LinkedHashMap<Object, Payload>(Math.min(maxSize, 64), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Object, Payload> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the binary representation of a {@link PersistentDataContainer}, serializing it only if it has changed since
+     * it was last serialized for the given id
+     *
+     * @param id  id of the container, e.g. the UUID of its owner
+     * @param pdc PersistentDataContainer
+     * @return serialized PersistentDataContainer
+     * @see PersistentDataSerializer#toBytes(PersistentDataContainer)
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public byte[] toBytes(@NotNull final Object id, @NotNull final PersistentDataContainer pdc) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        return toBytes(id, pdc, PersistentDataSerializer.hash(pdc));
+    }
+
+    /**
+     * Gets the binary representation of a {@link PersistentDataContainer} whose structural hash is already known
+     *
+     * @param id   id of the container, e.g. the UUID of its owner
+     * @param pdc  PersistentDataContainer
+     * @param hash structural hash of the PersistentDataContainer, as returned by {@link PersistentDataSerializer#hash(PersistentDataContainer)}
+     * @return serialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_, _, _ -> new")
+    public byte[] toBytes(@NotNull final Object id, @NotNull final PersistentDataContainer pdc, final long hash) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        final Payload payload = getPayload(id, hash);
+        byte[] bytes = payload.bytes;
+        if (bytes == null) {
+            bytes = PersistentDataSerializer.toBytes(pdc);
+            payload.bytes = bytes;
+        }
+        return bytes.clone();
+    }
+
+    /**
+     * Gets the JSON representation of a {@link PersistentDataContainer}, serializing it only if it has changed since it
+     * was last serialized for the given id
+     *
+     * @param id  id of the container, e.g. the UUID of its owner
+     * @param pdc PersistentDataContainer
+     * @return JSON
+     * @see PersistentDataSerializer#toJson(PersistentDataContainer)
+     */
+    @NotNull
+    public String toJson(@NotNull final Object id, @NotNull final PersistentDataContainer pdc) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        return toJson(id, pdc, PersistentDataSerializer.hash(pdc));
+    }
+
+    /**
+     * Gets the JSON representation of a {@link PersistentDataContainer} whose structural hash is already known
+     *
+     * @param id   id of the container, e.g. the UUID of its owner
+     * @param pdc  PersistentDataContainer
+     * @param hash structural hash of the PersistentDataContainer, as returned by {@link PersistentDataSerializer#hash(PersistentDataContainer)}
+     * @return JSON
+     */
+    @NotNull
+    public String toJson(@NotNull final Object id, @NotNull final PersistentDataContainer pdc, final long hash) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        final Payload payload = getPayload(id, hash);
+        String json = payload.json;
+        if (json == null) {
+            json = PersistentDataSerializer.toJson(pdc);
+            payload.json = json;
+        }
+        return json;
+    }
+
+    /**
+     * Checks whether the serialized form of the container with the given id and structural hash is cached
+     *
+     * @param id   id of the container
+     * @param hash structural hash
+     * @return true if the binary or JSON representation is cached
+     */
+    public boolean contains(@NotNull final Object id, final long hash) {
+        Objects.requireNonNull(id, "id cannot be null");
+        synchronized (payloads) {
+            final Payload payload = payloads.get(id);
+            return payload != null && payload.hash == hash;
+        }
+    }
+
+    /**
+     * Removes the cached payload of the given id, e.g. when its owner is unloaded
+     *
+     * @param id id of the container
+     */
+    public void remove(@NotNull final Object id) {
+        Objects.requireNonNull(id, "id cannot be null");
+        synchronized (payloads) {
+            payloads.remove(id);
+        }
+    }
+
+    /**
+     * Gets the amount of cached ids
+     *
+     * @return amount of cached ids
+     */
+    public int size() {
+        synchronized (payloads) {
+            return payloads.size();
+        }
+    }
+
+    /**
+     * Removes all cached payloads
+     */
+    public void clear() {
+        synchronized (payloads) {
+            payloads.clear();
+        }
+    }
+
+    /**
+     * Gets the payload of the given id, replacing it if it was created for a different hash
+     */
+    @NotNull
+    private Payload getPayload(@NotNull final Object id, final long hash) {
+        Objects.requireNonNull(id, "id cannot be null");
+        synchronized (payloads) {
+            Payload payload = payloads.get(id);
+            if (payload == null || payload.hash != hash) {
+                payload = new Payload(hash);
+                payloads.put(id, payload);
+            }
+            return payload;
+        }
+    }
+
+    /**
+     * Serialized forms of one container, filled in when they are first requested
+     */
+    private static final class Payload {
+
+        private final long hash;
+        private volatile byte[] bytes;
+        private volatile String json;
+
+        private Payload(final long hash) {
+            this.hash = hash;
+        }
+    }
+
+}
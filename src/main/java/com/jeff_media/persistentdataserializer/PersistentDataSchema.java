@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Describes the expected layout of a {@link PersistentDataContainer}: its keys, their native {@link PersistentDataType}s and
+ * the schemas of nested containers. Schemas built with a {@link PersistentDataTypeRegistry} can also contain keys of the
+ * registered custom types.
+ * <pre>{@code
+ * PersistentDataSchema schema = PersistentDataSchema.builder()
+ *         .add(new NamespacedKey(plugin, "id"), PersistentDataType.STRING)
+ *         .add(new NamespacedKey(plugin, "level"), PersistentDataType.INTEGER)
+ *         .addContainer(new NamespacedKey(plugin, "stats"), statsSchema)
+ *         .build();
+ * PersistentDataCodec codec = schema.compile();
+ * }</pre>
+ */
+public final class PersistentDataSchema {
+
+    private final Map<NamespacedKey, Field> fields;
+    private volatile PersistentDataCodec codec;
+
+    private PersistentDataSchema(@NotNull final Map<NamespacedKey, Field> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a new {@link Builder}
+     *
+     * @return new Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public static Builder builder() {
+        return builder(PersistentDataTypeRegistry.EMPTY);
+    }
+
+    /**
+     * Creates a new {@link Builder} that also accepts the custom types of the given registry
+     *
+     * @param registry PersistentDataTypeRegistry
+     * @return new Builder
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static Builder builder(@NotNull final PersistentDataTypeRegistry registry) {
+        return new Builder(Objects.requireNonNull(registry, "registry cannot be null"));
+    }
+
+    /**
+     * Gets the keys of this schema, in the order they were added
+     *
+     * @return unmodifiable set of keys
+     */
+    @NotNull
+    public Set<NamespacedKey> getKeys() {
+        return Collections.unmodifiableSet(fields.keySet());
+    }
+
+    /**
+     * Gets the {@link PersistentDataType} of the given key
+     *
+     * @param key NamespacedKey
+     * @return native or registered custom PersistentDataType, or null if the key is not part of this schema
+     */
+    @Nullable
+    public PersistentDataType<?, ?> getType(@NotNull final NamespacedKey key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        final Field field = fields.get(key);
+        return field == null ? null : field.type;
+    }
+
+    /**
+     * Gets the schema of the nested containers of the given key
+     *
+     * @param key NamespacedKey
+     * @return schema of the {@link PersistentDataType#TAG_CONTAINER} or of the elements of the
+     * {@link PersistentDataType#TAG_CONTAINER_ARRAY}, or null if the key is not part of this schema or has a primitive type
+     */
+    @Nullable
+    public PersistentDataSchema getNestedSchema(@NotNull final NamespacedKey key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        final Field field = fields.get(key);
+        return field == null ? null : field.nestedSchema;
+    }
+
+    /**
+     * Compiles this schema into a {@link PersistentDataCodec}. The codec is only compiled once and then reused.
+     *
+     * @return compiled codec
+     */
+    @NotNull
+    public PersistentDataCodec compile() {
+        PersistentDataCodec compiled = codec;
+        if (compiled == null) {
+            compiled = new PersistentDataCodec(this);
+            codec = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Gets the fields of this schema, in the order they were added
+     */
+    @NotNull
+    Iterable<Field> getFields() {
+        return fields.values();
+    }
+
+    /**
+     * A single key of a schema
+     */
+    static final class Field {
+
+        final NamespacedKey key;
+        final PersistentDataType<?, ?> type;
+        @Nullable
+        final PersistentDataSchema nestedSchema;
+        @Nullable
+        final PersistentDataTypeCodec<?> typeCodec;
+
+        private Field(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataType<?, ?> type,
+                @Nullable final PersistentDataSchema nestedSchema,
+                @Nullable final PersistentDataTypeCodec<?> typeCodec
+        ) {
+            this.key = key;
+            this.type = type;
+            this.nestedSchema = nestedSchema;
+            this.typeCodec = typeCodec;
+        }
+    }
+
+    /**
+     * Builder for {@link PersistentDataSchema}s
+     */
+    public static final class Builder {
+
+        private final Map<NamespacedKey, Field> fields = new LinkedHashMap<>();
+        private final PersistentDataTypeRegistry registry;
+
+        private Builder(@NotNull final PersistentDataTypeRegistry registry) {
+            this.registry = registry;
+        }
+
+        /**
+         * Adds a key with a native primitive {@link PersistentDataType}, or with a custom type of this builder's
+         * {@link PersistentDataTypeRegistry}
+         *
+         * @param key  NamespacedKey
+         * @param type native PersistentDataType, e.g. {@link PersistentDataType#STRING}, or registered custom type
+         * @return this Builder
+         * @throws IllegalArgumentException if the type is neither a native primitive type nor registered, or the key was already added
+         */
+        @NotNull
+        @Contract(value = "_, _ -> this")
+        public Builder add(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataType<?, ?> type
+        ) throws IllegalArgumentException {
+            Objects.requireNonNull(type, "type cannot be null");
+            final PersistentDataTypeCodec<?> typeCodec = registry.getCodec(type);
+            if (typeCodec != null) {
+                return addField(key, type, null, typeCodec);
+            }
+            final int tag = BinaryFormat.getTag(type);
+            if (tag == BinaryFormat.TAG_CONTAINER || tag == BinaryFormat.TAG_CONTAINER_ARRAY) {
+                throw new IllegalArgumentException("Use addContainer or addContainerArray to add nested containers");
+            }
+            return addField(key, type, null, null);
+        }
+
+        /**
+         * Adds a key of type {@link PersistentDataType#TAG_CONTAINER}
+         *
+         * @param key          NamespacedKey
+         * @param nestedSchema schema of the nested container
+         * @return this Builder
+         * @throws IllegalArgumentException if the key was already added
+         */
+        @NotNull
+        @Contract(value = "_, _ -> this")
+        public Builder addContainer(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataSchema nestedSchema
+        ) throws IllegalArgumentException {
+            Objects.requireNonNull(nestedSchema, "nestedSchema cannot be null");
+            return addField(key, PersistentDataType.TAG_CONTAINER, nestedSchema, null);
+        }
+
+        /**
+         * Adds a key of type {@link PersistentDataType#TAG_CONTAINER_ARRAY}
+         *
+         * @param key           NamespacedKey
+         * @param elementSchema schema of every container in the array
+         * @return this Builder
+         * @throws IllegalArgumentException if the key was already added
+         */
+        @NotNull
+        @Contract(value = "_, _ -> this")
+        public Builder addContainerArray(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataSchema elementSchema
+        ) throws IllegalArgumentException {
+            Objects.requireNonNull(elementSchema, "elementSchema cannot be null");
+            return addField(key, PersistentDataType.TAG_CONTAINER_ARRAY, elementSchema, null);
+        }
+
+        /**
+         * Builds the schema
+         *
+         * @return new PersistentDataSchema
+         */
+        @NotNull
+        @Contract(value = "-> new", pure = true)
+        public PersistentDataSchema build() {
+            return new PersistentDataSchema(new LinkedHashMap<>(fields));
+        }
+
+        @NotNull
+        private Builder addField(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataType<?, ?> type,
+                @Nullable final PersistentDataSchema nestedSchema,
+                @Nullable final PersistentDataTypeCodec<?> typeCodec
+        ) {
+            Objects.requireNonNull(key, "key cannot be null");
+            if (fields.containsKey(key)) {
+                throw new IllegalArgumentException("Key " + key + " was already added");
+            }
+            fields.put(key, new Field(key, type, nestedSchema, typeCodec));
+            return this;
+        }
+    }
+
+}
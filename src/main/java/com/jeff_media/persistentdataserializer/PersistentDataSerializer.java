@@ -19,8 +19,10 @@ package com.jeff_media.persistentdataserializer;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import org.bukkit.NamespacedKey;
 import org.bukkit.persistence.PersistentDataAdapterContext;
 import org.bukkit.persistence.PersistentDataContainer;
@@ -29,8 +31,18 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Utility class to serialize and deserialize for {@link PersistentDataContainer}s
@@ -52,13 +64,22 @@ public final class PersistentDataSerializer {
      */
     private static final Map<PersistentDataType<?, ?>, String> NATIVE_PRIMITIVE_PERSISTENT_DATA_TYPES_BY_CLASS = new HashMap<>();
 
+    static final Gson GSON = new GsonBuilder().create();
+
+    /**
+     * Maximum size of a binary payload read from an {@link InputStream}: 64 MiB
+     */
+    private static final int MAX_STREAM_PAYLOAD_SIZE = 64 << 20;
+
     /**
-     * TypeToken for {@link List} of {@link Map}s with {@link String} keys and {@link Object} values
+     * Resolves the native primitive {@link PersistentDataType} of keys, remembering the last type found per key
      */
-    private static final TypeToken<List<Map<String, Object>>> LIST_MAP_TYPE_TOKEN = new TypeToken<List<Map<String, Object>>>() {
-    };
+    private static final PrimitiveTypeResolver TYPE_RESOLVER;
 
-    private static final Gson GSON = new GsonBuilder().create();
+    /**
+     * Options used by everything that is not given its own options, {@link PersistentDataOptions#DEFAULT} by default
+     */
+    private static volatile PersistentDataOptions defaultOptions = PersistentDataOptions.DEFAULT;
 
     // Cache the native primitive PersistentDataTypes
     static {
@@ -88,6 +109,7 @@ public final class PersistentDataSerializer {
             }
         }
 
+        TYPE_RESOLVER = new PrimitiveTypeResolver(NATIVE_PRIMITIVE_PERSISTENT_DATA_TYPES, PrimitiveTypeResolver.DEFAULT_MAX_CACHED_KEYS);
     }
 
     /**
@@ -99,6 +121,9 @@ public final class PersistentDataSerializer {
 
     /**
      * Gets the proper {@link org.bukkit.persistence.PersistentDataType} for the given {@link NamespacedKey}
+     * <p>
+     * The last type found for each key is remembered, so that repeated lookups of the same key normally only need
+     * a single {@link PersistentDataContainer#has(NamespacedKey, PersistentDataType)} call.
      *
      * @param pdc PersistentDataContainer
      * @param key NamespacedKey
@@ -110,18 +135,80 @@ public final class PersistentDataSerializer {
             @NotNull final NamespacedKey key
     ) throws IllegalArgumentException {
 
+        return getPrimitivePersistentDataType(pdc, key, TYPE_RESOLVER, defaultOptions.getMetrics());
+    }
+
+    /**
+     * Gets the proper {@link org.bukkit.persistence.PersistentDataType} for the given {@link NamespacedKey} using the given
+     * resolver, reporting the amount of probes to the given recorder
+     *
+     * @see #getPrimitivePersistentDataType(PersistentDataContainer, NamespacedKey)
+     */
+    @NotNull
+    static PersistentDataType<?, ?> getPrimitivePersistentDataType(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final NamespacedKey key,
+            @NotNull final PrimitiveTypeResolver resolver,
+            @NotNull final PersistentDataMetrics metrics
+    ) throws IllegalArgumentException {
+
         Objects.requireNonNull(pdc, "pdc cannot be null");
         Objects.requireNonNull(key, "key cannot be null");
 
-        for (final PersistentDataType<?, ?> type : NATIVE_PRIMITIVE_PERSISTENT_DATA_TYPES) {
-            if (pdc.has(key, type)) {
-                return type;
-            }
+        final PersistentDataType<?, ?> type = resolver.resolve(pdc, key, metrics);
+        if (type != null) {
+            return type;
         }
         throw new IllegalArgumentException("Could not find a native PrimitivePersistentDataType for key " + key +
                 " in PersistentDataContainer " + pdc + ". Available native datatypes are " + String.join(", ", NATIVE_PRIMITIVE_PERSISTENT_DATA_TYPES_BY_NAME.keySet()));
     }
 
+    /**
+     * Clears the remembered types used by {@link #getPrimitivePersistentDataType(PersistentDataContainer, NamespacedKey)}
+     */
+    public static void clearTypeCache() {
+        TYPE_RESOLVER.clear();
+    }
+
+    /**
+     * Gets the resolver shared by the static methods
+     */
+    @NotNull
+    static PrimitiveTypeResolver getTypeResolver() {
+        return TYPE_RESOLVER;
+    }
+
+    /**
+     * Creates a new resolver for the native types, with its own remembered types and probe order
+     *
+     * @param maxCachedKeys maximum amount of keys whose last type is remembered
+     * @return new PrimitiveTypeResolver
+     */
+    @NotNull
+    static PrimitiveTypeResolver newTypeResolver(final int maxCachedKeys) {
+        return new PrimitiveTypeResolver(NATIVE_PRIMITIVE_PERSISTENT_DATA_TYPES, maxCachedKeys);
+    }
+
+    /**
+     * Sets the options used by all following operations that are not given their own {@link PersistentDataOptions}, i.e.
+     * the static methods of this class and of the other utility classes
+     *
+     * @param options PersistentDataOptions
+     */
+    public static synchronized void setDefaultOptions(@NotNull final PersistentDataOptions options) {
+        PersistentDataSerializer.defaultOptions = Objects.requireNonNull(options, "options cannot be null");
+    }
+
+    /**
+     * Gets the options used by operations that are not given their own {@link PersistentDataOptions}
+     *
+     * @return PersistentDataOptions
+     */
+    @NotNull
+    public static PersistentDataOptions getDefaultOptions() {
+        return defaultOptions;
+    }
+
     /**
      * Serializes a {@link PersistentDataContainer} to a list of maps
      *
@@ -133,37 +220,97 @@ public final class PersistentDataSerializer {
     public static List<Map<?, ?>> toMapList(
             @NotNull final PersistentDataContainer pdc
     ) {
+        return toMapList(pdc, PersistentDataFilter.ALL);
+    }
+
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to a list of maps
+     *
+     * @param pdc    PersistentDataContainer
+     * @param filter PersistentDataFilter
+     * @return serialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new", pure = true)
+    public static List<Map<?, ?>> toMapList(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataFilter filter
+    ) {
+        return toMapList(pdc, filter, false, defaultOptions, TYPE_RESOLVER);
+    }
 
-        Objects.requireNonNull(pdc, "pdc cannot be null");
-        final List<Map<?, ?>> list = new ArrayList<>();
-
-        for (final NamespacedKey key : pdc.getKeys()) {
-
-            final Map<String, Object> map = new LinkedHashMap<>();
-            final PersistentDataType<?, ?> type = getPrimitivePersistentDataType(pdc, key);
-            Object value = pdc.get(key, type);
-            Objects.requireNonNull(value, "value cannot be null");
-
-            if (type.equals(PersistentDataType.TAG_CONTAINER)) {
-                value = toMapList((PersistentDataContainer) value);
-            } else if (type.equals(PersistentDataType.TAG_CONTAINER_ARRAY)) {
-                final PersistentDataContainer[] containers = (PersistentDataContainer[]) value;
-                Objects.requireNonNull(containers, "containers cannot be null");
-                final List<List<Map<?, ?>>> serializedContainers = new ArrayList<>();
-                for (PersistentDataContainer container : containers) {
-                    serializedContainers.add(toMapList(container));
-                }
-                value = serializedContainers;
-            }
+    /**
+     * Serializes a {@link PersistentDataContainer} to an immutable, memory efficient list of maps
+     * <p>
+     * The result has the same structure as {@link #toMapList(PersistentDataContainer)} and can be passed to
+     * {@link #fromMapList(List, PersistentDataContainer)} or saved in a {@link org.bukkit.configuration.file.YamlConfiguration},
+     * but every entry is a fixed size map that only holds its key, type and value, key strings and type names are shared,
+     * and primitive arrays are wrapped in read-only list views instead of being copied. Use it for lists that are kept in
+     * memory, e.g. in caches.
+     *
+     * @param pdc PersistentDataContainer
+     * @return immutable serialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static List<Map<?, ?>> toCompactMapList(
+            @NotNull final PersistentDataContainer pdc
+    ) {
+        return toCompactMapList(pdc, PersistentDataFilter.ALL);
+    }
 
-            map.put("key", key.toString());
-            map.put("type", getNativePersistentDataTypeFieldName(type));
-            map.put("value", value);
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to an immutable,
+     * memory efficient list of maps
+     *
+     * @param pdc    PersistentDataContainer
+     * @param filter PersistentDataFilter
+     * @return immutable serialized PersistentDataContainer
+     * @see #toCompactMapList(PersistentDataContainer)
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new", pure = true)
+    public static List<Map<?, ?>> toCompactMapList(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataFilter filter
+    ) {
+        return toMapList(pdc, filter, true, defaultOptions, TYPE_RESOLVER);
+    }
+
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to a list of maps
+     *
+     * @param pdc      PersistentDataContainer
+     * @param filter   PersistentDataFilter
+     * @param compact  whether to build an immutable {@link CompactMapList}
+     * @param options  PersistentDataOptions
+     * @param resolver PrimitiveTypeResolver
+     * @return serialized PersistentDataContainer
+     */
+    @NotNull
+    static List<Map<?, ?>> toMapList(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataFilter filter,
+            final boolean compact,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) {
 
-            list.add(map);
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
+        final MapListWriter writer = new MapListWriter(compact, options.getArrayEncoding());
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            PersistentDataWalker.walk(pdc, writer, filter, options, resolver);
+            return writer.getResult();
         }
 
-        return list;
+        final long start = System.nanoTime();
+        final CountingVisitor counter = new CountingVisitor(writer);
+        PersistentDataWalker.walk(pdc, counter, filter, options, resolver);
+        final List<Map<?, ?>> result = writer.getResult();
+        recorder.recordOperation(PersistentDataMetrics.Operation.TO_MAP_LIST, System.nanoTime() - start, counter.getEntries(), counter.getMaxDepth(), 0);
+        return result;
     }
 
     /**
@@ -175,43 +322,58 @@ public final class PersistentDataSerializer {
      */
     @NotNull
     @Contract(value = "_, _ -> param2")
-    @SuppressWarnings("unchecked")
     public static PersistentDataContainer fromMapList(
             @NotNull final List<Map<?, ?>> serializedPdc,
             @NotNull final PersistentDataContainer targetPdc
     ) {
+        return fromMapList(serializedPdc, targetPdc, PersistentDataFilter.ALL);
+    }
 
-        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
-        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
-
-        final PersistentDataAdapterContext context = targetPdc.getAdapterContext();
-
-        //final PersistentDataContainer pdc = context.newPersistentDataContainer();
-        for (final Map<?, ?> map : serializedPdc) {
-            final NamespacedKey key = NamespacedKey.fromString((String) map.get("key"));
-
-            Objects.requireNonNull(key, "key cannot be null");
-            Object value = map.get("value");
+    /**
+     * Deserializes the entries of a list of maps that are included by the given filter and saves them to the given target {@link PersistentDataContainer}
+     *
+     * @param serializedPdc serialized PersistentDataContainer
+     * @param targetPdc     target PersistentDataContainer
+     * @param filter        PersistentDataFilter
+     * @return deserialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_, _, _ -> param2")
+    public static PersistentDataContainer fromMapList(
+            @NotNull final List<Map<?, ?>> serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter
+    ) {
+        return fromMapList(serializedPdc, targetPdc, filter, defaultOptions);
+    }
 
-            final PersistentDataType<Object, Object> type =
-                    (PersistentDataType<Object, Object>) getNativePersistentDataTypeByFieldName((String) map.get("type"));
+    /**
+     * Deserializes the entries of a list of maps that are included by the given filter using the given options
+     *
+     * @see #fromMapList(List, PersistentDataContainer, PersistentDataFilter)
+     */
+    @NotNull
+    static PersistentDataContainer fromMapList(
+            @NotNull final List<Map<?, ?>> serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options
+    ) {
 
-            if (type.equals(PersistentDataType.TAG_CONTAINER)) {
-                value = fromMapList((List<Map<?, ?>>) value, context.newPersistentDataContainer());
-            } else if (type.equals(PersistentDataType.TAG_CONTAINER_ARRAY)) {
-                List<List<Map<?, ?>>> serializedContainers = (List<List<Map<?, ?>>>) value;
-                final PersistentDataContainer[] containers = new PersistentDataContainer[serializedContainers.size()];
-                for (int i = 0; i < serializedContainers.size(); i++) {
-                    containers[i] = fromMapList(serializedContainers.get(i), context.newPersistentDataContainer());
-                }
-                value = containers;
-            } else {
-                value = cast(value, type);
-            }
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
 
-            targetPdc.set(key, type, value);
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            MapListReader.read(serializedPdc, new PersistentDataContainerBuilder(targetPdc), filter, options.getTraversalLimits());
+            return targetPdc;
         }
 
+        final long start = System.nanoTime();
+        final CountingVisitor counter = new CountingVisitor(new PersistentDataContainerBuilder(targetPdc));
+        MapListReader.read(serializedPdc, counter, filter, options.getTraversalLimits());
+        recorder.recordOperation(PersistentDataMetrics.Operation.FROM_MAP_LIST, System.nanoTime() - start, counter.getEntries(), counter.getMaxDepth(), 0);
         return targetPdc;
     }
 
@@ -235,85 +397,205 @@ public final class PersistentDataSerializer {
     }
 
     /**
-     * Casts a value to the given {@link PersistentDataType}'s primitive type
+     * Serializes a {@link PersistentDataContainer} to JSON
      *
-     * @param value value to cast
-     * @param type  PersistentDataType
-     * @return casted value
+     * @param pdc PersistentDataContainer
+     * @return JSON string
      */
-    private static Object cast(
-            @Nullable final Object value,
-            @NotNull final PersistentDataType<?, ?> type
+    @Contract(value = "_ -> new", pure = true)
+    @NotNull
+    public static String toJson(
+            @NotNull final PersistentDataContainer pdc
     ) {
-
-        if (value == null) {
-            return null;
-        }
-
-        Objects.requireNonNull(type, "type cannot be null");
-        final Class<?> primitiveType = type.getPrimitiveType();
-
-        if (primitiveType == Float.class) {
-            return ((Number) value).floatValue();
-        } else if (primitiveType == Integer.class) {
-            return ((Number) value).intValue();
-        } else if (primitiveType == Double.class) {
-            return ((Number) value).doubleValue();
-        } else if (primitiveType == Short.class) {
-            return ((Number) value).shortValue();
-        } else if (primitiveType == Byte.class) {
-            if (type.getComplexType() == Boolean.class) {
-                if (value instanceof Byte) {
-                    return ((Byte) value) == 1;
-                } else if (value instanceof Boolean) {
-                    return value;
-                }
-            } else if (value instanceof Boolean) {
-                return (byte) (((Boolean) value) ? 1 : 0);
-            } else if (value instanceof Number) {
-                return ((Number) value).byteValue();
-            }
-        } else if (value instanceof List) {
-            final List<?> list = (List<?>) value;
-            int length = list.size();
-            if (type == PersistentDataType.BYTE_ARRAY) {
-                byte[] arr = new byte[length];
-                for (int i = 0; i < length; i++) {
-                    arr[i] = ((Number) list.get(i)).byteValue();
-                }
-                return arr;
-            } else if (type == PersistentDataType.INTEGER_ARRAY) {
-                int[] arr = new int[length];
-                for (int i = 0; i < length; i++) {
-                    arr[i] = ((Number) list.get(i)).intValue();
-                }
-                return arr;
-            } else if (type == PersistentDataType.LONG_ARRAY) {
-                long[] arr = new long[length];
-                for (int i = 0; i < length; i++) {
-                    arr[i] = ((Number) list.get(i)).longValue();
-                }
-                return arr;
-            } else {
-                throw new IllegalArgumentException("Unknown array type: " + type.getPrimitiveType().getComponentType().getName());
-            }
-        }
-        return value;
+        return toJson(pdc, PersistentDataFilter.ALL);
     }
 
     /**
-     * Serializes a {@link PersistentDataContainer} to JSON
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to JSON
      *
-     * @param pdc PersistentDataContainer
+     * @param pdc    PersistentDataContainer
+     * @param filter PersistentDataFilter
      * @return JSON string
      */
-    @Contract(value = "_ -> new", pure = true)
+    @Contract(value = "_, _ -> new", pure = true)
     @NotNull
     public static String toJson(
-            @NotNull final PersistentDataContainer pdc
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataFilter filter
     ) {
         Objects.requireNonNull(pdc, "pdc cannot be null");
-        return GSON.toJson(toMapList(pdc), LIST_MAP_TYPE_TOKEN.getType());
+        final StringWriter writer = new StringWriter();
+        toJson(pdc, writer, filter);
+        return writer.toString();
+    }
+
+    /**
+     * Serializes a {@link PersistentDataContainer} to JSON and writes it to the given {@link Appendable}, e.g. a {@link Writer}
+     * or {@link StringBuilder}
+     * <p>
+     * The container is written while it is being walked, without building the intermediate list of maps
+     * returned by {@link #toMapList(PersistentDataContainer)}. The output is identical to {@link #toJson(PersistentDataContainer)}.
+     *
+     * @param pdc    PersistentDataContainer
+     * @param output Appendable to write the JSON to
+     * @throws JsonIOException if writing to the output fails
+     */
+    public static void toJson(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final Appendable output
+    ) throws JsonIOException {
+        toJson(pdc, output, PersistentDataFilter.ALL);
+    }
+
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to JSON and writes
+     * it to the given {@link Appendable}
+     *
+     * @param pdc    PersistentDataContainer
+     * @param output Appendable to write the JSON to
+     * @param filter PersistentDataFilter
+     * @throws JsonIOException if writing to the output fails
+     */
+    public static void toJson(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final Appendable output,
+            @NotNull final PersistentDataFilter filter
+    ) throws JsonIOException {
+        toJson(pdc, output, filter, defaultOptions, TYPE_RESOLVER);
+    }
+
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to JSON using the
+     * given options and resolver
+     *
+     * @see #toJson(PersistentDataContainer, Appendable, PersistentDataFilter)
+     */
+    static void toJson(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final Appendable output,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) throws JsonIOException {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(output, "output cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
+
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            writeJson(output, visitor -> PersistentDataWalker.walk(pdc, visitor, filter, options, resolver), options);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final CountingWriter countingOutput = new CountingWriter(output instanceof Writer ? (Writer) output : new JsonPersistentDataWriter.AppendableWriter(output));
+        final CountingVisitor[] counter = new CountingVisitor[1];
+        writeJson(countingOutput, visitor -> {
+            counter[0] = new CountingVisitor(visitor);
+            PersistentDataWalker.walk(pdc, counter[0], filter, options, resolver);
+        }, options);
+        recorder.recordOperation(PersistentDataMetrics.Operation.TO_JSON, System.nanoTime() - start, counter[0].getEntries(), counter[0].getMaxDepth(), countingOutput.count);
+    }
+
+    /**
+     * Writes the entries reported by the given source as JSON to the given {@link Appendable}
+     *
+     * @param output  Appendable to write the JSON to
+     * @param source  reports the entries of a container, or the changes of a delta, to the visitor it is given
+     * @param options PersistentDataOptions
+     * @throws JsonIOException if writing to the output fails
+     */
+    static void writeJson(
+            @NotNull final Appendable output,
+            @NotNull final Consumer<? super PersistentDataDeltaVisitor> source,
+            @NotNull final PersistentDataOptions options
+    ) throws JsonIOException {
+        writeJson(output, source, null, options);
+    }
+
+    /**
+     * Writes the entries reported by the given source as JSON to the given {@link Appendable}
+     *
+     * @param output     Appendable to write the JSON to
+     * @param source     reports the entries of a container, or the changes of a delta, to the visitor it is given
+     * @param keyStrings cache of the keys' string representations, or null to not cache them
+     * @param options    PersistentDataOptions
+     * @throws JsonIOException if writing to the output fails
+     */
+    static void writeJson(
+            @NotNull final Appendable output,
+            @NotNull final Consumer<? super PersistentDataDeltaVisitor> source,
+            @Nullable final Map<NamespacedKey, String> keyStrings,
+            @NotNull final PersistentDataOptions options
+    ) throws JsonIOException {
+        final Writer writer = output instanceof Writer ? (Writer) output : new JsonPersistentDataWriter.AppendableWriter(output);
+        final JsonWriter jsonWriter;
+        try {
+            jsonWriter = GSON.newJsonWriter(writer);
+        } catch (final IOException exception) {
+            throw new JsonIOException(exception);
+        }
+        final JsonPersistentDataWriter jsonPdcWriter = new JsonPersistentDataWriter(jsonWriter, keyStrings, options.getArrayEncoding());
+        jsonPdcWriter.begin();
+        source.accept(jsonPdcWriter);
+        jsonPdcWriter.end();
+    }
+
+    /**
+     * Reads JSON from the given {@link Reader} and reports its entries to the given visitor
+     *
+     * @param reader  Reader to read the JSON from
+     * @param visitor PersistentDataVisitor
+     * @param limits  TraversalLimits to enforce
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    static void readJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final TraversalLimits limits
+    ) throws JsonSyntaxException, JsonIOException {
+        readJson(reader, visitor, PersistentDataFilter.ALL, limits);
+    }
+
+    /**
+     * Reads JSON from the given {@link Reader} and reports the entries included by the given filter to the given visitor
+     *
+     * @param reader  Reader to read the JSON from
+     * @param visitor PersistentDataVisitor
+     * @param filter  PersistentDataFilter
+     * @param limits  TraversalLimits to enforce
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    static void readJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final TraversalLimits limits
+    ) throws JsonSyntaxException, JsonIOException {
+        final JsonReader jsonReader = GSON.newJsonReader(reader);
+        jsonReader.setLenient(true);
+        new JsonPersistentDataReader(jsonReader, visitor, filter, limits).readDocument();
+    }
+
+    /**
+     * Reads a JSON delta from the given {@link Reader} and reports its changes to the given visitor
+     *
+     * @param reader  Reader to read the JSON from
+     * @param visitor PersistentDataDeltaVisitor
+     * @param limits  TraversalLimits to enforce
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    static void readDeltaJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataDeltaVisitor visitor,
+            @NotNull final TraversalLimits limits
+    ) throws JsonSyntaxException, JsonIOException {
+        final JsonReader jsonReader = GSON.newJsonReader(reader);
+        jsonReader.setLenient(true);
+        new JsonPersistentDataReader(jsonReader, visitor, limits).readDeltaDocument();
     }
 
     /**
@@ -333,7 +615,30 @@ public final class PersistentDataSerializer {
 
         Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
         Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
-        return fromMapList(GSON.fromJson(serializedPdc, LIST_MAP_TYPE_TOKEN.getType()), targetPdc);
+        return fromJson(new StringReader(serializedPdc), targetPdc);
+    }
+
+    /**
+     * Deserializes the entries of a JSON serialized {@link PersistentDataContainer} that are included by the given filter and
+     * saves them to the given target {@link PersistentDataContainer}. Excluded entries are skipped without being parsed.
+     *
+     * @param serializedPdc serialized PersistentDataContainer
+     * @param targetPdc     target PersistentDataContainer
+     * @param filter        PersistentDataFilter
+     * @return deserialized PersistentDataContainer
+     * @throws JsonSyntaxException if the JSON is malformed
+     */
+    @Contract(value = "_, _, _ -> param2")
+    @NotNull
+    public static PersistentDataContainer fromJson(
+            @NotNull final String serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter
+    ) throws JsonSyntaxException {
+
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        return fromJson(new StringReader(serializedPdc), targetPdc, filter);
     }
 
     /**
@@ -353,7 +658,465 @@ public final class PersistentDataSerializer {
 
         Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
         Objects.requireNonNull(context, "context cannot be null");
-        return fromMapList(GSON.fromJson(serializedPdc, LIST_MAP_TYPE_TOKEN.getType()), context.newPersistentDataContainer());
+        return fromJson(new StringReader(serializedPdc), context.newPersistentDataContainer());
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from JSON read from the given {@link Reader} and saves it to the given target {@link PersistentDataContainer}
+     * <p>
+     * The JSON is read token by token and every entry is written to the target as soon as it has been read. Numbers are
+     * decoded directly into their primitive type, so that {@link PersistentDataType#LONG} and {@link PersistentDataType#LONG_ARRAY}
+     * values keep their full precision.
+     *
+     * @param reader    Reader to read the serialized PersistentDataContainer from
+     * @param targetPdc target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    @Contract(value = "_, _ -> param2")
+    @NotNull
+    public static PersistentDataContainer fromJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws JsonSyntaxException, JsonIOException {
+        return fromJson(reader, targetPdc, PersistentDataFilter.ALL);
+    }
+
+    /**
+     * Deserializes the entries of a JSON serialized {@link PersistentDataContainer} read from the given {@link Reader} that
+     * are included by the given filter and saves them to the given target {@link PersistentDataContainer}. Excluded entries
+     * are skipped token by token without being parsed.
+     *
+     * @param reader    Reader to read the serialized PersistentDataContainer from
+     * @param targetPdc target PersistentDataContainer
+     * @param filter    PersistentDataFilter
+     * @return deserialized PersistentDataContainer
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    @Contract(value = "_, _, _ -> param2")
+    @NotNull
+    public static PersistentDataContainer fromJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter
+    ) throws JsonSyntaxException, JsonIOException {
+        return fromJson(reader, targetPdc, filter, defaultOptions);
+    }
+
+    /**
+     * Deserializes the entries of a JSON serialized {@link PersistentDataContainer} that are included by the given filter
+     * using the given options
+     *
+     * @see #fromJson(Reader, PersistentDataContainer, PersistentDataFilter)
+     */
+    @NotNull
+    static PersistentDataContainer fromJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options
+    ) throws JsonSyntaxException, JsonIOException {
+
+        Objects.requireNonNull(reader, "reader cannot be null");
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
+
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            readJson(reader, new PersistentDataContainerBuilder(targetPdc), filter, options.getTraversalLimits());
+            return targetPdc;
+        }
+
+        final long start = System.nanoTime();
+        final CountingReader countingReader = new CountingReader(reader);
+        final CountingVisitor counter = new CountingVisitor(new PersistentDataContainerBuilder(targetPdc));
+        readJson(countingReader, counter, filter, options.getTraversalLimits());
+        recorder.recordOperation(PersistentDataMetrics.Operation.FROM_JSON, System.nanoTime() - start, counter.getEntries(), counter.getMaxDepth(), countingReader.count);
+        return targetPdc;
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from JSON read from the given {@link Reader} and saves it to a new {@link PersistentDataContainer} created in the given context
+     *
+     * @param reader  Reader to read the serialized PersistentDataContainer from
+     * @param context PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainer
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     * @see #fromJson(Reader, PersistentDataContainer)
+     */
+    @Contract(value = "_, _ -> new")
+    @NotNull
+    public static PersistentDataContainer fromJson(
+            @NotNull final Reader reader,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws JsonSyntaxException, JsonIOException {
+
+        Objects.requireNonNull(reader, "reader cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+        return fromJson(reader, context.newPersistentDataContainer());
+    }
+
+    /**
+     * Serializes a {@link PersistentDataContainer} to a compact binary representation
+     * <p>
+     * Types are written as one byte tags, numbers and lengths as varints and primitive arrays as raw bytes. Every namespace
+     * and key is only written once per payload, later occurrences refer back to it.
+     *
+     * @param pdc PersistentDataContainer
+     * @return serialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static byte[] toBytes(
+            @NotNull final PersistentDataContainer pdc
+    ) {
+        return toBytes(pdc, PersistentDataFilter.ALL);
+    }
+
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to the binary representation
+     *
+     * @param pdc    PersistentDataContainer
+     * @param filter PersistentDataFilter
+     * @return serialized PersistentDataContainer
+     * @see #toBytes(PersistentDataContainer)
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new", pure = true)
+    public static byte[] toBytes(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataFilter filter
+    ) {
+        return toBytes(pdc, filter, defaultOptions, TYPE_RESOLVER);
+    }
+
+    /**
+     * Serializes the entries of a {@link PersistentDataContainer} that are included by the given filter to the binary
+     * representation using the given options and resolver
+     *
+     * @see #toBytes(PersistentDataContainer, PersistentDataFilter)
+     */
+    @NotNull
+    static byte[] toBytes(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
+
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            return writeBytes(visitor -> PersistentDataWalker.walk(pdc, visitor, filter, options, resolver));
+        }
+
+        final long start = System.nanoTime();
+        final CountingVisitor[] counter = new CountingVisitor[1];
+        final byte[] bytes = writeBytes(visitor -> {
+            counter[0] = new CountingVisitor(visitor);
+            PersistentDataWalker.walk(pdc, counter[0], filter, options, resolver);
+        });
+        recorder.recordOperation(PersistentDataMetrics.Operation.TO_BYTES, System.nanoTime() - start, counter[0].getEntries(), counter[0].getMaxDepth(), bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Writes the entries reported by the given source in the binary format
+     *
+     * @param source reports the entries of a container to the visitor it is given
+     * @return binary payload
+     */
+    @NotNull
+    static byte[] writeBytes(@NotNull final Consumer<PersistentDataVisitor> source) {
+        final BinaryPersistentDataWriter writer = new BinaryPersistentDataWriter();
+        writer.begin();
+        source.accept(writer);
+        writer.end();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from its binary representation and saves it to the given target {@link PersistentDataContainer}
+     *
+     * @param serializedPdc serialized PersistentDataContainer, as returned by {@link #toBytes(PersistentDataContainer)}
+     * @param targetPdc     target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> param2")
+    public static PersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws IllegalArgumentException {
+        return fromBytes(serializedPdc, targetPdc, PersistentDataFilter.ALL);
+    }
+
+    /**
+     * Deserializes the entries of a binary serialized {@link PersistentDataContainer} that are included by the given filter
+     * and saves them to the given target {@link PersistentDataContainer}. Excluded entries are skipped without being decoded.
+     *
+     * @param serializedPdc serialized PersistentDataContainer, as returned by {@link #toBytes(PersistentDataContainer)}
+     * @param targetPdc     target PersistentDataContainer
+     * @param filter        PersistentDataFilter
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _, _ -> param2")
+    public static PersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter
+    ) throws IllegalArgumentException {
+        return fromBytes(serializedPdc, targetPdc, filter, defaultOptions);
+    }
+
+    /**
+     * Deserializes the entries of a binary serialized {@link PersistentDataContainer} that are included by the given
+     * filter using the given options
+     *
+     * @see #fromBytes(byte[], PersistentDataContainer, PersistentDataFilter)
+     */
+    @NotNull
+    static PersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
+
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            new BinaryPersistentDataReader(serializedPdc).readPayload(new PersistentDataContainerBuilder(targetPdc), filter, options.getTraversalLimits());
+            return targetPdc;
+        }
+
+        final long start = System.nanoTime();
+        final CountingVisitor counter = new CountingVisitor(new PersistentDataContainerBuilder(targetPdc));
+        new BinaryPersistentDataReader(serializedPdc).readPayload(counter, filter, options.getTraversalLimits());
+        recorder.recordOperation(PersistentDataMetrics.Operation.FROM_BYTES, System.nanoTime() - start, counter.getEntries(), counter.getMaxDepth(), serializedPdc.length);
+        return targetPdc;
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from its binary representation and saves it to a new {@link PersistentDataContainer} created in the given context
+     *
+     * @param serializedPdc serialized PersistentDataContainer, as returned by {@link #toBytes(PersistentDataContainer)}
+     * @param context       PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static PersistentDataContainer fromBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(serializedPdc, "serializedPdc cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+        return fromBytes(serializedPdc, context.newPersistentDataContainer());
+    }
+
+    /**
+     * Calculates a 64 bit structural hash of a {@link PersistentDataContainer}, including nested containers. Containers with
+     * the same entries have the same hash, regardless of the order of their keys. Nothing is serialized, so this is much
+     * cheaper than comparing the serialized forms, e.g. to skip saving containers that have not changed.
+     *
+     * @param pdc PersistentDataContainer
+     * @return structural hash
+     * @see PersistentDataPayloadCache
+     */
+    public static long hash(@NotNull final PersistentDataContainer pdc) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        return hash(pdc, defaultOptions, TYPE_RESOLVER);
+    }
+
+    /**
+     * Calculates the structural hash of a {@link PersistentDataContainer} using the given options and resolver
+     *
+     * @see #hash(PersistentDataContainer)
+     */
+    static long hash(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) {
+        final HashingVisitor visitor = new HashingVisitor();
+        PersistentDataWalker.walk(pdc, visitor, PersistentDataFilter.ALL, options, resolver);
+        return visitor.getHash();
+    }
+
+    /**
+     * Serializes a {@link PersistentDataContainer} to its binary representation and writes it to the given {@link OutputStream}.
+     * The stream is not closed.
+     *
+     * @param pdc PersistentDataContainer
+     * @param out OutputStream
+     * @throws IOException if writing to the stream fails
+     * @see #toBytes(PersistentDataContainer)
+     */
+    public static void toBytes(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final OutputStream out
+    ) throws IOException {
+        toBytes(pdc, out, defaultOptions, TYPE_RESOLVER);
+    }
+
+    /**
+     * Serializes a {@link PersistentDataContainer} to its binary representation and writes it to the given
+     * {@link OutputStream} using the given options and resolver
+     *
+     * @see #toBytes(PersistentDataContainer, OutputStream)
+     */
+    static void toBytes(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final OutputStream out,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) throws IOException {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(out, "out cannot be null");
+        final BinaryPersistentDataWriter writer = new BinaryPersistentDataWriter();
+        final PersistentDataMetrics recorder = options.getMetrics();
+        if (!recorder.isEnabled()) {
+            writer.begin();
+            PersistentDataWalker.walk(pdc, writer, PersistentDataFilter.ALL, options, resolver);
+            writer.end();
+            writer.writeTo(out);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final CountingVisitor counter = new CountingVisitor(writer);
+        writer.begin();
+        PersistentDataWalker.walk(pdc, counter, PersistentDataFilter.ALL, options, resolver);
+        writer.end();
+        writer.writeTo(out);
+        recorder.recordOperation(PersistentDataMetrics.Operation.TO_BYTES, System.nanoTime() - start, counter.getEntries(), counter.getMaxDepth(), writer.size());
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from its binary representation read from the given {@link InputStream}
+     * and saves it to the given target {@link PersistentDataContainer}. The stream is read until its end, but not closed.
+     *
+     * @param in        InputStream
+     * @param targetPdc target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws IOException              if reading from the stream fails
+     * @throws IllegalArgumentException if the data is malformed or longer than 64 MiB
+     */
+    @NotNull
+    @Contract(value = "_, _ -> param2")
+    public static PersistentDataContainer fromBytes(
+            @NotNull final InputStream in,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws IOException, IllegalArgumentException {
+        Objects.requireNonNull(in, "in cannot be null");
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        return fromBytes(readFully(in), targetPdc);
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from its binary representation read from the given {@link InputStream}
+     * and saves it to a new {@link PersistentDataContainer} created in the given context. The stream is read until its end, but not closed.
+     *
+     * @param in      InputStream
+     * @param context PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainer
+     * @throws IOException              if reading from the stream fails
+     * @throws IllegalArgumentException if the data is malformed or longer than 64 MiB
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static PersistentDataContainer fromBytes(
+            @NotNull final InputStream in,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IOException, IllegalArgumentException {
+        Objects.requireNonNull(in, "in cannot be null");
+        Objects.requireNonNull(context, "context cannot be null");
+        return fromBytes(readFully(in), context.newPersistentDataContainer());
+    }
+
+    /**
+     * Serializes a {@link PersistentDataContainer} to its binary representation and compresses it using {@link PersistentDataCompression}
+     *
+     * @param pdc PersistentDataContainer
+     * @return compressed serialized PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static byte[] toCompressedBytes(
+            @NotNull final PersistentDataContainer pdc
+    ) {
+        return PersistentDataCompression.compress(toBytes(pdc));
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from its compressed binary representation and saves it to the given target {@link PersistentDataContainer}
+     *
+     * @param serializedPdc compressed serialized PersistentDataContainer, as returned by {@link #toCompressedBytes(PersistentDataContainer)}
+     * @param targetPdc     target PersistentDataContainer
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed or decompresses to more than
+     *                                  {@link PersistentDataCompression#DEFAULT_MAX_DECOMPRESSED_SIZE} bytes
+     */
+    @NotNull
+    @Contract(value = "_, _ -> param2")
+    public static PersistentDataContainer fromCompressedBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataContainer targetPdc
+    ) throws IllegalArgumentException {
+        return fromBytes(PersistentDataCompression.decompress(serializedPdc), targetPdc);
+    }
+
+    /**
+     * Deserializes a {@link PersistentDataContainer} from its compressed binary representation and saves it to a new {@link PersistentDataContainer} created in the given context
+     *
+     * @param serializedPdc compressed serialized PersistentDataContainer, as returned by {@link #toCompressedBytes(PersistentDataContainer)}
+     * @param context       PersistentDataAdapterContext
+     * @return deserialized PersistentDataContainer
+     * @throws IllegalArgumentException if the data is malformed or decompresses to more than
+     *                                  {@link PersistentDataCompression#DEFAULT_MAX_DECOMPRESSED_SIZE} bytes
+     */
+    @NotNull
+    @Contract(value = "_, _ -> new")
+    public static PersistentDataContainer fromCompressedBytes(
+            @NotNull final byte[] serializedPdc,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IllegalArgumentException {
+        Objects.requireNonNull(context, "context cannot be null");
+        return fromBytes(PersistentDataCompression.decompress(serializedPdc), context.newPersistentDataContainer());
+    }
+
+    /**
+     * Reads all remaining bytes from the given {@link InputStream}
+     *
+     * @throws IllegalArgumentException if the stream contains more than {@link #MAX_STREAM_PAYLOAD_SIZE} bytes
+     */
+    @NotNull
+    private static byte[] readFully(@NotNull final InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length > MAX_STREAM_PAYLOAD_SIZE) {
+                throw new IllegalArgumentException("Payload exceeds the maximum size of " + MAX_STREAM_PAYLOAD_SIZE + " bytes");
+            }
+            if (length == buffer.length) {
+                // One more byte than allowed, so that exceeding the limit can be detected
+                buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length << 1, MAX_STREAM_PAYLOAD_SIZE + 1L));
+            }
+        }
+        return Arrays.copyOf(buffer, length);
     }
 
     /**
@@ -364,7 +1127,7 @@ public final class PersistentDataSerializer {
      * @throws IllegalArgumentException if no native PersistentDataType was found with the given field name
      */
     @NotNull
-    private static PersistentDataType<?, ?> getNativePersistentDataTypeByFieldName(
+    static PersistentDataType<?, ?> getNativePersistentDataTypeByFieldName(
             @NotNull final String fieldName
     ) throws IllegalArgumentException {
 
@@ -376,6 +1139,19 @@ public final class PersistentDataSerializer {
         return type;
     }
 
+    /**
+     * Gets a native {@link PersistentDataType} by its field name, or null if no native PersistentDataType has the given field name
+     *
+     * @param fieldName field name
+     * @return native PersistentDataType or null
+     */
+    @Nullable
+    static PersistentDataType<?, ?> findNativePersistentDataTypeByFieldName(
+            @NotNull final String fieldName
+    ) {
+        return NATIVE_PRIMITIVE_PERSISTENT_DATA_TYPES_BY_NAME.get(Objects.requireNonNull(fieldName, "fieldName cannot be null"));
+    }
+
     /**
      * Gets the field name for the given native {@link PersistentDataType}
      *
@@ -384,7 +1160,7 @@ public final class PersistentDataSerializer {
      * @throws IllegalArgumentException if the given PersistentDataType is not native and therefore does not have a field name
      */
     @NotNull
-    private static String getNativePersistentDataTypeFieldName(
+    static String getNativePersistentDataTypeFieldName(
             @NotNull final PersistentDataType<?, ?> type
     ) throws IllegalArgumentException {
 
@@ -400,4 +1176,71 @@ public final class PersistentDataSerializer {
         return name;
     }
 
+    /**
+     * {@link Writer} that counts the chars written to another Writer. Being a Writer itself, it is written to in bulk
+     * instead of char by char.
+     */
+    private static final class CountingWriter extends FilterWriter {
+
+        private long count;
+
+        private CountingWriter(@NotNull final Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            super.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(@NotNull final char[] buffer, final int offset, final int length) throws IOException {
+            super.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void write(@NotNull final String string, final int offset, final int length) throws IOException {
+            super.write(string, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The writer is owned by the caller
+            flush();
+        }
+    }
+
+    /**
+     * {@link Reader} that counts the chars read from another Reader
+     */
+    private static final class CountingReader extends FilterReader {
+
+        private long count;
+
+        private CountingReader(@NotNull final Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c != -1) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(@NotNull final char[] buffer, final int offset, final int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
 }
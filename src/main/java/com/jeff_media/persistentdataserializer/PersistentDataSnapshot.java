@@ -0,0 +1,584 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable copy of the contents of a {@link PersistentDataContainer}
+ * <p>
+ * Bukkit's PersistentDataContainers may only be accessed on the main thread. Capturing a snapshot is cheap, and once
+ * captured, the snapshot no longer depends on the container and can be serialized on any thread. The other way around,
+ * a snapshot can be deserialized on any thread and then applied to a PersistentDataContainer on the main thread.
+ * <pre>{@code
+ * PersistentDataSnapshot.capture(pdc).toBytesAsync(executor).thenAccept(bytes -> ...);
+ *
+ * PersistentDataSnapshot.fromBytesAsync(bytes, executor).thenAccept(snapshot -> {
+ *     // back on the main thread
+ *     snapshot.applyTo(pdc);
+ * });
+ * }</pre>
+ */
+public final class PersistentDataSnapshot {
+
+    private static final int CLOSE_NONE = 0;
+    private static final int CLOSE_CONTAINER = 1;
+    private static final int CLOSE_ARRAY_ELEMENT = 2;
+
+    private static final PersistentDataSnapshot EMPTY = new PersistentDataSnapshot(new NamespacedKey[0], new PersistentDataType<?, ?>[0], new Object[0]);
+
+    private final NamespacedKey[] keys;
+    private final PersistentDataType<?, ?>[] types;
+
+    /**
+     * Values indexed like {@link #keys}. Nested containers are stored as {@link PersistentDataSnapshot}, container arrays
+     * as {@link PersistentDataSnapshot}[] and primitive arrays as private copies.
+     */
+    private final Object[] values;
+
+    private PersistentDataSnapshot(
+            @NotNull final NamespacedKey[] keys,
+            @NotNull final PersistentDataType<?, ?>[] types,
+            @NotNull final Object[] values
+    ) {
+        this.keys = keys;
+        this.types = types;
+        this.values = values;
+    }
+
+    /**
+     * Copies the contents of the given {@link PersistentDataContainer}, including nested containers. Must be called on a
+     * thread that is allowed to access the container.
+     *
+     * @param pdc PersistentDataContainer
+     * @return snapshot
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static PersistentDataSnapshot capture(@NotNull final PersistentDataContainer pdc) {
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        final Builder builder = new Builder();
+        PersistentDataWalker.walk(pdc, builder, PersistentDataSerializer.getDefaultOptions());
+        return builder.build();
+    }
+
+    /**
+     * Gets an empty snapshot
+     *
+     * @return empty snapshot
+     */
+    @NotNull
+    public static PersistentDataSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Deserializes a snapshot from JSON, as produced by {@link #toJson()} or {@link PersistentDataSerializer#toJson(PersistentDataContainer)}
+     *
+     * @param json JSON
+     * @return snapshot
+     * @throws JsonSyntaxException if the JSON is malformed
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static PersistentDataSnapshot fromJson(@NotNull final String json) throws JsonSyntaxException {
+        Objects.requireNonNull(json, "json cannot be null");
+        return fromJson(new StringReader(json));
+    }
+
+    /**
+     * Deserializes a snapshot from JSON read from the given {@link Reader}
+     *
+     * @param reader Reader to read the JSON from
+     * @return snapshot
+     * @throws JsonSyntaxException if the JSON is malformed
+     * @throws JsonIOException     if reading from the reader fails
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public static PersistentDataSnapshot fromJson(@NotNull final Reader reader) throws JsonSyntaxException, JsonIOException {
+        Objects.requireNonNull(reader, "reader cannot be null");
+        final Builder builder = new Builder();
+        PersistentDataSerializer.readJson(reader, builder, PersistentDataSerializer.getDefaultOptions().getTraversalLimits());
+        return builder.build();
+    }
+
+    /**
+     * Deserializes a snapshot from the binary format, as produced by {@link #toBytes()} or {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}
+     *
+     * @param bytes binary payload
+     * @return snapshot
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static PersistentDataSnapshot fromBytes(@NotNull final byte[] bytes) throws IllegalArgumentException {
+        Objects.requireNonNull(bytes, "bytes cannot be null");
+        final Builder builder = new Builder();
+        new BinaryPersistentDataReader(bytes).readPayload(builder, PersistentDataSerializer.getDefaultOptions().getTraversalLimits());
+        return builder.build();
+    }
+
+    /**
+     * Deserializes a snapshot from JSON on the given executor
+     *
+     * @param json     JSON
+     * @param executor Executor to deserialize on
+     * @return future that completes with the snapshot
+     * @see #fromJson(String)
+     */
+    @NotNull
+    public static CompletableFuture<PersistentDataSnapshot> fromJsonAsync(
+            @NotNull final String json,
+            @NotNull final Executor executor
+    ) {
+        Objects.requireNonNull(json, "json cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+        return CompletableFuture.supplyAsync(() -> fromJson(json), executor);
+    }
+
+    /**
+     * Deserializes a snapshot from the binary format on the given executor
+     *
+     * @param bytes    binary payload
+     * @param executor Executor to deserialize on
+     * @return future that completes with the snapshot
+     * @see #fromBytes(byte[])
+     */
+    @NotNull
+    public static CompletableFuture<PersistentDataSnapshot> fromBytesAsync(
+            @NotNull final byte[] bytes,
+            @NotNull final Executor executor
+    ) {
+        Objects.requireNonNull(bytes, "bytes cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+        return CompletableFuture.supplyAsync(() -> fromBytes(bytes), executor);
+    }
+
+    /**
+     * Gets the keys of this snapshot, in the order they were captured
+     *
+     * @return unmodifiable list of keys
+     */
+    @NotNull
+    public List<NamespacedKey> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * Gets the amount of entries in this snapshot, not counting the entries of nested containers
+     *
+     * @return amount of entries
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Checks whether this snapshot contains no entries
+     *
+     * @return true if this snapshot is empty
+     */
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * Gets the native {@link PersistentDataType} of the given key
+     *
+     * @param key NamespacedKey
+     * @return native PersistentDataType, or null if this snapshot does not contain the key
+     */
+    @Nullable
+    public PersistentDataType<?, ?> getType(@NotNull final NamespacedKey key) {
+        final int index = indexOf(key);
+        return index == -1 ? null : types[index];
+    }
+
+    /**
+     * Gets the value of the given key. Values of {@link PersistentDataType#TAG_CONTAINER} entries are returned as
+     * PersistentDataSnapshot, values of {@link PersistentDataType#TAG_CONTAINER_ARRAY} entries as PersistentDataSnapshot[].
+     * Arrays are copies.
+     *
+     * @param key NamespacedKey
+     * @return value, or null if this snapshot does not contain the key
+     */
+    @Nullable
+    public Object get(@NotNull final NamespacedKey key) {
+        final int index = indexOf(key);
+        if (index == -1) {
+            return null;
+        }
+        final Object value = values[index];
+        return value instanceof PersistentDataSnapshot[] ? ((PersistentDataSnapshot[]) value).clone() : copyValue(value);
+    }
+
+    /**
+     * Writes the contents of this snapshot into the given {@link PersistentDataContainer}. Must be called on a thread
+     * that is allowed to access the container.
+     *
+     * @param targetPdc target PersistentDataContainer
+     * @return the target PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> param1")
+    public PersistentDataContainer applyTo(@NotNull final PersistentDataContainer targetPdc) {
+        Objects.requireNonNull(targetPdc, "targetPdc cannot be null");
+        accept(new PersistentDataContainerBuilder(targetPdc));
+        return targetPdc;
+    }
+
+    /**
+     * Writes the contents of this snapshot into a new {@link PersistentDataContainer} created in the given context
+     *
+     * @param context PersistentDataAdapterContext
+     * @return new PersistentDataContainer
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public PersistentDataContainer toContainer(@NotNull final PersistentDataAdapterContext context) {
+        Objects.requireNonNull(context, "context cannot be null");
+        return applyTo(context.newPersistentDataContainer());
+    }
+
+    /**
+     * Serializes this snapshot to JSON, like {@link PersistentDataSerializer#toJson(PersistentDataContainer)}
+     *
+     * @return JSON string
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder();
+        toJson(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Serializes this snapshot to JSON and writes it to the given {@link Appendable}
+     *
+     * @param output Appendable to write the JSON to
+     * @throws JsonIOException if writing to the output fails
+     */
+    public void toJson(@NotNull final Appendable output) throws JsonIOException {
+        Objects.requireNonNull(output, "output cannot be null");
+        PersistentDataSerializer.writeJson(output, this::accept, PersistentDataSerializer.getDefaultOptions());
+    }
+
+    /**
+     * Serializes this snapshot to the binary format, like {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}
+     *
+     * @return binary payload
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public byte[] toBytes() {
+        return PersistentDataSerializer.writeBytes(this::accept);
+    }
+
+    /**
+     * Serializes this snapshot to a list of maps, like {@link PersistentDataSerializer#toMapList(PersistentDataContainer)}
+     *
+     * @return list of maps
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public List<Map<?, ?>> toMapList() {
+        final MapListWriter writer = new MapListWriter(false, PersistentDataSerializer.getDefaultOptions().getArrayEncoding());
+        accept(writer);
+        return writer.getResult();
+    }
+
+    /**
+     * Serializes this snapshot to JSON on the given executor
+     *
+     * @param executor Executor to serialize on
+     * @return future that completes with the JSON string
+     */
+    @NotNull
+    public CompletableFuture<String> toJsonAsync(@NotNull final Executor executor) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        return CompletableFuture.supplyAsync(this::toJson, executor);
+    }
+
+    /**
+     * Serializes this snapshot to the binary format on the given executor
+     *
+     * @param executor Executor to serialize on
+     * @return future that completes with the binary payload
+     */
+    @NotNull
+    public CompletableFuture<byte[]> toBytesAsync(@NotNull final Executor executor) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        return CompletableFuture.supplyAsync(this::toBytes, executor);
+    }
+
+    /**
+     * Serializes this snapshot to a list of maps on the given executor
+     *
+     * @param executor Executor to serialize on
+     * @return future that completes with the list of maps
+     */
+    @NotNull
+    public CompletableFuture<List<Map<?, ?>>> toMapListAsync(@NotNull final Executor executor) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        return CompletableFuture.supplyAsync(this::toMapList, executor);
+    }
+
+    /**
+     * Reports all entries of this snapshot to the given visitor, in the order they were captured
+     * <p>
+     * Nested snapshots are tracked on an explicit stack instead of the call stack, so that deeply nested snapshots cannot
+     * cause a {@link StackOverflowError}.
+     *
+     * @param visitor PersistentDataVisitor
+     */
+    void accept(@NotNull final PersistentDataVisitor visitor) {
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(this, CLOSE_NONE));
+
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            if (frame.elements != null) {
+                if (frame.index < frame.elements.length) {
+                    visitor.enterArrayElement();
+                    stack.push(new Frame(frame.elements[frame.index++], CLOSE_ARRAY_ELEMENT));
+                } else {
+                    stack.pop();
+                    visitor.exitContainerArray();
+                }
+                continue;
+            }
+            final PersistentDataSnapshot snapshot = frame.snapshot;
+            if (frame.index == snapshot.keys.length) {
+                stack.pop();
+                if (frame.close == CLOSE_CONTAINER) {
+                    visitor.exitContainer();
+                } else if (frame.close == CLOSE_ARRAY_ELEMENT) {
+                    visitor.exitArrayElement();
+                }
+                continue;
+            }
+
+            final int i = frame.index++;
+            final Object value = snapshot.values[i];
+            if (value instanceof PersistentDataSnapshot) {
+                visitor.enterContainer(snapshot.keys[i]);
+                stack.push(new Frame((PersistentDataSnapshot) value, CLOSE_CONTAINER));
+            } else if (value instanceof PersistentDataSnapshot[]) {
+                visitor.enterContainerArray(snapshot.keys[i]);
+                stack.push(new Frame((PersistentDataSnapshot[]) value));
+            } else {
+                visitor.visit(snapshot.keys[i], snapshot.types[i], value);
+            }
+        }
+    }
+
+    @NotNull
+    NamespacedKey getKeyAt(final int index) {
+        return keys[index];
+    }
+
+    @NotNull
+    PersistentDataType<?, ?> getTypeAt(final int index) {
+        return types[index];
+    }
+
+    /**
+     * Gets the value at the given index without copying it
+     */
+    @NotNull
+    Object getValueAt(final int index) {
+        return values[index];
+    }
+
+    int indexOf(@NotNull final NamespacedKey key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a private copy of primitive arrays, so that later changes to the original array cannot affect the snapshot
+     */
+    @NotNull
+    private static Object copyValue(@NotNull final Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        } else if (value instanceof int[]) {
+            return ((int[]) value).clone();
+        } else if (value instanceof long[]) {
+            return ((long[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * A snapshot whose entries, or a container array whose elements, are currently being reported
+     */
+    private static final class Frame {
+
+        @Nullable
+        private final PersistentDataSnapshot snapshot;
+        @Nullable
+        private final PersistentDataSnapshot[] elements;
+        private final int close;
+        private int index;
+
+        private Frame(@NotNull final PersistentDataSnapshot snapshot, final int close) {
+            this.snapshot = snapshot;
+            this.elements = null;
+            this.close = close;
+        }
+
+        private Frame(@NotNull final PersistentDataSnapshot[] elements) {
+            this.snapshot = null;
+            this.elements = elements;
+            this.close = CLOSE_NONE;
+        }
+    }
+
+    /**
+     * {@link PersistentDataVisitor} that builds a {@link PersistentDataSnapshot}
+     */
+    static final class Builder implements PersistentDataVisitor {
+
+        private final Deque<Level> stack = new ArrayDeque<>();
+
+        Builder() {
+            stack.push(new Level(null));
+        }
+
+        /**
+         * Builds the snapshot of the top level container
+         *
+         * @return snapshot
+         */
+        @NotNull
+        PersistentDataSnapshot build() {
+            if (stack.size() != 1) {
+                throw new IllegalStateException("Not all nested containers have been exited");
+            }
+            return stack.peek().toSnapshot();
+        }
+
+        @Override
+        public void visit(
+                @NotNull final NamespacedKey key,
+                @NotNull final PersistentDataType<?, ?> type,
+                @NotNull final Object value
+        ) {
+            stack.peek().add(NamespacedKeyCache.intern(key), type, copyValue(value));
+        }
+
+        @Override
+        public void enterContainer(@NotNull final NamespacedKey key) {
+            stack.push(new Level(NamespacedKeyCache.intern(key)));
+        }
+
+        @Override
+        public void exitContainer() {
+            final Level level = stack.pop();
+            stack.peek().add(level.key, PersistentDataType.TAG_CONTAINER, level.toSnapshot());
+        }
+
+        @Override
+        public void enterContainerArray(@NotNull final NamespacedKey key) {
+            final Level level = new Level(NamespacedKeyCache.intern(key));
+            level.elements = new ArrayList<>();
+            stack.push(level);
+        }
+
+        @Override
+        public void enterArrayElement() {
+            stack.push(new Level(null));
+        }
+
+        @Override
+        public void exitArrayElement() {
+            final PersistentDataSnapshot element = stack.pop().toSnapshot();
+            Objects.requireNonNull(stack.peek().elements, "not inside a container array").add(element);
+        }
+
+        @Override
+        public void exitContainerArray() {
+            final Level level = stack.pop();
+            stack.peek().add(level.key, PersistentDataType.TAG_CONTAINER_ARRAY, level.elements.toArray(new PersistentDataSnapshot[0]));
+        }
+
+        /**
+         * Entries of a container that is currently being captured
+         */
+        private static final class Level {
+
+            private final NamespacedKey key;
+            private final List<NamespacedKey> keys = new ArrayList<>();
+            private final List<PersistentDataType<?, ?>> types = new ArrayList<>();
+            private final List<Object> values = new ArrayList<>();
+            private List<PersistentDataSnapshot> elements;
+
+            private Level(final NamespacedKey key) {
+                this.key = key;
+            }
+
+            private void add(
+                    @NotNull final NamespacedKey key,
+                    @NotNull final PersistentDataType<?, ?> type,
+                    @NotNull final Object value
+            ) {
+                keys.add(key);
+                types.add(type);
+                values.add(value);
+            }
+
+            @NotNull
+            private PersistentDataSnapshot toSnapshot() {
+                return new PersistentDataSnapshot(
+                        keys.toArray(new NamespacedKey[0]),
+                        types.toArray(new PersistentDataType<?, ?>[0]),
+                        values.toArray());
+            }
+        }
+    }
+
+}
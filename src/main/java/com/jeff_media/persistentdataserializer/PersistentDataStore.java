@@ -0,0 +1,1090 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped file that stores serialized {@link PersistentDataContainer}s by id
+ * <p>
+ * Every {@link #put(UUID, PersistentDataContainer)} appends a record containing the container in the format of
+ * {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}, and every {@link #remove(UUID)} appends a tombstone.
+ * An in-memory index maps each id to the position of its latest record, so reading a container only decodes that one record.
+ * The index is rebuilt by scanning the file when the store is opened. If the last record is incomplete or corrupt, e.g.
+ * after a crash, it is cut off. A corrupt record that is followed by a valid record is not cut off, as that would lose
+ * all the records after it. Opening the store fails instead. The length of every record is covered by its own checksum,
+ * so a damaged length cannot make a record in the middle of the file look like the last one.
+ * <p>
+ * Writes go to the operating system immediately, but are only forced to the disk by {@link #sync()}, {@link #close()}
+ * or periodically when a sync interval is configured, so that many writes share one fsync. If forcing the writes to the
+ * disk fails, the operating system may already have discarded them, so a later fsync could succeed although the data
+ * never reached the disk. The store is therefore marked as failed, and every later write, sync, compaction or close
+ * throws an {@link IOException}. Records that have been overwritten or removed stay in the file until it is compacted
+ * using {@link #compact()}, which can happen in the background while the store is in use.
+ * <p>
+ * All methods are thread safe.
+ * <pre>{@code
+ * try (PersistentDataStore store = PersistentDataStore.builder(path).syncInterval(1, TimeUnit.SECONDS).open()) {
+ *     store.put(player.getUniqueId(), player.getPersistentDataContainer());
+ *     PersistentDataContainer pdc = store.get(player.getUniqueId(), context);
+ * }
+ * }</pre>
+ */
+public final class PersistentDataStore implements Closeable {
+
+    private static final int MAGIC = 0x50445354;
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    /**
+     * Payload length, CRC32 of the length, type and id, CRC32 of the type, id and payload, record type and id
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 1 + 16;
+
+    /**
+     * Offset of the record type inside the record header. The type and id are covered by both checksums.
+     */
+    private static final int RECORD_TYPE_OFFSET = 12;
+
+    /**
+     * Size of the chunks read while looking for valid records after a corrupt one
+     */
+    private static final int SCAN_CHUNK_SIZE = 1 << 16;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    /**
+     * Size of the regions the file is mapped in. Records that span two regions are read without the mapping.
+     */
+    private static final long REGION_SIZE = 1L << 30;
+
+    /**
+     * Minimum amount of bytes appended to a region before it is mapped again, smaller growth is read without the mapping
+     */
+    private static final long REMAP_THRESHOLD = 1L << 24;
+
+    /**
+     * Minimum amount of superseded bytes before the store compacts itself in the background
+     */
+    private static final long MIN_AUTO_COMPACTION_GARBAGE = 1L << 20;
+
+    /**
+     * Windows cannot replace a file that is still mapped, and mappings are only released by the garbage collector, so
+     * compaction could never succeed there if the file was mapped. Windows also cannot open directories to force them.
+     */
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private static final ThreadLocal<PersistentDataEncoder> ENCODERS = ThreadLocal.withInitial(PersistentDataEncoder::new);
+    private static final ThreadLocal<PersistentDataDecoder> DECODERS = ThreadLocal.withInitial(PersistentDataDecoder::new);
+
+    private final Path file;
+    private final double compactionThreshold;
+    private final boolean memoryMapped;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+    private final Object regionLock = new Object();
+    /**
+     * Held while forcing the file outside of {@link #lock}, so that the channel is not replaced or closed meanwhile
+     */
+    private final Object syncLock = new Object();
+    /**
+     * Replaced as a whole by {@link #compact()}, so that lookups never see a partially rebuilt index
+     */
+    private volatile Map<UUID, Long> index = new ConcurrentHashMap<>();
+    private final Set<UUID> ids = new IdSet();
+    @Nullable
+    private final ScheduledExecutorService scheduler;
+
+    private FileChannel channel;
+    private MappedByteBuffer[] regions = new MappedByteBuffer[0];
+    private volatile long size;
+    private volatile long garbage;
+    /**
+     * Incremented by every write, guarded by {@link #lock}
+     */
+    private long writeSequence;
+    /**
+     * Sequence number of the latest write known to be on the disk, only increased while holding {@link #syncLock}
+     */
+    private volatile long syncedSequence;
+    private volatile boolean closed;
+    /**
+     * Set when forcing writes to the disk failed, after which the store rejects all further writes
+     */
+    @Nullable
+    private volatile Throwable failure;
+
+    private PersistentDataStore(@NotNull final Builder builder) throws IOException {
+        this.file = builder.file;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.memoryMapped = builder.memoryMapped;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            load();
+        } catch (final IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+
+        if (builder.syncIntervalNanos > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "PersistentDataStore-" + file.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::runBackgroundTasks, builder.syncIntervalNanos, builder.syncIntervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Opens the store in the given file using the default settings, creating the file if it does not exist
+     *
+     * @param file file
+     * @return PersistentDataStore
+     * @throws IOException if the file cannot be opened or is not a store
+     */
+    @NotNull
+    @Contract(value = "_ -> new")
+    public static PersistentDataStore open(@NotNull final Path file) throws IOException {
+        return builder(file).open();
+    }
+
+    /**
+     * Creates a builder to configure and open the store in the given file
+     *
+     * @param file file
+     * @return Builder
+     */
+    @NotNull
+    @Contract(value = "_ -> new", pure = true)
+    public static Builder builder(@NotNull final Path file) {
+        return new Builder(Objects.requireNonNull(file, "file cannot be null"));
+    }
+
+    /**
+     * Stores the given {@link PersistentDataContainer}, replacing the one previously stored with the same id
+     *
+     * @param id  id
+     * @param pdc PersistentDataContainer
+     * @throws IOException if writing fails
+     */
+    public void put(@NotNull final UUID id, @NotNull final PersistentDataContainer pdc) throws IOException {
+        Objects.requireNonNull(id, "id cannot be null");
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        append(id, RECORD_PUT, ENCODERS.get().toBytes(pdc));
+    }
+
+    /**
+     * Stores the given {@link PersistentDataContainer} using a numeric id
+     *
+     * @param id  id
+     * @param pdc PersistentDataContainer
+     * @throws IOException if writing fails
+     * @see #put(UUID, PersistentDataContainer)
+     */
+    public void put(final long id, @NotNull final PersistentDataContainer pdc) throws IOException {
+        put(toUuid(id), pdc);
+    }
+
+    /**
+     * Reads the {@link PersistentDataContainer} with the given id into a new container created in the given context
+     *
+     * @param id      id
+     * @param context PersistentDataAdapterContext
+     * @return PersistentDataContainer, or null if there is none with this id
+     * @throws IOException if reading fails or the record is corrupt
+     */
+    @Nullable
+    public PersistentDataContainer get(
+            @NotNull final UUID id,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IOException {
+        Objects.requireNonNull(context, "context cannot be null");
+        final byte[] payload = getBytes(id);
+        return payload == null ? null : DECODERS.get().decode(payload, context);
+    }
+
+    /**
+     * Reads the {@link PersistentDataContainer} with the given numeric id into a new container created in the given context
+     *
+     * @param id      id
+     * @param context PersistentDataAdapterContext
+     * @return PersistentDataContainer, or null if there is none with this id
+     * @throws IOException if reading fails or the record is corrupt
+     * @see #get(UUID, PersistentDataAdapterContext)
+     */
+    @Nullable
+    public PersistentDataContainer get(
+            final long id,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IOException {
+        return get(toUuid(id), context);
+    }
+
+    /**
+     * Reads the {@link PersistentDataContainer} with the given id as a {@link LazyPersistentDataContainer}, which only
+     * decodes the values that are actually requested
+     *
+     * @param id      id
+     * @param context PersistentDataAdapterContext
+     * @return LazyPersistentDataContainer, or null if there is none with this id
+     * @throws IOException if reading fails or the record is corrupt
+     */
+    @Nullable
+    public LazyPersistentDataContainer getLazy(
+            @NotNull final UUID id,
+            @NotNull final PersistentDataAdapterContext context
+    ) throws IOException {
+        Objects.requireNonNull(context, "context cannot be null");
+        final byte[] payload = getBytes(id);
+        return payload == null ? null : LazyPersistentDataContainer.fromBytes(payload, context);
+    }
+
+    /**
+     * Reads the serialized {@link PersistentDataContainer} with the given id, in the format of {@link PersistentDataSerializer#toBytes(PersistentDataContainer)}
+     *
+     * @param id id
+     * @return serialized PersistentDataContainer, or null if there is none with this id
+     * @throws IOException if reading fails or the record is corrupt
+     */
+    @Nullable
+    public byte[] getBytes(@NotNull final UUID id) throws IOException {
+        Objects.requireNonNull(id, "id cannot be null");
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            final Long position = index.get(id);
+            if (position == null) {
+                return null;
+            }
+            final Record record = readRecord(position);
+            if (record == null || record.type != RECORD_PUT || !record.id.equals(id)) {
+                throw new IOException("Corrupt record for " + id + " at position " + position + " in " + file);
+            }
+            return record.payload;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a {@link PersistentDataContainer} with the given id is stored
+     *
+     * @param id id
+     * @return true if there is a PersistentDataContainer with this id
+     */
+    public boolean contains(@NotNull final UUID id) {
+        Objects.requireNonNull(id, "id cannot be null");
+        return index.containsKey(id);
+    }
+
+    /**
+     * Checks whether a {@link PersistentDataContainer} with the given numeric id is stored
+     *
+     * @param id id
+     * @return true if there is a PersistentDataContainer with this id
+     */
+    public boolean contains(final long id) {
+        return contains(toUuid(id));
+    }
+
+    /**
+     * Removes the {@link PersistentDataContainer} with the given id
+     *
+     * @param id id
+     * @return true if there was a PersistentDataContainer with this id
+     * @throws IOException if writing fails
+     */
+    public boolean remove(@NotNull final UUID id) throws IOException {
+        Objects.requireNonNull(id, "id cannot be null");
+        return append(id, RECORD_REMOVE, new byte[0]);
+    }
+
+    /**
+     * Removes the {@link PersistentDataContainer} with the given numeric id
+     *
+     * @param id id
+     * @return true if there was a PersistentDataContainer with this id
+     * @throws IOException if writing fails
+     */
+    public boolean remove(final long id) throws IOException {
+        return remove(toUuid(id));
+    }
+
+    /**
+     * Gets the ids of all stored {@link PersistentDataContainer}s. The returned set is a live, unmodifiable view.
+     *
+     * @return ids
+     */
+    @NotNull
+    public Set<UUID> getIds() {
+        return ids;
+    }
+
+    /**
+     * Gets the amount of stored {@link PersistentDataContainer}s
+     *
+     * @return amount of PersistentDataContainers
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Gets the size of the file
+     *
+     * @return size in bytes
+     */
+    public long getFileSize() {
+        return size;
+    }
+
+    /**
+     * Gets the amount of bytes taken up by overwritten and removed records, which are freed by {@link #compact()}
+     *
+     * @return size in bytes
+     */
+    public long getGarbageSize() {
+        return garbage;
+    }
+
+    /**
+     * Checks whether forcing writes to the disk has failed, in which case the store rejects all further writes
+     *
+     * @return true if the store has failed
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Forces all writes to the disk. Only returns once all writes that completed before it was called are on the disk,
+     * but does not block reads and writes while forcing. Concurrent calls share one fsync where possible.
+     *
+     * @throws IOException if syncing fails, or has failed before
+     */
+    public void sync() throws IOException {
+        final long target;
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            ensureNotFailed();
+            target = writeSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (syncedSequence >= target) {
+            return;
+        }
+
+        synchronized (syncLock) {
+            // Another sync may have forced our writes, or failed, while we were waiting
+            ensureNotFailed();
+            if (syncedSequence >= target) {
+                return;
+            }
+            final long sequence;
+            final FileChannel current;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                sequence = writeSequence;
+                current = channel;
+            } finally {
+                lock.readLock().unlock();
+            }
+            // Writes made after the snapshot may or may not be forced, so they are only acknowledged by the next sync
+            force(current, false);
+            syncedSequence = sequence;
+        }
+    }
+
+    /**
+     * Rewrites the file so that it only contains the latest record of every stored {@link PersistentDataContainer}.
+     * Reads and writes can continue while the records are copied, they are only blocked while the records written in
+     * the meantime are copied and the new file replaces the old one.
+     *
+     * @throws IOException if compacting fails, in which case the store keeps using the old file
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            final Map<UUID, Long> live;
+            final long end;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                ensureNotFailed();
+                live = new HashMap<>(index);
+                end = size;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            final Path compactedFile = file.resolveSibling(file.getFileName() + ".compact");
+            try (FileChannel out = FileChannel.open(compactedFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                writeFully(out, fileHeader(), 0);
+                final Map<UUID, Long> newIndex = new ConcurrentHashMap<>(live.size() * 2);
+                long position = FILE_HEADER_SIZE;
+                for (final Map.Entry<UUID, Long> entry : live.entrySet()) {
+                    final ByteBuffer record = readRawRecord(entry.getValue());
+                    newIndex.put(entry.getKey(), position);
+                    position += writeFully(out, record, position);
+                }
+
+                synchronized (syncLock) {
+                    lock.writeLock().lock();
+                    try {
+                        ensureOpen();
+                        ensureNotFailed();
+                        long newGarbage = 0;
+                        long offset = end;
+                        while (offset < size) {
+                            final Record record = readRecord(offset);
+                            if (record == null) {
+                                throw new IOException("Corrupt record at position " + offset + " in " + file);
+                            }
+                            final Long previous = record.type == RECORD_PUT ? newIndex.put(record.id, position) : newIndex.remove(record.id);
+                            if (previous != null) {
+                                newGarbage += readRecordLength(out, previous);
+                            }
+                            if (record.type == RECORD_REMOVE) {
+                                newGarbage += record.length;
+                            }
+                            position += writeFully(out, readRawRecord(offset), position);
+                            offset += record.length;
+                        }
+                        out.force(false);
+
+                        channel.close();
+                        synchronized (regionLock) {
+                            regions = new MappedByteBuffer[0];
+                        }
+                        try {
+                            Files.move(compactedFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        } catch (final IOException | RuntimeException exception) {
+                            channel = reopen();
+                            throw exception;
+                        }
+                        channel = reopen();
+                        index = newIndex;
+                        size = position;
+                        garbage = newGarbage;
+                        // The rename must be durable before the write lock is released and appends to the new file can be
+                        // acknowledged by sync()
+                        try {
+                            forceDirectory(file);
+                        } catch (final IOException | RuntimeException exception) {
+                            failure = exception;
+                            throw exception;
+                        }
+                        syncedSequence = writeSequence;
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            } catch (final IOException | RuntimeException exception) {
+                Files.deleteIfExists(compactedFile);
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Compacts the file on the given executor
+     *
+     * @param executor Executor to compact the file on
+     * @return future that completes when the file has been compacted
+     * @see #compact()
+     */
+    @NotNull
+    public CompletableFuture<Void> compactAsync(@NotNull final Executor executor) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        return CompletableFuture.runAsync(() -> {
+            try {
+                compact();
+            } catch (final IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, executor);
+    }
+
+    /**
+     * Forces all writes to the disk and closes the file. Waits for a running compaction to finish.
+     *
+     * @throws IOException if syncing or closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        synchronized (compactionLock) {
+            synchronized (syncLock) {
+                lock.writeLock().lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        ensureNotFailed();
+                        if (syncedSequence < writeSequence) {
+                            force(channel, false);
+                            syncedSequence = writeSequence;
+                        }
+                    } finally {
+                        channel.close();
+                        synchronized (regionLock) {
+                            regions = new MappedByteBuffer[0];
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private boolean append(@NotNull final UUID id, final byte type, @NotNull final byte[] payload) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(0);
+        record.putInt(0);
+        record.put(type);
+        record.putLong(id.getMostSignificantBits());
+        record.putLong(id.getLeastSignificantBits());
+        record.put(payload);
+        record.putInt(4, headerChecksum(record.array(), 0));
+        record.putInt(8, checksum(record.array(), RECORD_TYPE_OFFSET, record.capacity() - RECORD_TYPE_OFFSET));
+        record.flip();
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            ensureNotFailed();
+            final Long previous = index.get(id);
+            if (type == RECORD_REMOVE && previous == null) {
+                return false;
+            }
+            final long position = size;
+            writeFully(channel, record, position);
+            size = position + record.capacity();
+            writeSequence++;
+            if (type == RECORD_PUT) {
+                index.put(id, position);
+            } else {
+                index.remove(id);
+                garbage += record.capacity();
+            }
+            if (previous != null) {
+                garbage += readRecordLength(channel, previous);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Validates the file header and rebuilds the index, cutting off an incomplete or corrupt last record
+     */
+    private void load() throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < FILE_HEADER_SIZE) {
+            channel.truncate(0);
+            writeFully(channel, fileHeader(), 0);
+            channel.force(true);
+            forceDirectory(file);
+            size = FILE_HEADER_SIZE;
+            return;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a PersistentDataStore");
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported PersistentDataStore version " + version + " in " + file);
+        }
+
+        size = fileSize;
+        long position = FILE_HEADER_SIZE;
+        long superseded = 0;
+        while (position < fileSize) {
+            final Record record = readRecord(position);
+            if (record == null) {
+                if (!isTornTail(position)) {
+                    throw new IOException("Corrupt record at position " + position + " in " + file + ", which is followed by more records");
+                }
+                break;
+            }
+            final Long previous = record.type == RECORD_PUT ? index.put(record.id, position) : index.remove(record.id);
+            if (previous != null) {
+                superseded += readRecordLength(channel, previous);
+            }
+            if (record.type == RECORD_REMOVE) {
+                superseded += record.length;
+            }
+            position += record.length;
+        }
+
+        if (position < fileSize) {
+            channel.truncate(position);
+            channel.force(true);
+            size = position;
+        }
+        garbage = superseded;
+    }
+
+    /**
+     * Syncs and compacts the file in the background. A failed sync marks the store as failed, so every later write, sync
+     * or close reports it, and is rethrown to stop the scheduled task. A failed compaction leaves the old file in use, and
+     * is retried on the next run.
+     */
+    private void runBackgroundTasks() {
+        try {
+            sync();
+        } catch (final IllegalStateException closed) {
+            return;
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        if (compactionThreshold > 0 && garbage >= MIN_AUTO_COMPACTION_GARBAGE && garbage >= size * compactionThreshold) {
+            try {
+                compact();
+            } catch (final IllegalStateException closed) {
+                return;
+            } catch (final IOException exception) {
+                if (failure != null) {
+                    throw new UncheckedIOException(exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the given channel to the disk, marking the store as failed if that fails
+     */
+    private void force(@NotNull final FileChannel channel, final boolean metaData) throws IOException {
+        try {
+            channel.force(metaData);
+        } catch (final IOException | RuntimeException exception) {
+            failure = exception;
+            throw exception;
+        }
+    }
+
+    /**
+     * Opens the file again after it has been replaced by {@link #compact()}, marking the store as failed if that fails
+     */
+    @NotNull
+    private FileChannel reopen() throws IOException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (final IOException | RuntimeException exception) {
+            failure = exception;
+            throw exception;
+        }
+    }
+
+    /**
+     * Checks whether the invalid record at the given position is the last record, torn by a crash while it was being
+     * written. It is torn if its intact header says that it reaches past the end of the file, or if no valid record starts
+     * anywhere after it.
+     */
+    private boolean isTornTail(final long position) throws IOException {
+        if (position + RECORD_HEADER_SIZE > size) {
+            return true;
+        }
+        final byte[] header = new byte[RECORD_HEADER_SIZE];
+        read(position, header);
+        if (isValidHeader(header, 0) && position + RECORD_HEADER_SIZE + ByteBuffer.wrap(header).getInt() > size) {
+            return true;
+        }
+        return !containsValidRecord(position + 1);
+    }
+
+    /**
+     * Checks whether a valid record starts at any position from the given one to the end of the file
+     */
+    private boolean containsValidRecord(final long from) throws IOException {
+        long chunkStart = from;
+        while (chunkStart + RECORD_HEADER_SIZE <= size) {
+            final byte[] chunk = new byte[(int) Math.min(SCAN_CHUNK_SIZE, size - chunkStart)];
+            read(chunkStart, chunk);
+            for (int offset = 0; offset + RECORD_HEADER_SIZE <= chunk.length; offset++) {
+                if (isValidHeader(chunk, offset) && readRecord(chunkStart + offset) != null) {
+                    return true;
+                }
+            }
+            // Consecutive chunks overlap, so that headers spanning two chunks are checked as well
+            chunkStart += chunk.length - RECORD_HEADER_SIZE + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Reads and validates the record at the given position
+     *
+     * @return record, or null if it is incomplete or its checksum does not match
+     */
+    @Nullable
+    private Record readRecord(final long position) throws IOException {
+        if (position + RECORD_HEADER_SIZE > size) {
+            return null;
+        }
+        final byte[] header = new byte[RECORD_HEADER_SIZE];
+        read(position, header);
+        if (!isValidHeader(header, 0)) {
+            return null;
+        }
+        final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        final int length = headerBuffer.getInt();
+        headerBuffer.getInt();
+        final int crc = headerBuffer.getInt();
+        final byte type = headerBuffer.get();
+        if (length > size - position - RECORD_HEADER_SIZE) {
+            return null;
+        }
+
+        final byte[] payload = new byte[length];
+        read(position + RECORD_HEADER_SIZE, payload);
+        final CRC32 checksum = new CRC32();
+        checksum.update(header, RECORD_TYPE_OFFSET, RECORD_HEADER_SIZE - RECORD_TYPE_OFFSET);
+        checksum.update(payload, 0, length);
+        if ((int) checksum.getValue() != crc) {
+            return null;
+        }
+        return new Record(new UUID(headerBuffer.getLong(), headerBuffer.getLong()), type, payload, RECORD_HEADER_SIZE + length);
+    }
+
+    /**
+     * Reads the record at the given position, including its header, without validating it
+     */
+    @NotNull
+    private ByteBuffer readRawRecord(final long position) throws IOException {
+        final byte[] length = new byte[4];
+        read(position, length);
+        final byte[] record = new byte[RECORD_HEADER_SIZE + ByteBuffer.wrap(length).getInt()];
+        read(position, record);
+        return ByteBuffer.wrap(record);
+    }
+
+    /**
+     * Reads from the mapped region containing the given range, or from the channel if the range is not mapped
+     */
+    private void read(final long position, @NotNull final byte[] destination) throws IOException {
+        if (!memoryMapped) {
+            readFully(channel, ByteBuffer.wrap(destination), position);
+            return;
+        }
+        final int regionIndex = (int) (position / REGION_SIZE);
+        final long regionStart = regionIndex * REGION_SIZE;
+        final long requiredLength = position + destination.length - regionStart;
+        if (requiredLength <= REGION_SIZE) {
+            final MappedByteBuffer region = getRegion(regionIndex, requiredLength);
+            if (region != null) {
+                final ByteBuffer view = region.duplicate();
+                view.position((int) (position - regionStart));
+                view.get(destination);
+                return;
+            }
+        }
+        readFully(channel, ByteBuffer.wrap(destination), position);
+    }
+
+    /**
+     * Gets the mapping of a region that covers at least the given length, mapping it again if it has grown enough
+     *
+     * @return mapped region, or null if the range should be read from the channel instead
+     */
+    @Nullable
+    private MappedByteBuffer getRegion(final int regionIndex, final long requiredLength) throws IOException {
+        synchronized (regionLock) {
+            if (regionIndex >= regions.length) {
+                regions = Arrays.copyOf(regions, regionIndex + 1);
+            }
+            final MappedByteBuffer region = regions[regionIndex];
+            if (region != null && region.capacity() >= requiredLength) {
+                return region;
+            }
+            final long regionStart = regionIndex * REGION_SIZE;
+            final long mappableLength = Math.min(REGION_SIZE, size - regionStart);
+            if (mappableLength < requiredLength || region != null && mappableLength - region.capacity() < REMAP_THRESHOLD) {
+                return null;
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, mappableLength);
+            regions[regionIndex] = mapped;
+            return mapped;
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("PersistentDataStore " + file + " is closed");
+        }
+    }
+
+    private void ensureNotFailed() throws IOException {
+        final Throwable cause = failure;
+        if (cause != null) {
+            throw new IOException("PersistentDataStore " + file + " failed to force writes to the disk and no longer accepts writes", cause);
+        }
+    }
+
+    /**
+     * Forces the directory entry of the given file to the disk, so that its creation or replacement survives a crash
+     */
+    private static void forceDirectory(@NotNull final Path file) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        if (WINDOWS || directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer fileHeader() {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static int readRecordLength(@NotNull final FileChannel channel, final long position) throws IOException {
+        final ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, position);
+        return RECORD_HEADER_SIZE + length.getInt(0);
+    }
+
+    /**
+     * Checks the header checksum, length and type of the record header at the given offset
+     */
+    private static boolean isValidHeader(@NotNull final byte[] bytes, final int offset) {
+        final ByteBuffer header = ByteBuffer.wrap(bytes, offset, RECORD_HEADER_SIZE);
+        final int length = header.getInt();
+        final int crc = header.getInt();
+        final byte type = bytes[offset + RECORD_TYPE_OFFSET];
+        return length >= 0 && (type == RECORD_PUT || type == RECORD_REMOVE) && headerChecksum(bytes, offset) == crc;
+    }
+
+    /**
+     * Calculates the CRC32 of the length, type and id of the record header at the given offset
+     */
+    private static int headerChecksum(@NotNull final byte[] bytes, final int offset) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes, offset, 4);
+        checksum.update(bytes, offset + RECORD_TYPE_OFFSET, RECORD_HEADER_SIZE - RECORD_TYPE_OFFSET);
+        return (int) checksum.getValue();
+    }
+
+    private static int checksum(@NotNull final byte[] bytes, final int offset, final int length) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    private static int writeFully(@NotNull final FileChannel channel, @NotNull final ByteBuffer buffer, final long position) throws IOException {
+        final int length = buffer.remaining();
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        return length;
+    }
+
+    private static void readFully(@NotNull final FileChannel channel, @NotNull final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at position " + offset);
+            }
+            offset += read;
+        }
+    }
+
+    @NotNull
+    private static UUID toUuid(final long id) {
+        return new UUID(0, id);
+    }
+
+    /**
+     * Unmodifiable view of the ids in the current index, which stays valid when {@link #compact()} replaces the index
+     */
+    private final class IdSet extends AbstractSet<UUID> {
+
+        @NotNull
+        @Override
+        public Iterator<UUID> iterator() {
+            return Collections.unmodifiableSet(index.keySet()).iterator();
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+        @Override
+        public boolean contains(final Object id) {
+            return id != null && index.containsKey(id);
+        }
+    }
+
+    /**
+     * A validated record
+     */
+    private static final class Record {
+
+        @NotNull
+        private final UUID id;
+        private final byte type;
+        @NotNull
+        private final byte[] payload;
+        private final int length;
+
+        private Record(@NotNull final UUID id, final byte type, @NotNull final byte[] payload, final int length) {
+            this.id = id;
+            this.type = type;
+            this.payload = payload;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Configures and opens a {@link PersistentDataStore}
+     */
+    public static final class Builder {
+
+        private final Path file;
+        private long syncIntervalNanos;
+        private double compactionThreshold = 0.5;
+        private boolean memoryMapped = !WINDOWS;
+
+        private Builder(@NotNull final Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Forces writes to the disk periodically on a background thread. By default, writes are only forced by
+         * {@link PersistentDataStore#sync()} and {@link PersistentDataStore#close()}.
+         *
+         * @param interval interval, 0 to disable
+         * @param unit     unit of the interval
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_, _ -> this")
+        public Builder syncInterval(final long interval, @NotNull final TimeUnit unit) {
+            Objects.requireNonNull(unit, "unit cannot be null");
+            if (interval < 0) {
+                throw new IllegalArgumentException("interval cannot be negative");
+            }
+            this.syncIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Sets the share of the file that may be taken up by overwritten and removed records before the background thread
+         * compacts it. Only has an effect if a {@link #syncInterval(long, TimeUnit)} is set. Defaults to 0.5.
+         *
+         * @param threshold share between 0 and 1, 0 to disable automatic compaction
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder compactionThreshold(final double threshold) {
+            if (!(threshold >= 0 && threshold <= 1)) {
+                throw new IllegalArgumentException("threshold must be between 0 and 1");
+            }
+            this.compactionThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Sets whether records are read through a memory mapping of the file instead of the file channel. Defaults to
+         * true, except on Windows, where a mapped file cannot be replaced by {@link PersistentDataStore#compact()}.
+         *
+         * @param memoryMapped whether to map the file
+         * @return this builder
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder memoryMapped(final boolean memoryMapped) {
+            this.memoryMapped = memoryMapped;
+            return this;
+        }
+
+        /**
+         * Opens the store, creating the file if it does not exist
+         *
+         * @return PersistentDataStore
+         * @throws IOException if the file cannot be opened or is not a store
+         */
+        @NotNull
+        @Contract(value = "-> new")
+        public PersistentDataStore open() throws IOException {
+            return new PersistentDataStore(this);
+        }
+    }
+
+}
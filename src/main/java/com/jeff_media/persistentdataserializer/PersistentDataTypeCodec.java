@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads the values of a custom {@link org.bukkit.persistence.PersistentDataType} directly from and to its
+ * complex type, without going through its primitive form. Register it in a {@link PersistentDataTypeRegistry}.
+ * <pre>{@code
+ * PersistentDataTypeCodec<UUID> uuidCodec = new PersistentDataTypeCodec<UUID>() {
+ *     public int getSize(UUID value) {
+ *         return 16;
+ *     }
+ *     public void write(UUID value, ByteBuffer target) {
+ *         target.putLong(value.getMostSignificantBits()).putLong(value.getLeastSignificantBits());
+ *     }
+ *     public UUID read(ByteBuffer source) {
+ *         return new UUID(source.getLong(), source.getLong());
+ *     }
+ * };
+ * }</pre>
+ *
+ * @param <C> complex type
+ */
+public interface PersistentDataTypeCodec<C> {
+
+    /**
+     * Gets the exact amount of bytes that {@link #write(Object, ByteBuffer)} writes for the given value
+     *
+     * @param value value
+     * @return amount of bytes
+     */
+    int getSize(@NotNull C value);
+
+    /**
+     * Writes the given value to the given buffer, starting at its current position
+     *
+     * @param value  value
+     * @param target ByteBuffer with exactly {@link #getSize(Object)} bytes remaining, whose index 0 is the start of the value
+     */
+    void write(@NotNull C value, @NotNull ByteBuffer target);
+
+    /**
+     * Reads a value from the given buffer
+     *
+     * @param source ByteBuffer whose remaining bytes are exactly the ones written by {@link #write(Object, ByteBuffer)}
+     * @return value
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    @NotNull
+    C read(@NotNull ByteBuffer source) throws IllegalArgumentException;
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable set of {@link PersistentDataTypeCodec}s for custom {@link PersistentDataType}s, e.g. UUIDs or your own item
+ * metadata types
+ * <p>
+ * Keys of a {@link PersistentDataSchema} that was built with a registry can use the registered types. Their values are
+ * written and read by their codec instead of as their primitive form, and {@link PersistentDataCodec#decode(byte[])} returns
+ * them as complex values without converting them at all. Every registry has its own type table, so registries of different
+ * plugins never affect each other. A {@link ConfiguredPersistentDataSerializer} can hold a registry together with its options.
+ * <pre>{@code
+ * PersistentDataTypeRegistry registry = PersistentDataTypeRegistry.builder()
+ *         .register(UUID_TYPE, uuidCodec)
+ *         .build();
+ * PersistentDataSchema schema = PersistentDataSchema.builder(registry)
+ *         .add(new NamespacedKey(plugin, "owner"), UUID_TYPE)
+ *         .build();
+ * }</pre>
+ */
+public final class PersistentDataTypeRegistry {
+
+    /**
+     * Registry without any custom types
+     */
+    public static final PersistentDataTypeRegistry EMPTY = builder().build();
+
+    private final Map<PersistentDataType<?, ?>, PersistentDataTypeCodec<?>> codecs;
+
+    private PersistentDataTypeRegistry(@NotNull final Map<PersistentDataType<?, ?>, PersistentDataTypeCodec<?>> codecs) {
+        this.codecs = codecs;
+    }
+
+    /**
+     * Creates a new {@link Builder}
+     *
+     * @return new Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the codec of the given custom type
+     *
+     * @param type PersistentDataType
+     * @param <C>  complex type
+     * @return codec, or null if the type is not registered
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <C> PersistentDataTypeCodec<C> getCodec(@NotNull final PersistentDataType<?, C> type) {
+        Objects.requireNonNull(type, "type cannot be null");
+        return (PersistentDataTypeCodec<C>) codecs.get(type);
+    }
+
+    /**
+     * Gets the registered custom types, in the order they were registered
+     *
+     * @return unmodifiable set of PersistentDataTypes
+     */
+    @NotNull
+    public Set<PersistentDataType<?, ?>> getTypes() {
+        return Collections.unmodifiableSet(codecs.keySet());
+    }
+
+    /**
+     * Builder for {@link PersistentDataTypeRegistry}s
+     */
+    public static final class Builder {
+
+        private final Map<PersistentDataType<?, ?>, PersistentDataTypeCodec<?>> codecs = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Registers the codec of a custom type
+         *
+         * @param type  custom PersistentDataType
+         * @param codec codec that writes and reads the complex values of the type
+         * @param <C>   complex type
+         * @return this Builder
+         * @throws IllegalArgumentException if the type is a native type, or was already registered
+         */
+        @NotNull
+        @Contract(value = "_, _ -> this")
+        public <C> Builder register(
+                @NotNull final PersistentDataType<?, C> type,
+                @NotNull final PersistentDataTypeCodec<C> codec
+        ) throws IllegalArgumentException {
+            Objects.requireNonNull(type, "type cannot be null");
+            Objects.requireNonNull(codec, "codec cannot be null");
+            if (type instanceof PersistentDataType.PrimitivePersistentDataType) {
+                throw new IllegalArgumentException("Native PersistentDataTypes cannot be registered");
+            }
+            if (codecs.containsKey(type)) {
+                throw new IllegalArgumentException("PersistentDataType " + type + " was already registered");
+            }
+            codecs.put(type, codec);
+            return this;
+        }
+
+        /**
+         * Builds the registry
+         *
+         * @return new PersistentDataTypeRegistry
+         */
+        @NotNull
+        @Contract(value = "-> new", pure = true)
+        public PersistentDataTypeRegistry build() {
+            return new PersistentDataTypeRegistry(new LinkedHashMap<>(codecs));
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the entries of a {@link PersistentDataContainer} one by one, without the container having to be
+ * converted into an intermediate representation first.
+ * <p>
+ * Entries of type {@link PersistentDataType#TAG_CONTAINER} are reported as {@link #enterContainer(NamespacedKey)},
+ * followed by the nested entries and {@link #exitContainer()}. Entries of type {@link PersistentDataType#TAG_CONTAINER_ARRAY}
+ * are reported as {@link #enterContainerArray(NamespacedKey)}, followed by one {@link #enterArrayElement()} /
+ * {@link #exitArrayElement()} pair per contained container, and {@link #exitContainerArray()}.
+ */
+interface PersistentDataVisitor {
+
+    /**
+     * Visits an entry that is neither a {@link PersistentDataType#TAG_CONTAINER} nor a {@link PersistentDataType#TAG_CONTAINER_ARRAY}
+     *
+     * @param key   NamespacedKey
+     * @param type  native PersistentDataType
+     * @param value value, as returned by {@link PersistentDataContainer#get(NamespacedKey, PersistentDataType)}
+     */
+    void visit(@NotNull NamespacedKey key, @NotNull PersistentDataType<?, ?> type, @NotNull Object value);
+
+    /**
+     * Called before the entries of a nested {@link PersistentDataType#TAG_CONTAINER} are visited
+     *
+     * @param key NamespacedKey of the nested container
+     */
+    void enterContainer(@NotNull NamespacedKey key);
+
+    /**
+     * Called after all entries of a nested {@link PersistentDataType#TAG_CONTAINER} have been visited
+     */
+    void exitContainer();
+
+    /**
+     * Called before the containers of a {@link PersistentDataType#TAG_CONTAINER_ARRAY} are visited
+     *
+     * @param key NamespacedKey of the container array
+     */
+    void enterContainerArray(@NotNull NamespacedKey key);
+
+    /**
+     * Called before the entries of a single container inside a {@link PersistentDataType#TAG_CONTAINER_ARRAY} are visited
+     */
+    void enterArrayElement();
+
+    /**
+     * Called after all entries of a single container inside a {@link PersistentDataType#TAG_CONTAINER_ARRAY} have been visited
+     */
+    void exitArrayElement();
+
+    /**
+     * Called after all containers of a {@link PersistentDataType#TAG_CONTAINER_ARRAY} have been visited
+     */
+    void exitContainerArray();
+
+}
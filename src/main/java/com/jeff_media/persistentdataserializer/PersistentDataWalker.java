@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Walks through a {@link PersistentDataContainer} and reports its entries to a {@link PersistentDataVisitor}
+ * <p>
+ * Nested containers are tracked on an explicit stack instead of the call stack, so that deeply nested containers cannot
+ * cause a {@link StackOverflowError}. The {@link TraversalLimits} of the given {@link PersistentDataOptions} are enforced
+ * while walking.
+ */
+final class PersistentDataWalker {
+
+    private static final int CLOSE_NONE = 0;
+    private static final int CLOSE_CONTAINER = 1;
+    private static final int CLOSE_ARRAY_ELEMENT = 2;
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private PersistentDataWalker() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Reports all entries of the given {@link PersistentDataContainer}, including nested containers, to the given visitor
+     *
+     * @param pdc     PersistentDataContainer
+     * @param visitor PersistentDataVisitor
+     * @param options PersistentDataOptions
+     * @throws TraversalLimitExceededException if the container exceeds the {@link PersistentDataOptions#getSerializationLimits() serialization limits}
+     */
+    static void walk(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataOptions options
+    ) {
+        walk(pdc, visitor, PersistentDataFilter.ALL, options);
+    }
+
+    /**
+     * Reports the entries of the given {@link PersistentDataContainer} that are included by the given filter to the given visitor.
+     * Excluded entries are not read from the container at all.
+     *
+     * @param pdc     PersistentDataContainer
+     * @param visitor PersistentDataVisitor
+     * @param filter  PersistentDataFilter
+     * @param options PersistentDataOptions
+     * @throws TraversalLimitExceededException if the container exceeds the {@link PersistentDataOptions#getSerializationLimits() serialization limits}
+     */
+    static void walk(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options
+    ) {
+        walk(pdc, visitor, filter, options, PersistentDataSerializer.getTypeResolver());
+    }
+
+    /**
+     * Reports the entries of the given {@link PersistentDataContainer} that are included by the given filter to the given
+     * visitor, resolving the types of the keys using the given resolver
+     *
+     * @param pdc      PersistentDataContainer
+     * @param visitor  PersistentDataVisitor
+     * @param filter   PersistentDataFilter
+     * @param options  PersistentDataOptions
+     * @param resolver PrimitiveTypeResolver
+     * @throws TraversalLimitExceededException if the container exceeds the {@link PersistentDataOptions#getSerializationLimits() serialization limits}
+     */
+    static void walk(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) {
+
+        Objects.requireNonNull(pdc, "pdc cannot be null");
+        Objects.requireNonNull(visitor, "visitor cannot be null");
+        Objects.requireNonNull(filter, "filter cannot be null");
+
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(pdc, 0, CLOSE_NONE, filter));
+        run(stack, visitor, new TraversalGuard(options.getSerializationLimits()), resolver, options.getMetrics());
+    }
+
+    /**
+     * Reports a single entry of the given {@link PersistentDataContainer}, including nested containers, to the given visitor
+     *
+     * @param pdc      PersistentDataContainer
+     * @param key      NamespacedKey of the entry
+     * @param visitor  PersistentDataVisitor
+     * @param options  PersistentDataOptions
+     * @param resolver PrimitiveTypeResolver
+     * @throws TraversalLimitExceededException if the entry exceeds the {@link PersistentDataOptions#getSerializationLimits() serialization limits}
+     */
+    static void walkEntry(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final PersistentDataOptions options,
+            @NotNull final PrimitiveTypeResolver resolver
+    ) {
+        final Deque<Frame> stack = new ArrayDeque<>();
+        final TraversalGuard guard = new TraversalGuard(options.getSerializationLimits());
+        visitEntry(pdc, key, 0, PersistentDataFilter.ALL, stack, visitor, guard, resolver, options.getMetrics());
+        run(stack, visitor, guard, resolver, options.getMetrics());
+    }
+
+    private static void run(
+            @NotNull final Deque<Frame> stack,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final TraversalGuard guard,
+            @NotNull final PrimitiveTypeResolver resolver,
+            @NotNull final PersistentDataMetrics metrics
+    ) {
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            if (frame.elements != null) {
+                if (frame.index < frame.elements.length) {
+                    final PersistentDataContainer element = frame.elements[frame.index++];
+                    guard.checkDepth(frame.depth + 1);
+                    visitor.enterArrayElement();
+                    stack.push(new Frame(element, frame.depth + 1, CLOSE_ARRAY_ELEMENT, frame.filter));
+                } else {
+                    stack.pop();
+                    visitor.exitContainerArray();
+                }
+            } else if (frame.keys.hasNext()) {
+                visitEntry(frame.pdc, frame.keys.next(), frame.depth, frame.filter, stack, visitor, guard, resolver, metrics);
+            } else {
+                stack.pop();
+                if (frame.close == CLOSE_CONTAINER) {
+                    visitor.exitContainer();
+                } else if (frame.close == CLOSE_ARRAY_ELEMENT) {
+                    visitor.exitArrayElement();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports a primitive entry directly, or enters a nested container and pushes it onto the stack. Does nothing if the
+     * entry is excluded by the filter.
+     */
+    private static void visitEntry(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final NamespacedKey key,
+            final int depth,
+            @NotNull final PersistentDataFilter filter,
+            @NotNull final Deque<Frame> stack,
+            @NotNull final PersistentDataVisitor visitor,
+            @NotNull final TraversalGuard guard,
+            @NotNull final PrimitiveTypeResolver resolver,
+            @NotNull final PersistentDataMetrics metrics
+    ) {
+        if (!filter.includesKey(key)) {
+            return;
+        }
+        final PersistentDataType<?, ?> type = PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key, resolver, metrics);
+        if (!filter.includesType(type)) {
+            return;
+        }
+        guard.countEntry();
+        final Object value = pdc.get(key, type);
+        Objects.requireNonNull(value, "value cannot be null");
+
+        if (type.equals(PersistentDataType.TAG_CONTAINER)) {
+            guard.checkDepth(depth + 1);
+            visitor.enterContainer(key);
+            stack.push(new Frame((PersistentDataContainer) value, depth + 1, CLOSE_CONTAINER, filter.getNested(key)));
+        } else if (type.equals(PersistentDataType.TAG_CONTAINER_ARRAY)) {
+            final PersistentDataContainer[] elements = (PersistentDataContainer[]) value;
+            guard.countArrayElements(elements.length);
+            visitor.enterContainerArray(key);
+            stack.push(new Frame(elements, depth, filter.getNested(key)));
+        } else {
+            guard.countValue(value);
+            visitor.visit(key, type, value);
+        }
+    }
+
+    /**
+     * A container whose keys, or a container array whose elements, are currently being walked
+     */
+    private static final class Frame {
+
+        @Nullable
+        private final PersistentDataContainer pdc;
+        @Nullable
+        private final Iterator<NamespacedKey> keys;
+        @Nullable
+        private final PersistentDataContainer[] elements;
+        private final int depth;
+        private final int close;
+
+        /**
+         * Filter for the entries of this container, or of every element of this container array
+         */
+        private final PersistentDataFilter filter;
+        private int index;
+
+        private Frame(@NotNull final PersistentDataContainer pdc, final int depth, final int close, @NotNull final PersistentDataFilter filter) {
+            this.pdc = pdc;
+            this.keys = pdc.getKeys().iterator();
+            this.elements = null;
+            this.depth = depth;
+            this.close = close;
+            this.filter = filter;
+        }
+
+        private Frame(@NotNull final PersistentDataContainer[] elements, final int depth, @NotNull final PersistentDataFilter filter) {
+            this.pdc = null;
+            this.keys = null;
+            this.elements = elements;
+            this.depth = depth;
+            this.close = CLOSE_NONE;
+            this.filter = filter;
+        }
+    }
+
+}
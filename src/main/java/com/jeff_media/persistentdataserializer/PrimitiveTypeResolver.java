@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Adaptive resolver for the native primitive {@link PersistentDataType} of a key inside a {@link PersistentDataContainer}.
+ * <p>
+ * Remembers the last type that was found for every key (bounded, least recently used keys are evicted) and otherwise
+ * probes the types ordered by how often they were found so far. In the common case, resolving a key only costs a single
+ * {@link PersistentDataContainer#has(NamespacedKey, PersistentDataType)} call.
+ */
+final class PrimitiveTypeResolver {
+
+    /**
+     * Default maximum amount of keys whose last type is remembered
+     */
+    static final int DEFAULT_MAX_CACHED_KEYS = 4096;
+
+    /**
+     * Amount of resolved keys after which the probe order is recalculated
+     */
+    private static final int REORDER_INTERVAL = 1024;
+
+    /**
+     * All types that can be resolved, indexed by their position
+     */
+    private final PersistentDataType<?, ?>[] types;
+
+    /**
+     * How often each type has been found, indexed like {@link #types}
+     */
+    private final AtomicLongArray hits;
+
+    /**
+     * Resolutions since the probe order was last recalculated
+     */
+    private final AtomicInteger resolutionsSinceReorder = new AtomicInteger();
+
+    /**
+     * Last found type index per key. Access ordered, so the eldest entry is the least recently used key.
+     */
+    private final Map<NamespacedKey, Integer> lastTypeIndexByKey;
+
+    /**
+     * Indices into {@link #types}, most frequently found type first
+     */
+    private volatile int[] probeOrder;
+
+    PrimitiveTypeResolver(
+            @NotNull final Collection<PersistentDataType<?, ?>> types,
+            final int maxCachedKeys
+    ) {
+        Objects.requireNonNull(types, "types cannot be null");
+        if (maxCachedKeys < 0) {
+            throw new IllegalArgumentException("maxCachedKeys cannot be negative");
+        }
+
+        this.types = types.toArray(new PersistentDataType<?, ?>[0]);
+        this.hits = new AtomicLongArray(this.types.length);
+        this.probeOrder = new int[this.types.length];
+        for (int i = 0; i < this.probeOrder.length; i++) {
+            this.probeOrder[i] = i;
+        }
+        this.lastTypeIndexByKey = new LinkedHashMap<NamespacedKey, Integer>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<NamespacedKey, Integer> eldest) {
+                return size() > maxCachedKeys;
+            }
+        };
+    }
+
+    /**
+     * Resolves the type of the given key
+     *
+     * @param pdc     PersistentDataContainer
+     * @param key     NamespacedKey
+     * @param metrics recorder that receives the amount of probes
+     * @return the type, or null if none of the known types matches
+     */
+    @Nullable
+    PersistentDataType<?, ?> resolve(
+            @NotNull final PersistentDataContainer pdc,
+            @NotNull final NamespacedKey key,
+            @NotNull final PersistentDataMetrics metrics
+    ) {
+
+        final Integer cachedIndex;
+        synchronized (lastTypeIndexByKey) {
+            cachedIndex = lastTypeIndexByKey.get(key);
+        }
+
+        int probes = 0;
+        if (cachedIndex != null) {
+            probes++;
+            if (pdc.has(key, types[cachedIndex])) {
+                recordHit(cachedIndex);
+                recordProbes(metrics, probes);
+                return types[cachedIndex];
+            }
+        }
+
+        for (final int index : probeOrder) {
+            if (cachedIndex != null && cachedIndex == index) {
+                continue;
+            }
+            probes++;
+            if (pdc.has(key, types[index])) {
+                synchronized (lastTypeIndexByKey) {
+                    lastTypeIndexByKey.put(key, index);
+                }
+                recordHit(index);
+                recordProbes(metrics, probes);
+                return types[index];
+            }
+        }
+
+        recordProbes(metrics, probes);
+        return null;
+    }
+
+    /**
+     * Forgets all remembered keys and type frequencies
+     */
+    void clear() {
+        synchronized (lastTypeIndexByKey) {
+            lastTypeIndexByKey.clear();
+        }
+        for (int i = 0; i < types.length; i++) {
+            hits.set(i, 0);
+        }
+    }
+
+    private static void recordProbes(@NotNull final PersistentDataMetrics metrics, final int probes) {
+        if (metrics.isEnabled()) {
+            metrics.recordProbes(probes);
+        }
+    }
+
+    private void recordHit(final int index) {
+        hits.incrementAndGet(index);
+        if (resolutionsSinceReorder.incrementAndGet() >= REORDER_INTERVAL) {
+            resolutionsSinceReorder.set(0);
+            reorder();
+        }
+    }
+
+    /**
+     * Recalculates the probe order from the current frequencies, then halves all frequencies so that
+     * the order keeps adapting when the workload changes
+     */
+    private void reorder() {
+        final long[] snapshot = new long[types.length];
+        final Integer[] order = new Integer[types.length];
+        for (int i = 0; i < types.length; i++) {
+            snapshot[i] = hits.get(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> Long.compare(snapshot[second], snapshot[first]));
+
+        final int[] newOrder = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            newOrder[i] = order[i];
+            hits.set(i, snapshot[i] >>> 1);
+        }
+        probeOrder = newOrder;
+    }
+
+}
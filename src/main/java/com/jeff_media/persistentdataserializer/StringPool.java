@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the strings and {@link NamespacedKey}s decoded by a {@link BinaryPersistentDataReader}, so that decoding
+ * the same namespaces and keys again does not allocate. Not thread safe.
+ */
+final class StringPool {
+
+    /**
+     * Maximum amount of cached strings and keys. When it is reached, the cache is cleared.
+     */
+    private static final int MAX_SIZE = 4096;
+
+    /**
+     * Strings longer than this many bytes are not cached
+     */
+    private static final int MAX_STRING_LENGTH = 128;
+
+    private byte[][] encodedSlots = new byte[64][];
+    private String[] stringSlots = new String[64];
+    private int stringCount;
+
+    private final Map<String, Map<String, NamespacedKey>> keys = new HashMap<>();
+    private int keyCount;
+
+    /**
+     * Gets the string encoded in the given range of UTF-8 bytes
+     *
+     * @param buffer buffer
+     * @param offset offset of the first byte
+     * @param length amount of bytes
+     * @return decoded string
+     */
+    @NotNull
+    String getString(@NotNull final byte[] buffer, final int offset, final int length) {
+        if (length > MAX_STRING_LENGTH) {
+            return new String(buffer, offset, length, StandardCharsets.UTF_8);
+        }
+
+        final int hash = hash(buffer, offset, length);
+        int mask = encodedSlots.length - 1;
+        int slot = hash & mask;
+        byte[] candidate;
+        while ((candidate = encodedSlots[slot]) != null) {
+            if (matches(candidate, buffer, offset, length)) {
+                return stringSlots[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (stringCount >= MAX_SIZE) {
+            Arrays.fill(encodedSlots, null);
+            Arrays.fill(stringSlots, null);
+            stringCount = 0;
+            slot = hash & mask;
+        } else if ((stringCount + 1) << 1 > encodedSlots.length) {
+            grow();
+            mask = encodedSlots.length - 1;
+            slot = hash & mask;
+            while (encodedSlots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        final String string = new String(buffer, offset, length, StandardCharsets.UTF_8);
+        encodedSlots[slot] = Arrays.copyOfRange(buffer, offset, offset + length);
+        stringSlots[slot] = string;
+        stringCount++;
+        return string;
+    }
+
+    /**
+     * Gets the {@link NamespacedKey} with the given namespace and key
+     *
+     * @param namespace namespace
+     * @param key       key
+     * @return NamespacedKey
+     */
+    @NotNull
+    NamespacedKey getKey(@NotNull final String namespace, @NotNull final String key) {
+        Map<String, NamespacedKey> keysInNamespace = keys.get(namespace);
+        if (keysInNamespace == null) {
+            keysInNamespace = new HashMap<>();
+            keys.put(namespace, keysInNamespace);
+        }
+        NamespacedKey namespacedKey = keysInNamespace.get(key);
+        if (namespacedKey == null) {
+            if (keyCount >= MAX_SIZE) {
+                keys.clear();
+                keyCount = 0;
+                keysInNamespace = new HashMap<>();
+                keys.put(namespace, keysInNamespace);
+            }
+            namespacedKey = BinaryPersistentDataReader.parseKey(namespace, key);
+            keysInNamespace.put(key, namespacedKey);
+            keyCount++;
+        }
+        return namespacedKey;
+    }
+
+    private void grow() {
+        final byte[][] oldEncodedSlots = encodedSlots;
+        final String[] oldStringSlots = stringSlots;
+        encodedSlots = new byte[oldEncodedSlots.length << 1][];
+        stringSlots = new String[oldStringSlots.length << 1];
+        final int mask = encodedSlots.length - 1;
+        for (int i = 0; i < oldEncodedSlots.length; i++) {
+            final byte[] encoded = oldEncodedSlots[i];
+            if (encoded == null) {
+                continue;
+            }
+            int slot = hash(encoded, 0, encoded.length) & mask;
+            while (encodedSlots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            encodedSlots[slot] = encoded;
+            stringSlots[slot] = oldStringSlots[i];
+        }
+    }
+
+    private static int hash(@NotNull final byte[] buffer, final int offset, final int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(@NotNull final byte[] candidate, @NotNull final byte[] buffer, final int offset, final int length) {
+        if (candidate.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
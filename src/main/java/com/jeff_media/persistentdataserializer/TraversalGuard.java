@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps track of a single traversal and enforces its {@link TraversalLimits}
+ */
+final class TraversalGuard {
+
+    private final TraversalLimits limits;
+    private final long maxBufferedTokens;
+    private int entries;
+    private long arrayElements;
+    private long bufferedTokens;
+
+    TraversalGuard(@NotNull final TraversalLimits limits) {
+        this.limits = limits;
+        // An entry consists of a few tokens, every array element of at most one more
+        final long entryTokens = 8L * limits.getMaxEntries();
+        this.maxBufferedTokens = limits.getMaxArrayElements() > Long.MAX_VALUE - entryTokens ? Long.MAX_VALUE : entryTokens + limits.getMaxArrayElements();
+    }
+
+    /**
+     * Checks that the given nesting depth is allowed
+     *
+     * @param depth nesting depth
+     * @throws TraversalLimitExceededException if the depth is too large
+     */
+    void checkDepth(final int depth) {
+        if (depth > limits.getMaxDepth()) {
+            throw new TraversalLimitExceededException("Nesting depth exceeds the limit of " + limits.getMaxDepth());
+        }
+    }
+
+    /**
+     * Counts an entry
+     *
+     * @throws TraversalLimitExceededException if there are too many entries
+     */
+    void countEntry() {
+        if (++entries > limits.getMaxEntries()) {
+            throw new TraversalLimitExceededException("Amount of entries exceeds the limit of " + limits.getMaxEntries());
+        }
+    }
+
+    /**
+     * Counts the elements of a primitive array or TAG_CONTAINER_ARRAY
+     *
+     * @param count amount of elements
+     * @throws TraversalLimitExceededException if there are too many array elements
+     */
+    void countArrayElements(final int count) {
+        arrayElements += count;
+        if (arrayElements > limits.getMaxArrayElements()) {
+            throw new TraversalLimitExceededException("Amount of array elements exceeds the limit of " + limits.getMaxArrayElements());
+        }
+    }
+
+    /**
+     * Counts a JSON token that has to be buffered before it can be read, because it appears before the type of its entry
+     *
+     * @throws TraversalLimitExceededException if more tokens are buffered than the limits allow for a whole container
+     */
+    void countBufferedToken() {
+        if (++bufferedTokens > maxBufferedTokens) {
+            throw new TraversalLimitExceededException("Amount of buffered JSON tokens exceeds the limit of " + maxBufferedTokens);
+        }
+    }
+
+    /**
+     * Counts the elements of the given value if it is a primitive array
+     *
+     * @param value value of a primitive type
+     * @throws TraversalLimitExceededException if there are too many array elements
+     */
+    void countValue(@NotNull final Object value) {
+        if (value instanceof byte[]) {
+            countArrayElements(((byte[]) value).length);
+        } else if (value instanceof int[]) {
+            countArrayElements(((int[]) value).length);
+        } else if (value instanceof long[]) {
+            countArrayElements(((long[]) value).length);
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2023. JEFF Media GbR / mfnalex et al.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.jeff_media.persistentdataserializer;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Limits that protect against deeply nested or huge {@link org.bukkit.persistence.PersistentDataContainer}s, e.g. crafted
+ * items or data written by other plugins. Reading serialized containers, in every format, fails with a
+ * {@link TraversalLimitExceededException} as soon as one of the {@link PersistentDataOptions#getTraversalLimits()} is
+ * exceeded. Serializing live containers only enforces the {@link PersistentDataOptions#getSerializationLimits()}, which are
+ * {@link #UNLIMITED} by default. Set the default limits using
+ * {@link PersistentDataSerializer#setDefaultOptions(PersistentDataOptions)}, or pass them to a single encoder or decoder
+ * using {@link PersistentDataOptions}.
+ */
+public final class TraversalLimits {
+
+    /**
+     * Default limits: a nesting depth of 512, like Minecraft's NBT, 1,048,576 entries and 16,777,216 array elements
+     */
+    public static final TraversalLimits DEFAULT = builder().build();
+
+    /**
+     * No limits at all
+     */
+    public static final TraversalLimits UNLIMITED = builder()
+            .maxDepth(Integer.MAX_VALUE)
+            .maxEntries(Integer.MAX_VALUE)
+            .maxArrayElements(Long.MAX_VALUE)
+            .build();
+
+    private final int maxDepth;
+    private final int maxEntries;
+    private final long maxArrayElements;
+
+    private TraversalLimits(@NotNull final Builder builder) {
+        this.maxDepth = builder.maxDepth;
+        this.maxEntries = builder.maxEntries;
+        this.maxArrayElements = builder.maxArrayElements;
+    }
+
+    /**
+     * Creates a builder, initialized with the {@link #DEFAULT} limits
+     *
+     * @return Builder
+     */
+    @NotNull
+    @Contract(value = "-> new", pure = true)
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the maximum nesting depth. The top level container has depth 0, the entries of a TAG_CONTAINER or of an element
+     * of a TAG_CONTAINER_ARRAY are one level deeper than the container holding it.
+     *
+     * @return maximum nesting depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the maximum amount of entries, including the entries of all nested containers
+     *
+     * @return maximum amount of entries
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the maximum total amount of elements of all primitive arrays and TAG_CONTAINER_ARRAYs
+     *
+     * @return maximum amount of array elements
+     */
+    public long getMaxArrayElements() {
+        return maxArrayElements;
+    }
+
+    @Override
+    public String toString() {
+        return "TraversalLimits{maxDepth=" + maxDepth + ", maxEntries=" + maxEntries + ", maxArrayElements=" + maxArrayElements + "}";
+    }
+
+    /**
+     * Builds {@link TraversalLimits}
+     */
+    public static final class Builder {
+
+        private int maxDepth = 512;
+        private int maxEntries = 1 << 20;
+        private long maxArrayElements = 1 << 24;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum nesting depth
+         *
+         * @param maxDepth maximum nesting depth
+         * @return this builder
+         * @see TraversalLimits#getMaxDepth()
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder maxDepth(final int maxDepth) {
+            if (maxDepth < 0) {
+                throw new IllegalArgumentException("maxDepth cannot be negative");
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Sets the maximum amount of entries
+         *
+         * @param maxEntries maximum amount of entries
+         * @return this builder
+         * @see TraversalLimits#getMaxEntries()
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder maxEntries(final int maxEntries) {
+            if (maxEntries < 0) {
+                throw new IllegalArgumentException("maxEntries cannot be negative");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total amount of array elements
+         *
+         * @param maxArrayElements maximum amount of array elements
+         * @return this builder
+         * @see TraversalLimits#getMaxArrayElements()
+         */
+        @NotNull
+        @Contract(value = "_ -> this")
+        public Builder maxArrayElements(final long maxArrayElements) {
+            if (maxArrayElements < 0) {
+                throw new IllegalArgumentException("maxArrayElements cannot be negative");
+            }
+            this.maxArrayElements = maxArrayElements;
+            return this;
+        }
+
+        /**
+         * Builds the limits
+         *
+         * @return TraversalLimits
+         */
+        @NotNull
+        @Contract(value = "-> new", pure = true)
+        public TraversalLimits build() {
+            return new TraversalLimits(this);
+        }
+    }
+
+}
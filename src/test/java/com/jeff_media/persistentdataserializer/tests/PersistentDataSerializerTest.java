@@ -19,13 +19,50 @@ package com.jeff_media.persistentdataserializer.tests;
 
 import be.seeseemelk.mockbukkit.MockBukkit;
 import be.seeseemelk.mockbukkit.ServerMock;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.jeff_media.persistentdataserializer.ArrayEncoding;
+import com.jeff_media.persistentdataserializer.ConfiguredPersistentDataSerializer;
+import com.jeff_media.persistentdataserializer.LazyPersistentDataContainer;
+import com.jeff_media.persistentdataserializer.LongAdderPersistentDataMetrics;
+import com.jeff_media.persistentdataserializer.PersistentDataBatchSerializer;
+import com.jeff_media.persistentdataserializer.PersistentDataCodec;
+import com.jeff_media.persistentdataserializer.PersistentDataCompression;
+import com.jeff_media.persistentdataserializer.PersistentDataDecoder;
+import com.jeff_media.persistentdataserializer.PersistentDataDelta;
+import com.jeff_media.persistentdataserializer.PersistentDataEncoder;
+import com.jeff_media.persistentdataserializer.PersistentDataFilter;
+import com.jeff_media.persistentdataserializer.PersistentDataMetrics;
+import com.jeff_media.persistentdataserializer.PersistentDataOptions;
+import com.jeff_media.persistentdataserializer.PersistentDataPayloadCache;
+import com.jeff_media.persistentdataserializer.PersistentDataSchema;
 import com.jeff_media.persistentdataserializer.PersistentDataSerializer;
+import com.jeff_media.persistentdataserializer.PersistentDataSnapshot;
+import com.jeff_media.persistentdataserializer.PersistentDataStore;
+import com.jeff_media.persistentdataserializer.PersistentDataTypeCodec;
+import com.jeff_media.persistentdataserializer.PersistentDataTypeRegistry;
+import com.jeff_media.persistentdataserializer.TraversalLimitExceededException;
+import com.jeff_media.persistentdataserializer.TraversalLimits;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import org.bukkit.NamespacedKey;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
+import org.bukkit.persistence.PersistentDataAdapterContext;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 import org.junit.jupiter.api.AfterEach;
@@ -116,6 +153,641 @@ public class PersistentDataSerializerTest {
         Assertions.assertEquals(serialized, serialized2);
     }
 
+    @Test
+    public void testStreamingJson() {
+        String expected = new Gson().toJson(PersistentDataSerializer.toMapList(pdc));
+        StringBuilder builder = new StringBuilder();
+        PersistentDataSerializer.toJson(pdc, builder);
+        Assertions.assertEquals(expected, builder.toString());
+        Assertions.assertEquals(expected, PersistentDataSerializer.toJson(pdc));
+    }
+
+    @Test
+    public void testJsonReaderKeepsLongPrecision() {
+        long[] longs = {Long.MAX_VALUE, (1L << 53) + 1, Long.MIN_VALUE};
+        pdc.set(key("long"), DT.LONG, (1L << 53) + 1);
+        pdc.set(key("long_array"), DT.LONG_ARRAY, longs);
+        String serialized = PersistentDataSerializer.toJson(pdc);
+        PersistentDataContainer deserialized = PersistentDataSerializer.fromJson(new StringReader(serialized), pdc.getAdapterContext());
+        Assertions.assertEquals((Long) ((1L << 53) + 1), deserialized.get(key("long"), DT.LONG));
+        Assertions.assertArrayEquals(longs, deserialized.get(key("long_array"), DT.LONG_ARRAY));
+    }
+
+    @Test
+    public void testJsonReaderSaturatesOutOfRangeNumbers() {
+        String json = "[{\"key\":\"test:int\",\"type\":\"INTEGER\",\"value\":3000000000},"
+                + "{\"key\":\"test:int_double\",\"type\":\"INTEGER\",\"value\":-1.0E20},"
+                + "{\"key\":\"test:long\",\"type\":\"LONG\",\"value\":1.0E30},"
+                + "{\"key\":\"test:int_array\",\"type\":\"INTEGER_ARRAY\",\"value\":[3000000000,-3000000000]}]";
+        PersistentDataContainer deserialized = PersistentDataSerializer.fromJson(new StringReader(json), pdc.getAdapterContext());
+        Assertions.assertEquals((Integer) Integer.MAX_VALUE, deserialized.get(key("int"), DT.INTEGER));
+        Assertions.assertEquals((Integer) Integer.MIN_VALUE, deserialized.get(key("int_double"), DT.INTEGER));
+        Assertions.assertEquals((Long) Long.MAX_VALUE, deserialized.get(key("long"), DT.LONG));
+        Assertions.assertArrayEquals(new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE}, deserialized.get(key("int_array"), DT.INTEGER_ARRAY));
+    }
+
+    @Test
+    public void testBytes() {
+        byte[] serialized = PersistentDataSerializer.toBytes(pdc);
+        PersistentDataContainer deserialized = PersistentDataSerializer.fromBytes(serialized, pdc.getAdapterContext());
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), PersistentDataSerializer.toJson(deserialized));
+        Assertions.assertTrue(serialized.length < PersistentDataSerializer.toJson(pdc).length());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PersistentDataSerializer.fromBytes(new byte[]{(byte) 0xFF}, pdc.getAdapterContext()));
+    }
+
+    @Test
+    public void testCompressedBytes() throws IOException {
+        byte[] compressed = PersistentDataSerializer.toCompressedBytes(pdc);
+        PersistentDataContainer deserialized = PersistentDataSerializer.fromCompressedBytes(compressed, pdc.getAdapterContext());
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), PersistentDataSerializer.toJson(deserialized));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressing = PersistentDataCompression.compressingStream(out)) {
+            PersistentDataSerializer.toBytes(pdc, compressing);
+        }
+        try (InputStream decompressing = PersistentDataCompression.decompressingStream(new ByteArrayInputStream(out.toByteArray()))) {
+            deserialized = PersistentDataSerializer.fromBytes(decompressing, pdc.getAdapterContext());
+        }
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), PersistentDataSerializer.toJson(deserialized));
+
+        // The zlib header stores the checksum of the preset dictionary, which must never change
+        Assertions.assertEquals(0x95d02d67, ByteBuffer.wrap(PersistentDataCompression.compress(new byte[]{1})).getInt(2));
+        Assertions.assertEquals(0x91076af3, ByteBuffer.wrap(PersistentDataCompression.compress("[]".getBytes(StandardCharsets.UTF_8))).getInt(2));
+    }
+
+    @Test
+    public void testDecompressionLimit() {
+        byte[] compressed = PersistentDataCompression.compress(new byte[1 << 20]);
+        Assertions.assertTrue(compressed.length < 2048);
+        Assertions.assertEquals(1 << 20, PersistentDataCompression.decompress(compressed, 1 << 20).length);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PersistentDataCompression.decompress(compressed, (1 << 20) - 1));
+
+        byte[] json = PersistentDataSerializer.toJson(pdc).getBytes(StandardCharsets.UTF_8);
+        Assertions.assertArrayEquals(json, PersistentDataCompression.decompress(PersistentDataCompression.compress(json)));
+    }
+
+    @Test
+    public void testStreamDecompressionLimit() throws IOException {
+        // A version byte followed by 65 MiB of zeros, which compresses to a few kilobytes
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressing = PersistentDataCompression.compressingStream(out)) {
+            compressing.write(1);
+            byte[] zeros = new byte[1 << 20];
+            for (int i = 0; i < 65; i++) {
+                compressing.write(zeros);
+            }
+        }
+        byte[] bomb = out.toByteArray();
+        Assertions.assertTrue(bomb.length < 1 << 17);
+        Assertions.assertThrows(IOException.class, () -> {
+            try (InputStream in = PersistentDataCompression.decompressingStream(new ByteArrayInputStream(bomb))) {
+                PersistentDataSerializer.fromBytes(in, pdc.getAdapterContext());
+            }
+        });
+        Assertions.assertThrows(IOException.class, () -> {
+            try (InputStream in = PersistentDataCompression.decompressingStream(new ByteArrayInputStream(bomb), 1 << 20)) {
+                while (in.read(new byte[4096]) != -1) {
+                }
+            }
+        });
+
+        // Uncompressed streams are limited as well
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                return length;
+            }
+        };
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PersistentDataSerializer.fromBytes(endless, pdc.getAdapterContext()));
+    }
+
+    @Test
+    public void testBatch() {
+        List<PersistentDataContainer> pdcs = Arrays.asList(pdc, pdc1, pdc2, pdc3);
+        byte[] combined = PersistentDataBatchSerializer.toBytes(pdcs);
+        List<PersistentDataContainer> deserialized = PersistentDataBatchSerializer.fromBytes(combined, pdc.getAdapterContext());
+        Assertions.assertEquals(pdcs.size(), deserialized.size());
+        for (int i = 0; i < pdcs.size(); i++) {
+            Assertions.assertEquals(PersistentDataSerializer.toJson(pdcs.get(i)), PersistentDataSerializer.toJson(deserialized.get(i)));
+        }
+
+        List<byte[]> payloads = PersistentDataBatchSerializer.toBytesListAsync(pdcs, Runnable::run).join();
+        deserialized = PersistentDataBatchSerializer.fromBytesList(payloads, pdc.getAdapterContext());
+        for (int i = 0; i < pdcs.size(); i++) {
+            Assertions.assertArrayEquals(PersistentDataSerializer.toBytes(pdcs.get(i)), payloads.get(i));
+            Assertions.assertEquals(PersistentDataSerializer.toJson(pdcs.get(i)), PersistentDataSerializer.toJson(deserialized.get(i)));
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        PersistentDataSnapshot snapshot = PersistentDataSnapshot.capture(pdc);
+        String json = PersistentDataSerializer.toJson(pdc);
+        pdc.set(key("added-after-capture"), DT.STRING, "not in the snapshot");
+
+        Assertions.assertEquals(json, snapshot.toJsonAsync(Runnable::run).join());
+        Assertions.assertArrayEquals(PersistentDataSerializer.toBytes(pdc1), PersistentDataSnapshot.capture(pdc1).toBytes());
+        Assertions.assertNull(snapshot.get(key("added-after-capture")));
+
+        PersistentDataSnapshot deserialized = PersistentDataSnapshot.fromBytesAsync(snapshot.toBytes(), Runnable::run).join();
+        PersistentDataContainer applied = deserialized.toContainer(pdc.getAdapterContext());
+        Assertions.assertEquals(json, PersistentDataSerializer.toJson(applied));
+    }
+
+    @Test
+    public void testDelta() {
+        PersistentDataSnapshot previous = PersistentDataSnapshot.capture(pdc);
+        Assertions.assertTrue(PersistentDataDelta.between(previous, pdc).isEmpty());
+
+        pdc.set(key("name"), DT.STRING, "changed");
+        pdc.set(key("added"), DT.LONG_ARRAY, new long[]{1, 2, 3});
+        pdc.remove(key("int_array"));
+        PersistentDataDelta delta = PersistentDataDelta.between(previous, pdc);
+        Assertions.assertEquals(3, delta.size());
+
+        PersistentDataContainer target = previous.toContainer(pdc.getAdapterContext());
+        PersistentDataDelta.fromBytes(delta.toBytes()).applyTo(target);
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), PersistentDataSerializer.toJson(target));
+        Assertions.assertTrue(PersistentDataDelta.between(pdc, target).isEmpty());
+        Assertions.assertEquals(delta.toJson(), PersistentDataDelta.fromJson(delta.toJson()).toJson());
+
+        // A container array of the wrong length is detected before anything is written
+        PersistentDataSnapshot before = PersistentDataSnapshot.capture(pdc);
+        pdc.set(key("name"), DT.STRING, "changed again");
+        PersistentDataContainer[] elements = pdc.get(key("pdc23"), DT.TAG_CONTAINER_ARRAY);
+        elements[0].set(key("height"), DT.DOUBLE, 2.0);
+        pdc.set(key("pdc23"), DT.TAG_CONTAINER_ARRAY, elements);
+        PersistentDataDelta arrayDelta = PersistentDataDelta.between(before, pdc);
+        PersistentDataContainer shorter = before.toContainer(pdc.getAdapterContext());
+        shorter.set(key("pdc23"), DT.TAG_CONTAINER_ARRAY, new PersistentDataContainer[]{pdc3});
+        String shorterJson = PersistentDataSerializer.toJson(shorter);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> arrayDelta.applyTo(shorter));
+        Assertions.assertEquals(shorterJson, PersistentDataSerializer.toJson(shorter));
+
+        // So is a missing nested container
+        PersistentDataContainer nested = pdc.get(key("pdc1"), DT.TAG_CONTAINER);
+        nested.set(key("age"), DT.INTEGER, 29);
+        pdc.set(key("pdc1"), DT.TAG_CONTAINER, nested);
+        PersistentDataDelta nestedDelta = PersistentDataDelta.between(before, pdc);
+        PersistentDataContainer missing = before.toContainer(pdc.getAdapterContext());
+        missing.remove(key("pdc1"));
+        String missingJson = PersistentDataSerializer.toJson(missing);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> nestedDelta.applyTo(missing));
+        Assertions.assertEquals(missingJson, PersistentDataSerializer.toJson(missing));
+    }
+
+    @Test
+    public void testDeepDelta() {
+        int depth = 20000;
+        StringBuilder prefix = new StringBuilder();
+        StringBuilder suffix = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            prefix.append("[{\"key\":\"test:c\",\"type\":\"TAG_CONTAINER\",\"value\":");
+            suffix.append("}]");
+        }
+        PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().traversalLimits(TraversalLimits.builder().maxDepth(depth + 1).build()).build());
+        try {
+            PersistentDataSnapshot previous = PersistentDataSnapshot.fromJson(prefix + "[{\"key\":\"test:x\",\"type\":\"INTEGER\",\"value\":1}]" + suffix);
+            PersistentDataSnapshot current = PersistentDataSnapshot.fromJson(prefix + "[{\"key\":\"test:x\",\"type\":\"INTEGER\",\"value\":2}]" + suffix);
+            PersistentDataDelta delta = PersistentDataDelta.between(previous, current);
+            Assertions.assertEquals(1, delta.size());
+            Assertions.assertEquals(delta.toJson(), PersistentDataDelta.fromBytes(delta.toBytes()).toJson());
+        } finally {
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.DEFAULT);
+        }
+    }
+
+    @Test
+    public void testSchemaCodec() {
+        PersistentDataSchema heightSchema = PersistentDataSchema.builder()
+                .add(key("height"), DT.DOUBLE)
+                .add(key("heightx2"), DT.DOUBLE)
+                .build();
+        PersistentDataCodec codec = PersistentDataSchema.builder()
+                .add(key("name"), DT.STRING)
+                .add(key("int_array"), DT.INTEGER_ARRAY)
+                .add(key("missing"), DT.LONG)
+                .addContainerArray(key("pdc23"), heightSchema)
+                .build()
+                .compile();
+
+        // long_array and pdc1 are not part of the schema and must be kept anyway
+        byte[] bytes = codec.toBytes(pdc);
+        PersistentDataContainer deserialized = codec.fromBytes(bytes, pdc.getAdapterContext());
+        Assertions.assertEquals(pdc.getKeys(), deserialized.getKeys());
+        Assertions.assertEquals("mfnalex", deserialized.get(key("name"), DT.STRING));
+        Assertions.assertArrayEquals(pdc.get(key("long_array"), DT.LONG_ARRAY), deserialized.get(key("long_array"), DT.LONG_ARRAY));
+        Assertions.assertEquals(28, deserialized.get(key("pdc1"), DT.TAG_CONTAINER).get(key("age"), DT.INTEGER));
+        Assertions.assertEquals(60.5f, deserialized.get(key("pdc23"), DT.TAG_CONTAINER_ARRAY)[1].get(key("weight"), DT.FLOAT));
+        Assertions.assertTrue(bytes.length < PersistentDataSerializer.toBytes(pdc).length);
+    }
+
+    @Test
+    public void testCustomTypeCodec() {
+        PersistentDataType<byte[], UUID> uuidType = new PersistentDataType<byte[], UUID>() {
+            @Override
+            public Class<byte[]> getPrimitiveType() {
+                return byte[].class;
+            }
+
+            @Override
+            public Class<UUID> getComplexType() {
+                return UUID.class;
+            }
+
+            @Override
+            public byte[] toPrimitive(UUID complex, PersistentDataAdapterContext context) {
+                return ByteBuffer.allocate(16).putLong(complex.getMostSignificantBits()).putLong(complex.getLeastSignificantBits()).array();
+            }
+
+            @Override
+            public UUID fromPrimitive(byte[] primitive, PersistentDataAdapterContext context) {
+                ByteBuffer buffer = ByteBuffer.wrap(primitive);
+                return new UUID(buffer.getLong(), buffer.getLong());
+            }
+        };
+        PersistentDataTypeRegistry registry = PersistentDataTypeRegistry.builder()
+                .register(uuidType, new PersistentDataTypeCodec<UUID>() {
+                    @Override
+                    public int getSize(UUID value) {
+                        return 16;
+                    }
+
+                    @Override
+                    public void write(UUID value, ByteBuffer target) {
+                        // Absolute indices are relative to the start of the value
+                        target.putLong(0, value.getMostSignificantBits()).putLong(8, value.getLeastSignificantBits()).position(16);
+                    }
+
+                    @Override
+                    public UUID read(ByteBuffer source) {
+                        return new UUID(source.getLong(), source.getLong());
+                    }
+                })
+                .build();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PersistentDataSchema.builder().add(key("owner"), uuidType));
+
+        UUID owner = UUID.randomUUID();
+        pdc.set(key("owner"), uuidType, owner);
+        PersistentDataCodec codec = PersistentDataSchema.builder(registry)
+                .add(key("owner"), uuidType)
+                .add(key("name"), DT.STRING)
+                .build()
+                .compile();
+        byte[] bytes = codec.toBytes(pdc);
+
+        Map<NamespacedKey, Object> values = codec.decode(bytes);
+        Assertions.assertEquals(owner, values.get(key("owner")));
+        Assertions.assertEquals("mfnalex", values.get(key("name")));
+        Assertions.assertFalse(values.containsKey(key("pdc1")));
+
+        PersistentDataContainer deserialized = codec.fromBytes(bytes, pdc.getAdapterContext());
+        Assertions.assertEquals(owner, deserialized.get(key("owner"), uuidType));
+        Assertions.assertEquals(pdc.getKeys(), deserialized.getKeys());
+    }
+
+    @Test
+    public void testLazyContainer() {
+        LazyPersistentDataContainer lazy = LazyPersistentDataContainer.fromBytes(PersistentDataSerializer.toBytes(pdc), pdc.getAdapterContext());
+        Assertions.assertEquals(pdc.getKeys(), lazy.getKeys());
+        Assertions.assertEquals("mfnalex", lazy.get(key("name"), DT.STRING));
+        Assertions.assertTrue(lazy.has(key("pdc1"), DT.TAG_CONTAINER));
+        Assertions.assertFalse(lazy.has(key("name"), DT.INTEGER));
+        Assertions.assertEquals(28, lazy.get(key("pdc1"), DT.TAG_CONTAINER).get(key("age"), DT.INTEGER));
+        Assertions.assertEquals(60.5f, lazy.get(key("pdc23"), DT.TAG_CONTAINER_ARRAY)[1].get(key("weight"), DT.FLOAT));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> lazy.remove(key("name")));
+
+        String json = PersistentDataSerializer.toJson(pdc);
+        LazyPersistentDataContainer fromJson = LazyPersistentDataContainer.fromJson(json, pdc.getAdapterContext());
+        Assertions.assertEquals(json, PersistentDataSerializer.toJson(fromJson.materialize()));
+    }
+
+    @Test
+    public void testReusableEncoderAndDecoder() {
+        PersistentDataEncoder encoder = new PersistentDataEncoder();
+        PersistentDataDecoder decoder = new PersistentDataDecoder();
+        String json = PersistentDataSerializer.toJson(pdc);
+        byte[] bytes = PersistentDataSerializer.toBytes(pdc);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(json, encoder.toJson(pdc));
+            Assertions.assertArrayEquals(bytes, encoder.toBytes(pdc));
+
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+            Assertions.assertEquals(bytes.length, encoder.encode(pdc, buffer));
+            buffer.flip();
+            Assertions.assertEquals(json, PersistentDataSerializer.toJson(decoder.decode(buffer, pdc.getAdapterContext().newPersistentDataContainer())));
+        }
+        Assertions.assertThrows(BufferOverflowException.class, () -> encoder.encode(pdc, ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void testStore() throws IOException {
+        Path file = Files.createTempFile("pdc", ".store");
+        Files.delete(file);
+        UUID id = UUID.randomUUID();
+        String json = PersistentDataSerializer.toJson(pdc);
+        try {
+            try (PersistentDataStore store = PersistentDataStore.open(file)) {
+                store.put(id, pdc1);
+                store.put(id, pdc);
+                store.put(1, pdc2);
+                store.put(2, pdc3);
+                Assertions.assertTrue(store.remove(2));
+                Assertions.assertFalse(store.remove(3));
+                Assertions.assertEquals(json, PersistentDataSerializer.toJson(store.get(id, pdc.getAdapterContext())));
+                Assertions.assertEquals("mfnalex", store.getLazy(id, pdc.getAdapterContext()).get(key("name"), DT.STRING));
+                Assertions.assertTrue(store.getGarbageSize() > 0);
+            }
+
+            try (PersistentDataStore store = PersistentDataStore.open(file)) {
+                Assertions.assertEquals(2, store.size());
+                Assertions.assertNull(store.get(2, pdc.getAdapterContext()));
+                long sizeBefore = store.getFileSize();
+                store.compact();
+                Assertions.assertEquals(0, store.getGarbageSize());
+                Assertions.assertTrue(store.getFileSize() < sizeBefore);
+                Assertions.assertEquals(json, PersistentDataSerializer.toJson(store.get(id, pdc.getAdapterContext())));
+                Assertions.assertTrue(store.contains(1));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testStoreCorruptRecord() throws IOException {
+        Path file = Files.createTempFile("pdc", ".store");
+        Files.delete(file);
+        try {
+            try (PersistentDataStore store = PersistentDataStore.open(file)) {
+                store.put(1, pdc1);
+                store.put(2, pdc2);
+            }
+            // Corrupt the payload of the first record, which is followed by the second one
+            byte[] valid = Files.readAllBytes(file);
+            byte[] bytes = valid.clone();
+            bytes[40] ^= 0x55;
+            Files.write(file, bytes);
+            Assertions.assertThrows(IOException.class, () -> PersistentDataStore.open(file));
+            Assertions.assertEquals(bytes.length, Files.size(file));
+
+            // Corrupt the length of the first record, so that it seems to reach the end of the file
+            bytes = valid.clone();
+            bytes[8] = 0x7f;
+            Files.write(file, bytes);
+            Assertions.assertThrows(IOException.class, () -> PersistentDataStore.open(file));
+            Assertions.assertEquals(bytes.length, Files.size(file));
+
+            // A torn last record is cut off
+            bytes = Arrays.copyOf(valid, valid.length - 3);
+            Files.write(file, bytes);
+            try (PersistentDataStore store = PersistentDataStore.open(file)) {
+                Assertions.assertTrue(store.contains(1));
+                Assertions.assertFalse(store.contains(2));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testStoreFailsAfterFailedSync() throws IOException {
+        Path file = Files.createTempFile("pdc", ".store");
+        Files.delete(file);
+        try {
+            PersistentDataStore store = PersistentDataStore.open(file);
+            store.put(1, pdc1);
+            Assertions.assertFalse(store.isFailed());
+            // Forcing a channel on an interrupted thread closes the channel and fails
+            Thread.currentThread().interrupt();
+            try {
+                Assertions.assertThrows(IOException.class, store::sync);
+            } finally {
+                Thread.interrupted();
+            }
+            Assertions.assertTrue(store.isFailed());
+
+            // A retried fsync could succeed although the writes never reached the disk, so it is never attempted
+            Assertions.assertThrows(IOException.class, store::sync);
+            Assertions.assertThrows(IOException.class, () -> store.put(2, pdc2));
+            Assertions.assertThrows(IOException.class, store::compact);
+            Assertions.assertThrows(IOException.class, store::close);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testStructuralHash() {
+        long hash = PersistentDataSerializer.hash(pdc);
+        PersistentDataContainer copy = PersistentDataSerializer.fromJson(PersistentDataSerializer.toJson(pdc), pdc.getAdapterContext());
+        Assertions.assertEquals(hash, PersistentDataSerializer.hash(copy));
+
+        PersistentDataContainer[] elements = copy.get(key("pdc23"), DT.TAG_CONTAINER_ARRAY);
+        elements[0].set(key("height"), DT.DOUBLE, 1.0);
+        copy.set(key("pdc23"), DT.TAG_CONTAINER_ARRAY, elements);
+        Assertions.assertNotEquals(hash, PersistentDataSerializer.hash(copy));
+        Assertions.assertNotEquals(PersistentDataSerializer.hash(pdc1), PersistentDataSerializer.hash(pdc2));
+
+        PersistentDataPayloadCache cache = new PersistentDataPayloadCache(16);
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), cache.toJson("pdc", pdc));
+        Assertions.assertArrayEquals(PersistentDataSerializer.toBytes(pdc), cache.toBytes("pdc", pdc, hash));
+        Assertions.assertTrue(cache.contains("pdc", hash));
+        Assertions.assertEquals(1, cache.size());
+
+        // Payloads are only reused for the same id, even if the hashes of different containers collide
+        Assertions.assertArrayEquals(PersistentDataSerializer.toBytes(pdc1), cache.toBytes("pdc1", pdc1, hash));
+        Assertions.assertFalse(cache.contains("pdc2", hash));
+        Assertions.assertArrayEquals(PersistentDataSerializer.toBytes(pdc2), cache.toBytes("pdc1", pdc2));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testTraversalLimits() {
+        String json = PersistentDataSerializer.toJson(pdc);
+        byte[] bytes = PersistentDataSerializer.toBytes(pdc);
+        PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().traversalLimits(TraversalLimits.builder().maxDepth(0).build()).build());
+        try {
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> PersistentDataSerializer.fromJson(json, pdc.getAdapterContext()));
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> PersistentDataSerializer.fromBytes(bytes, pdc.getAdapterContext()));
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> LazyPersistentDataContainer.fromBytes(bytes, pdc.getAdapterContext()));
+            // Live containers are only limited by the serialization limits
+            Assertions.assertEquals(json, PersistentDataSerializer.toJson(pdc));
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().serializationLimits(TraversalLimits.builder().maxDepth(0).build()).build());
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> PersistentDataSerializer.toMapList(pdc));
+            Assertions.assertNotNull(PersistentDataSerializer.fromBytes(bytes, pdc.getAdapterContext()));
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().serializationLimits(TraversalLimits.builder().maxEntries(pdc.getKeys().size()).build()).build());
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> PersistentDataSerializer.toBytes(pdc));
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().traversalLimits(TraversalLimits.builder().maxEntries(pdc.getKeys().size()).build()).build());
+            // Indexing counts the skipped nested entries as well
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> LazyPersistentDataContainer.fromBytes(bytes, pdc.getAdapterContext()));
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().traversalLimits(TraversalLimits.builder().maxArrayElements(0).build()).build());
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> PersistentDataSerializer.fromJson(json, pdc.getAdapterContext()));
+        } finally {
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.DEFAULT);
+        }
+        Assertions.assertEquals(json, PersistentDataSerializer.toJson(PersistentDataSerializer.fromBytes(bytes, pdc.getAdapterContext())));
+    }
+
+    @Test
+    public void testTraversalLimitsWithValueBeforeType() {
+        StringBuilder json = new StringBuilder("[{\"key\":\"test:deep\",\"value\":");
+        for (int i = 0; i < 100000; i++) {
+            json.append('[');
+        }
+        PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().traversalLimits(TraversalLimits.builder().maxDepth(8).build()).build());
+        try {
+            Assertions.assertThrows(TraversalLimitExceededException.class, () -> PersistentDataSerializer.fromJson(json.toString(), pdc.getAdapterContext()));
+        } finally {
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.DEFAULT);
+        }
+
+        String reordered = "[{\"value\":[{\"value\":[1,2],\"key\":\"test:x\",\"type\":\"LONG_ARRAY\"}],\"key\":\"test:c\",\"type\":\"TAG_CONTAINER\"}]";
+        PersistentDataContainer deserialized = PersistentDataSerializer.fromJson(reordered, pdc.getAdapterContext());
+        Assertions.assertArrayEquals(new long[]{1, 2}, deserialized.get(key("c"), DT.TAG_CONTAINER).get(key("x"), DT.LONG_ARRAY));
+    }
+
+    @Test
+    public void testFilter() {
+        pdc.set(new NamespacedKey("other", "large"), DT.STRING, "not ours");
+        PersistentDataFilter filter = PersistentDataFilter.builder()
+                .includeNamespace(key("name").getNamespace())
+                .excludeKeyPrefix("long")
+                .nested(key("pdc23"), PersistentDataFilter.builder().includeType(DT.DOUBLE).build())
+                .build();
+
+        List<Map<?, ?>> mapList = PersistentDataSerializer.toMapList(pdc, filter);
+        PersistentDataContainer filtered = PersistentDataSerializer.fromMapList(mapList, pdc.getAdapterContext());
+        Assertions.assertFalse(filtered.has(new NamespacedKey("other", "large"), DT.STRING));
+        Assertions.assertFalse(filtered.has(key("long_array"), DT.LONG_ARRAY));
+        Assertions.assertTrue(filtered.has(key("name"), DT.STRING));
+        Assertions.assertFalse(filtered.get(key("pdc23"), DT.TAG_CONTAINER_ARRAY)[1].has(key("weight"), DT.FLOAT));
+
+        String json = PersistentDataSerializer.toJson(pdc, filter);
+        Assertions.assertEquals(json, PersistentDataSerializer.toJson(filtered));
+        Assertions.assertEquals(json, PersistentDataSerializer.toJson(PersistentDataSerializer.fromJson(PersistentDataSerializer.toJson(pdc), pdc.getAdapterContext().newPersistentDataContainer(), filter)));
+        Assertions.assertEquals(json, PersistentDataSerializer.toJson(PersistentDataSerializer.fromBytes(PersistentDataSerializer.toBytes(pdc), pdc.getAdapterContext().newPersistentDataContainer(), filter)));
+    }
+
+    @Test
+    public void testCompactMapList() {
+        List<Map<?, ?>> compact = PersistentDataSerializer.toCompactMapList(pdc);
+        Gson gson = new Gson();
+        Assertions.assertEquals(gson.toJson(PersistentDataSerializer.toMapList(pdc)), gson.toJson(compact));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> compact.remove(0));
+        Assertions.assertSame(compact.get(0).get("key"), PersistentDataSerializer.toCompactMapList(pdc).get(0).get("key"));
+
+        PersistentDataContainer deserialized = PersistentDataSerializer.fromMapList(compact, pdc.getAdapterContext());
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), PersistentDataSerializer.toJson(deserialized));
+        Assertions.assertArrayEquals(pdc.get(key("long_array"), DT.LONG_ARRAY), deserialized.get(key("long_array"), DT.LONG_ARRAY));
+    }
+
+    @Test
+    public void testBase64ArrayEncoding() {
+        String numbersJson = PersistentDataSerializer.toJson(pdc);
+        PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().arrayEncoding(ArrayEncoding.BASE64).build());
+        String base64Json;
+        List<Map<?, ?>> base64MapList;
+        try {
+            base64Json = PersistentDataSerializer.toJson(pdc);
+            base64MapList = PersistentDataSerializer.toMapList(pdc);
+        } finally {
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.DEFAULT);
+        }
+        Assertions.assertTrue(base64Json.contains("\"base64.v1:"));
+        Assertions.assertEquals(new Gson().toJson(base64MapList), base64Json);
+
+        PersistentDataContainer fromJson = PersistentDataSerializer.fromJson(base64Json, pdc.getAdapterContext());
+        Assertions.assertEquals(numbersJson, PersistentDataSerializer.toJson(fromJson));
+        Assertions.assertArrayEquals(pdc.get(key("long_array"), DT.LONG_ARRAY), fromJson.get(key("long_array"), DT.LONG_ARRAY));
+        PersistentDataContainer fromMapList = PersistentDataSerializer.fromMapList(base64MapList, pdc.getAdapterContext());
+        Assertions.assertArrayEquals(pdc.get(key("int_array"), DT.INTEGER_ARRAY), fromMapList.get(key("int_array"), DT.INTEGER_ARRAY));
+
+        Assertions.assertThrows(JsonSyntaxException.class, () -> PersistentDataSerializer.fromJson(
+                "[{\"key\":\"test:ints\",\"type\":\"INTEGER_ARRAY\",\"value\":\"base64.v1:AQI=\"}]", pdc.getAdapterContext()));
+    }
+
+    @Test
+    public void testEncoderAndDecoderOptions() {
+        PersistentDataOptions base64 = PersistentDataOptions.builder().arrayEncoding(ArrayEncoding.BASE64).build();
+        Assertions.assertTrue(new PersistentDataEncoder(base64).toJson(pdc).contains("\"base64.v1:"));
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), new PersistentDataEncoder().toJson(pdc));
+        Assertions.assertEquals(ArrayEncoding.NUMBERS, PersistentDataSerializer.getDefaultOptions().getArrayEncoding());
+
+        TraversalLimits noNesting = TraversalLimits.builder().maxDepth(0).build();
+        PersistentDataOptions flat = PersistentDataOptions.builder().traversalLimits(noNesting).serializationLimits(noNesting).build();
+        ByteBuffer buffer = ByteBuffer.wrap(PersistentDataSerializer.toBytes(pdc));
+        Assertions.assertThrows(TraversalLimitExceededException.class,
+                () -> new PersistentDataDecoder(flat).decode(buffer.duplicate(), pdc.getAdapterContext().newPersistentDataContainer()));
+        Assertions.assertThrows(TraversalLimitExceededException.class, () -> new PersistentDataEncoder(flat).toBytes(pdc));
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc),
+                PersistentDataSerializer.toJson(new PersistentDataDecoder().decode(buffer.duplicate(), pdc.getAdapterContext().newPersistentDataContainer())));
+    }
+
+    @Test
+    public void testConfiguredSerializer() {
+        PersistentDataOptions base64Options = PersistentDataOptions.builder().arrayEncoding(ArrayEncoding.BASE64).build();
+        ConfiguredPersistentDataSerializer base64 = ConfiguredPersistentDataSerializer.builder()
+                .options(base64Options)
+                .build();
+        PersistentDataCodec codec = base64.compile(base64.schemaBuilder().build());
+        Assertions.assertSame(base64Options, codec.getOptions());
+        Assertions.assertEquals(PersistentDataSerializer.toJson(pdc), PersistentDataSerializer.toJson(codec.fromBytes(codec.toBytes(pdc), pdc.getAdapterContext())));
+        Assertions.assertEquals(DT.STRING, base64.getPrimitivePersistentDataType(pdc, key("name")));
+
+        TraversalLimits noNesting = TraversalLimits.builder().maxDepth(0).build();
+        ConfiguredPersistentDataSerializer flat = ConfiguredPersistentDataSerializer.builder()
+                .options(PersistentDataOptions.builder().traversalLimits(noNesting).serializationLimits(noNesting).build())
+                .build();
+        byte[] bytes = codec.toBytes(pdc);
+        Assertions.assertThrows(TraversalLimitExceededException.class, () -> flat.compile(flat.schemaBuilder().build()).toBytes(pdc));
+        Assertions.assertThrows(TraversalLimitExceededException.class, () -> flat.compile(flat.schemaBuilder().build()).fromBytes(bytes, pdc.getAdapterContext()));
+        // The static defaults are not affected
+        Assertions.assertEquals(pdc.getKeys(), PersistentDataSerializer.fromBytes(PersistentDataSerializer.toBytes(pdc), pdc.getAdapterContext()).getKeys());
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        LongAdderPersistentDataMetrics metrics = new LongAdderPersistentDataMetrics();
+        PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.builder().metrics(metrics).build());
+        try {
+            String json = PersistentDataSerializer.toJson(pdc);
+            PersistentDataSerializer.fromJson(json, pdc.getAdapterContext());
+            Assertions.assertEquals(1, metrics.getCalls(PersistentDataMetrics.Operation.TO_JSON));
+            Assertions.assertEquals(1, metrics.getCalls(PersistentDataMetrics.Operation.FROM_JSON));
+            Assertions.assertEquals(json.length(), metrics.getSize(PersistentDataMetrics.Operation.TO_JSON));
+            Assertions.assertEquals(metrics.getEntries(PersistentDataMetrics.Operation.TO_JSON), metrics.getEntries(PersistentDataMetrics.Operation.FROM_JSON));
+            Assertions.assertEquals(1, metrics.getMaxDepth(PersistentDataMetrics.Operation.TO_JSON));
+            Assertions.assertTrue(metrics.getProbes() >= metrics.getProbedKeys());
+            Assertions.assertTrue(metrics.getProbedKeys() > 0);
+
+            StringBuilder builder = new StringBuilder();
+            PersistentDataSerializer.toJson(pdc, builder);
+            Assertions.assertEquals(2L * json.length(), metrics.getSize(PersistentDataMetrics.Operation.TO_JSON));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PersistentDataSerializer.toBytes(pdc, out);
+            Assertions.assertEquals(1, metrics.getCalls(PersistentDataMetrics.Operation.TO_BYTES));
+            Assertions.assertEquals(out.size(), metrics.getSize(PersistentDataMetrics.Operation.TO_BYTES));
+        } finally {
+            PersistentDataSerializer.setDefaultOptions(PersistentDataOptions.DEFAULT);
+        }
+    }
+
+    @Test
+    public void testTypeCacheFollowsTypeChanges() {
+        Assertions.assertEquals(DT.STRING, PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key("name")));
+        pdc.set(key("name"), DT.INTEGER, 28);
+        Assertions.assertEquals(DT.INTEGER, PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key("name")));
+        PersistentDataSerializer.clearTypeCache();
+        Assertions.assertEquals(DT.INTEGER, PersistentDataSerializer.getPrimitivePersistentDataType(pdc, key("name")));
+    }
+
     private interface DT extends PersistentDataType {
     }
 }